@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.Metadata;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Builds the messages and partitions that the benchmarks use. The messages look like the ones the web service and the
+ * backend send: a random UUID as the id, an opaque payload and metadata that carries the query string.
+ */
+final class BenchmarkMessages {
+    static final String QUERY_TOPIC = "bullet.queries";
+    static final String RESPONSE_TOPIC = "bullet.responses";
+    // A typical query with a filter, a projection and a window
+    static final String QUERY = "SELECT id, duration, properties FROM STREAM(30000, TIME) WHERE type = 'click' " +
+                                "AND duration > 100 WINDOWING TUMBLING(5000, TIME) LIMIT 100";
+
+    private BenchmarkMessages() {
+    }
+
+    /**
+     * Creates the partitions of a topic.
+     *
+     * @param topic The name of the topic.
+     * @param count The number of partitions.
+     * @return The {@link List} of {@link TopicPartition}.
+     */
+    static List<TopicPartition> partitions(String topic, int count) {
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            partitions.add(new TopicPartition(topic, i));
+        }
+        return partitions;
+    }
+
+    /**
+     * Creates a query as the web service sends it.
+     *
+     * @param random The {@link Random} to create the id and the payload with.
+     * @param payloadBytes The size of the payload.
+     * @return The {@link PubSubMessage} for the query.
+     */
+    static PubSubMessage query(Random random, int payloadBytes) {
+        return new PubSubMessage(id(random), payload(random, payloadBytes), new Metadata(null, QUERY));
+    }
+
+    /**
+     * Creates a result as the backend sends it, with the metadata that routes it back to the web service.
+     *
+     * @param random The {@link Random} to create the id and the payload with.
+     * @param payloadBytes The size of the payload.
+     * @param partition The {@link TopicPartition} to route the result to.
+     * @return The {@link PubSubMessage} for the result.
+     */
+    static PubSubMessage result(Random random, int payloadBytes, TopicPartition partition) {
+        KafkaMetadata metadata = new KafkaMetadata(new Metadata(null, QUERY), partition);
+        return new PubSubMessage(id(random), payload(random, payloadBytes), metadata);
+    }
+
+    private static String id(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    private static byte[] payload(Random random, int payloadBytes) {
+        byte[] payload = new byte[payloadBytes];
+        random.nextBytes(payload);
+        return payload;
+    }
+}
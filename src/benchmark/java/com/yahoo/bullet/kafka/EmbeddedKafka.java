@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import kafka.server.KafkaServerStartable;
+import lombok.Getter;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * A single Kafka broker and the ZooKeeper it needs, running inside this JVM with their data in a temporary directory
+ * that is deleted when it is closed.
+ */
+final class EmbeddedKafka implements AutoCloseable {
+    private static final String HOST = "127.0.0.1";
+
+    private final Path directory;
+    private final ServerCnxnFactory zookeeper;
+    private final KafkaServerStartable broker;
+    @Getter
+    private final String bootstrapServers;
+
+    /**
+     * Starts ZooKeeper and the broker on free ports.
+     *
+     * @throws IOException if the data directory or the ports could not be created.
+     * @throws InterruptedException if interrupted while starting ZooKeeper.
+     */
+    EmbeddedKafka() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("bullet-kafka-benchmark");
+        File zookeeperDirectory = directory.resolve("zookeeper").toFile();
+        zookeeper = ServerCnxnFactory.createFactory(new InetSocketAddress(HOST, 0), 100);
+        zookeeper.startup(new ZooKeeperServer(zookeeperDirectory, zookeeperDirectory, 2000));
+
+        bootstrapServers = HOST + ":" + getFreePort();
+        Properties properties = new Properties();
+        properties.put("broker.id", "0");
+        properties.put("zookeeper.connect", HOST + ":" + zookeeper.getLocalPort());
+        properties.put("listeners", "PLAINTEXT://" + bootstrapServers);
+        properties.put("log.dirs", directory.resolve("kafka").toString());
+        properties.put("auto.create.topics.enable", "false");
+        properties.put("offsets.topic.replication.factor", "1");
+        properties.put("offsets.topic.num.partitions", "1");
+        properties.put("transaction.state.log.replication.factor", "1");
+        properties.put("transaction.state.log.min.isr", "1");
+        properties.put("group.initial.rebalance.delay.ms", "0");
+        broker = KafkaServerStartable.fromProps(properties);
+        broker.startup();
+    }
+
+    /**
+     * Creates a topic.
+     *
+     * @param name The name of the topic.
+     * @param partitions The number of partitions.
+     * @throws ExecutionException if the topic could not be created.
+     * @throws InterruptedException if interrupted while creating the topic.
+     */
+    void createTopic(String name, int partitions) throws ExecutionException, InterruptedException {
+        Properties properties = new Properties();
+        properties.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        try (AdminClient admin = AdminClient.create(properties)) {
+            admin.createTopics(Collections.singleton(new NewTopic(name, partitions, (short) 1))).all().get();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        broker.shutdown();
+        broker.awaitShutdown();
+        zookeeper.shutdown();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static int getFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.common.BulletConfig;
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import com.yahoo.bullet.pubsub.Publisher;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the full loop of a query and its result through an {@link EmbeddedKafka}: a {@link KafkaQueryPublisher}
+ * sends queries to the query topic, a {@link KafkaSubscriber} in the QUERY_PROCESSING context reads them and a
+ * {@link KafkaResponsePublisher} routes a result for each back to the partition of the QUERY_SUBMISSION
+ * {@link KafkaSubscriber}, which measures the time from sending the query to reading its result. Every combination of
+ * the swept settings is run on topics of its own and reported as a line of the throughput and latency percentiles, which
+ * are also written as CSV.
+ *
+ * <p>The arguments are key=value pairs. The keys {@value #MESSAGES}, {@value #PAYLOAD_BYTES}, {@value #PARTITIONS},
+ * {@value #RATE} (queries per second, 0 for as fast as possible), {@value #TIMEOUT_MS} and {@value #OUTPUT} set up the
+ * runs. Any other key is a comma separated list of values to sweep for that setting without the bullet.pubsub.kafka.
+ * prefix, such as producer.linger.ms=0,5,20. A subscriber.rate.limit.max.messages of 0 turns rate limiting off. The
+ * query producers keep the latency profile so the producer settings apply to the results. For example:</p>
+ *
+ * <pre>mvn verify -Pbenchmark -DskipTests -Dbenchmark.jmh.skip=true \
+ *     -Dbenchmark.e2e.args="messages=50000 rate=5000 producer.linger.ms=0,10 consumer.max.poll.records=100,1000"</pre>
+ */
+public final class EndToEndBenchmark {
+    private static final String MESSAGES = "messages";
+    private static final String PAYLOAD_BYTES = "payload.bytes";
+    private static final String PARTITIONS = "partitions";
+    private static final String RATE = "rate";
+    private static final String TIMEOUT_MS = "timeout.ms";
+    private static final String OUTPUT = "output";
+    private static final String RATE_LIMIT_MAX_MESSAGES = "subscriber.rate.limit.max.messages";
+    private static final String[] DEFAULT_SWEEP = {"producer.linger.ms=0,5,20", "producer.batch.size=16384,65536",
+                                                   "consumer.max.poll.records=50,500", RATE_LIMIT_MAX_MESSAGES + "=0,500"};
+    private static final int BATCH = 500;
+    private static final long POLL_MS = 100L;
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    private EndToEndBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args The key=value options and settings to sweep.
+     * @throws Exception if the broker could not be started or a run failed.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put(MESSAGES, "10000");
+        options.put(PAYLOAD_BYTES, "1024");
+        options.put(PARTITIONS, "4");
+        options.put(RATE, "0");
+        options.put(TIMEOUT_MS, "120000");
+        options.put(OUTPUT, "end-to-end-result.csv");
+        Map<String, List<String>> sweep = new LinkedHashMap<>();
+        parse(args, options, sweep);
+        if (sweep.isEmpty()) {
+            parse(DEFAULT_SWEEP, options, sweep);
+        }
+        List<Map<String, String>> runs = new ArrayList<>();
+        combine(new ArrayList<>(sweep.entrySet()), 0, new LinkedHashMap<>(), runs);
+
+        String header = String.join(",", sweep.keySet()) + ",sent,received,seconds,throughput," +
+                        "p50.ms,p90.ms,p99.ms,p99.9.ms,max.ms";
+        try (EmbeddedKafka kafka = new EmbeddedKafka();
+             PrintWriter output = new PrintWriter(Files.newBufferedWriter(Paths.get(options.get(OUTPUT))))) {
+            output.println(header);
+            System.out.println(header);
+            for (int i = 0; i < runs.size(); ++i) {
+                String line = String.join(",", runs.get(i).values()) + "," + run(kafka, i, runs.get(i), options);
+                output.println(line);
+                output.flush();
+                System.out.println(line);
+            }
+        }
+    }
+
+    private static String run(EmbeddedKafka kafka, int index, Map<String, String> settings, Map<String, String> options)
+            throws Exception {
+        int messages = Integer.parseInt(options.get(MESSAGES));
+        int payloadBytes = Math.max(Integer.parseInt(options.get(PAYLOAD_BYTES)), Long.BYTES);
+        int partitions = Integer.parseInt(options.get(PARTITIONS));
+        long rate = Long.parseLong(options.get(RATE));
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.get(TIMEOUT_MS)));
+
+        String queryTopic = BenchmarkMessages.QUERY_TOPIC + "." + index;
+        String responseTopic = BenchmarkMessages.RESPONSE_TOPIC + "." + index;
+        kafka.createTopic(queryTopic, partitions);
+        kafka.createTopic(responseTopic, partitions);
+        BulletConfig config = createConfig(kafka, index, queryTopic, responseTopic, partitions, settings);
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        KafkaPubSub submission = new KafkaPubSub(config);
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        KafkaPubSub processing = new KafkaPubSub(config);
+        Publisher queryPublisher = submission.getPublisher();
+        KafkaSubscriber resultSubscriber = (KafkaSubscriber) submission.getSubscriber();
+        KafkaSubscriber querySubscriber = (KafkaSubscriber) processing.getSubscriber();
+        Publisher resultPublisher = processing.getPublisher();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread backend = new Thread(() -> {
+            try {
+                while (running.get()) {
+                    for (PubSubMessage query : querySubscriber.receive(BATCH, POLL_MS, Long.MAX_VALUE)) {
+                        resultPublisher.send(new PubSubMessage(query.getId(), query.getContent(), query.getMetadata()));
+                        querySubscriber.commit(query.getId());
+                    }
+                }
+            } catch (PubSubException e) {
+                failure.compareAndSet(null, e);
+            }
+        }, "bullet-benchmark-backend");
+        Thread submitter = new Thread(() -> {
+            try {
+                long start = System.nanoTime();
+                for (int i = 0; i < messages && running.get(); ++i) {
+                    if (rate > 0) {
+                        LockSupport.parkNanos(start + i * TimeUnit.SECONDS.toNanos(1) / rate - System.nanoTime());
+                    }
+                    byte[] payload = new byte[payloadBytes];
+                    ByteBuffer.wrap(payload).putLong(System.nanoTime());
+                    queryPublisher.send(new PubSubMessage("query-" + i, payload));
+                }
+            } catch (PubSubException e) {
+                failure.compareAndSet(null, e);
+            }
+        }, "bullet-benchmark-submitter");
+
+        long[] latencies = new long[messages];
+        int received = 0;
+        long start = System.nanoTime();
+        backend.start();
+        submitter.start();
+        while (received < messages && System.nanoTime() - start < timeoutNanos && failure.get() == null) {
+            for (PubSubMessage result : resultSubscriber.receive(BATCH, POLL_MS, Long.MAX_VALUE)) {
+                long sent = ByteBuffer.wrap((byte[]) result.getContent()).getLong();
+                if (received < messages) {
+                    latencies[received++] = System.nanoTime() - sent;
+                }
+                resultSubscriber.commit(result.getId());
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        running.set(false);
+        submitter.join();
+        backend.join();
+        queryPublisher.close();
+        resultPublisher.close();
+        querySubscriber.close();
+        resultSubscriber.close();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return report(latencies, received, messages, elapsed);
+    }
+
+    private static BulletConfig createConfig(EmbeddedKafka kafka, int index, String queryTopic, String responseTopic,
+                                             int partitions, Map<String, String> settings) {
+        BulletConfig config = new BulletConfig();
+        config.set(KafkaConfig.BOOTSTRAP_SERVERS, kafka.getBootstrapServers());
+        config.set(KafkaConfig.REQUEST_TOPIC_NAME, queryTopic);
+        config.set(KafkaConfig.RESPONSE_TOPIC_NAME, responseTopic);
+        List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < partitions; ++i) {
+            numbers.add(i);
+        }
+        config.set(KafkaConfig.REQUEST_PARTITIONS, numbers);
+        config.set(KafkaConfig.RESPONSE_PARTITIONS, numbers);
+        config.set(KafkaConfig.GROUP_ID, "bullet-benchmark-" + index);
+        // The topics are new so nothing is missed if the subscribers start after the first queries are sent
+        config.set(KafkaConfig.CONSUMER_NAMESPACE + "auto.offset.reset", "earliest");
+        settings.forEach((key, value) -> {
+            if (RATE_LIMIT_MAX_MESSAGES.equals(key)) {
+                boolean enabled = Integer.parseInt(value) > 0;
+                config.set(KafkaConfig.RATE_LIMIT_ENABLE, enabled);
+                if (!enabled) {
+                    return;
+                }
+            }
+            config.set(KafkaConfig.KAFKA_NAMESPACE + key, toValue(value));
+        });
+        return config;
+    }
+
+    private static String report(long[] latencies, int received, int sent, long elapsedNanos) {
+        Arrays.sort(latencies, 0, received);
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder report = new StringBuilder();
+        report.append(sent).append(',').append(received).append(',').append(String.format("%.3f", seconds))
+              .append(',').append(String.format("%.1f", received / seconds));
+        for (double percentile : PERCENTILES) {
+            int rank = (int) Math.ceil(percentile / 100.0 * received) - 1;
+            report.append(',').append(received == 0 ? "" : toMillis(latencies[Math.max(rank, 0)]));
+        }
+        report.append(',').append(received == 0 ? "" : toMillis(latencies[received - 1]));
+        return report.toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    private static Object toValue(String value) {
+        // The validated settings need numbers and Kafka takes numbers for its settings as well
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    private static void parse(String[] args, Map<String, String> options, Map<String, List<String>> sweep) {
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            if (options.containsKey(pair[0])) {
+                options.put(pair[0], pair[1]);
+            } else {
+                sweep.put(pair[0], Arrays.asList(pair[1].split(",")));
+            }
+        }
+    }
+
+    private static void combine(List<Map.Entry<String, List<String>>> sweep, int index, Map<String, String> current,
+                                List<Map<String, String>> runs) {
+        if (index == sweep.size()) {
+            runs.add(new LinkedHashMap<>(current));
+            return;
+        }
+        Map.Entry<String, List<String>> entry = sweep.get(index);
+        for (String value : entry.getValue()) {
+            current.put(entry.getKey(), value);
+            combine(sweep, index + 1, current, runs);
+        }
+        current.remove(entry.getKey());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work the publishers do per message before the producer batches it: picking the partition, routing,
+ * serializing and creating the headers. The producer is a {@link MockProducer} that completes sends immediately.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PublisherBenchmark {
+    private static final int MESSAGES = 1024;
+    // The mock producer keeps every record it was sent so it is cleared regularly
+    private static final int MAX_HISTORY = 10000;
+
+    @Param({"128", "4096", "65536"})
+    private int payloadBytes;
+
+    private MockProducer<String, byte[]> producer;
+    private KafkaQueryPublisher queryPublisher;
+    private KafkaResponsePublisher responsePublisher;
+    private PubSubMessage[] queries;
+    private PubSubMessage[] results;
+    private int index;
+    private int sent;
+
+    /**
+     * Creates the publishers and the messages to send.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42L);
+        List<TopicPartition> queryPartitions = BenchmarkMessages.partitions(BenchmarkMessages.QUERY_TOPIC, 16);
+        List<TopicPartition> responsePartitions = BenchmarkMessages.partitions(BenchmarkMessages.RESPONSE_TOPIC, 16);
+        producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        queryPublisher = new KafkaQueryPublisher(producer, queryPartitions, responsePartitions, true);
+        responsePublisher = new KafkaResponsePublisher(producer, responsePartitions, true);
+        queries = new PubSubMessage[MESSAGES];
+        results = new PubSubMessage[MESSAGES];
+        for (int i = 0; i < MESSAGES; ++i) {
+            queries[i] = BenchmarkMessages.query(random, payloadBytes);
+            results[i] = BenchmarkMessages.result(random, payloadBytes, responsePartitions.get(i % responsePartitions.size()));
+        }
+    }
+
+    /**
+     * Sends a query with routing data.
+     *
+     * @return The sent {@link PubSubMessage}.
+     * @throws PubSubException if the query could not be sent.
+     */
+    @Benchmark
+    public PubSubMessage sendQuery() throws PubSubException {
+        return queryPublisher.send(queries[next()]);
+    }
+
+    /**
+     * Sends a result to the partition it is routed to.
+     *
+     * @return The sent {@link PubSubMessage}.
+     * @throws PubSubException if the result could not be sent.
+     */
+    @Benchmark
+    public PubSubMessage sendResult() throws PubSubException {
+        return responsePublisher.send(results[next()]);
+    }
+
+    private int next() {
+        if (++sent == MAX_HISTORY) {
+            producer.clear();
+            sent = 0;
+        }
+        index = (index + 1) & (MESSAGES - 1);
+        return index;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.Metadata;
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures picking the partition for a message and setting and reading the routing metadata of a query.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RoutingBenchmark {
+    // A power of two so the next message is found with a mask
+    private static final int MESSAGES = 1024;
+
+    @Param({"1", "16", "128"})
+    private int partitionCount;
+
+    private List<TopicPartition> partitions;
+    private PubSubMessage[] queries;
+    private Metadata[] metadata;
+    private PubSubMessage[] routed;
+    private int index;
+
+    /**
+     * Creates the messages to route.
+     *
+     * @throws PubSubException if the routing data could not be set.
+     */
+    @Setup
+    public void setup() throws PubSubException {
+        Random random = new Random(42L);
+        partitions = BenchmarkMessages.partitions(BenchmarkMessages.RESPONSE_TOPIC, partitionCount);
+        queries = new PubSubMessage[MESSAGES];
+        metadata = new Metadata[MESSAGES];
+        routed = new PubSubMessage[MESSAGES];
+        for (int i = 0; i < MESSAGES; ++i) {
+            queries[i] = BenchmarkMessages.query(random, 256);
+            metadata[i] = queries[i].getMetadata();
+            routed[i] = BenchmarkMessages.query(random, 256);
+            KafkaMetadata.setRouteData(partitions, routed[i]);
+        }
+    }
+
+    /**
+     * Picks the partition for a query.
+     *
+     * @return The {@link TopicPartition} for the query.
+     */
+    @Benchmark
+    public TopicPartition getPartition() {
+        return KafkaMetadata.getPartition(partitions, queries[next()]);
+    }
+
+    /**
+     * Sets the routing data of a query that has the metadata the web service gives it.
+     *
+     * @return The {@link Metadata} with the routing data.
+     * @throws PubSubException if the routing data could not be set.
+     */
+    @Benchmark
+    public Metadata setRouteData() throws PubSubException {
+        int i = next();
+        PubSubMessage query = queries[i];
+        query.setMetadata(metadata[i]);
+        KafkaMetadata.setRouteData(partitions, query);
+        return query.getMetadata();
+    }
+
+    /**
+     * Reads the routing data of a query.
+     *
+     * @return The {@link TopicPartition} the result is routed to.
+     * @throws PubSubException if the routing data could not be read.
+     */
+    @Benchmark
+    public TopicPartition getRouteInfo() throws PubSubException {
+        return KafkaMetadata.getRouteInfo(routed[next()]);
+    }
+
+    private int next() {
+        index = (index + 1) & (MESSAGES - 1);
+        return index;
+    }
+}
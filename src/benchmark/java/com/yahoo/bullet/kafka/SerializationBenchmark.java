@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.common.SerializerDeserializer;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing and deserializing results with routing metadata as the publishers and subscribers do.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    @Param({"128", "4096", "65536"})
+    private int payloadBytes;
+
+    private PubSubMessage message;
+    private byte[] serialized;
+
+    /**
+     * Creates the message to serialize.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42L);
+        message = BenchmarkMessages.result(random, payloadBytes, new TopicPartition(BenchmarkMessages.RESPONSE_TOPIC, 0));
+        serialized = SerializerDeserializer.toBytes(message);
+    }
+
+    /**
+     * Serializes a message.
+     *
+     * @return The serialized message.
+     */
+    @Benchmark
+    public byte[] serialize() {
+        return SerializerDeserializer.toBytes(message);
+    }
+
+    /**
+     * Deserializes a message.
+     *
+     * @return The deserialized {@link PubSubMessage}.
+     */
+    @Benchmark
+    public PubSubMessage deserialize() {
+        return SerializerDeserializer.fromBytes(serialized);
+    }
+
+    /**
+     * Serializes a message and deserializes it again.
+     *
+     * @return The deserialized {@link PubSubMessage}.
+     */
+    @Benchmark
+    public PubSubMessage roundTrip() {
+        return SerializerDeserializer.fromBytes(SerializerDeserializer.toBytes(message));
+    }
+}
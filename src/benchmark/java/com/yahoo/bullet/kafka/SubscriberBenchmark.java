@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.common.SerializerDeserializer;
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a batch of results through {@link KafkaSubscriber#getMessages()} and committing them. The consumer
+ * is a {@link MockConsumer} that is given the batch before each poll, which is included in the measurement.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SubscriberBenchmark {
+    private static final int PARTITIONS = 4;
+
+    @Param({"50", "500"})
+    private int batchSize;
+
+    @Param({"128", "4096"})
+    private int payloadBytes;
+
+    @Param({"true", "false"})
+    private boolean manualCommit;
+
+    private MockConsumer<String, byte[]> consumer;
+    private KafkaSubscriber subscriber;
+    private List<TopicPartition> partitions;
+    private long[] offsets;
+    private String[] ids;
+    private byte[][] values;
+
+    /**
+     * Creates the subscriber and the records in a batch.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42L);
+        partitions = BenchmarkMessages.partitions(BenchmarkMessages.RESPONSE_TOPIC, PARTITIONS);
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.assign(partitions);
+        Map<TopicPartition, Long> beginning = new HashMap<>();
+        partitions.forEach(partition -> beginning.put(partition, 0L));
+        consumer.updateBeginningOffsets(beginning);
+        subscriber = new KafkaSubscriber(consumer, Integer.MAX_VALUE, manualCommit);
+        subscriber.onPartitionsAssigned(partitions);
+        offsets = new long[PARTITIONS];
+        ids = new String[batchSize];
+        values = new byte[batchSize][];
+        for (int i = 0; i < batchSize; ++i) {
+            PubSubMessage message = BenchmarkMessages.result(random, payloadBytes, partitions.get(i % PARTITIONS));
+            ids[i] = message.getId();
+            values[i] = SerializerDeserializer.toBytes(message);
+        }
+    }
+
+    /**
+     * Closes the subscriber.
+     */
+    @TearDown
+    public void tearDown() {
+        subscriber.close();
+    }
+
+    /**
+     * Polls a batch of records, deserializes them and commits the messages.
+     *
+     * @return The {@link List} of {@link PubSubMessage} read.
+     * @throws PubSubException if the poll failed.
+     */
+    @Benchmark
+    public List<PubSubMessage> getMessages() throws PubSubException {
+        for (int i = 0; i < batchSize; ++i) {
+            int partition = i % PARTITIONS;
+            consumer.addRecord(new ConsumerRecord<>(BenchmarkMessages.RESPONSE_TOPIC, partition, offsets[partition]++, ids[i], values[i]));
+        }
+        List<PubSubMessage> messages = subscriber.getMessages();
+        for (PubSubMessage message : messages) {
+            subscriber.commit(message.getId());
+        }
+        return messages;
+    }
+}
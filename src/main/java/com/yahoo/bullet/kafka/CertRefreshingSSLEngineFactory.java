@@ -7,6 +7,8 @@ package com.yahoo.bullet.kafka;
 
 import com.oath.auth.KeyRefresher;
 import com.oath.auth.Utils;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.common.config.SslConfigs;
 import org.apache.kafka.common.config.types.Password;
@@ -19,9 +21,15 @@ import javax.net.ssl.SSLParameters;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,6 +40,12 @@ import java.util.Set;
  * files on disk. This functionality is only supported in Kafka 2.6 or later. This class is a client-side
  * implementation only - server-side functions like `createServerSslEngine()` are not supported. See
  * `src/main/resources/bullet_kafka_defaults.yaml` for a list of required settings.
+ *
+ * All the factories in the JVM that use the same cert, key, truststore and refresh interval share one {@link SSLContext}
+ * and one {@link KeyRefresher}, so the files are only read and watched once and TLS sessions can be resumed across
+ * clients. The shared context is counted for each configured factory and its refresher is shut down once the last
+ * factory using it is closed. The contexts are told apart by a hash of the truststore password so that the password
+ * itself is not kept around.
  */
 @Slf4j
 public class CertRefreshingSSLEngineFactory implements SslEngineFactory {
@@ -44,6 +58,29 @@ public class CertRefreshingSSLEngineFactory implements SslEngineFactory {
     String[] cipherSuites = null;
     String[] enabledProtocols = null;
     SSLContext sslContext;
+    KeyRefresher keyRefresher;
+    List<String> contextKey;
+
+    // Guarded by itself
+    private static final Map<List<String>, SharedContext> SHARED_CONTEXTS = new HashMap<>();
+
+    /**
+     * An {@link SSLContext} and the {@link KeyRefresher} that keeps its keys up to date, if any.
+     */
+    @Getter @AllArgsConstructor
+    protected static class RefreshingContext {
+        private final SSLContext sslContext;
+        private final KeyRefresher keyRefresher;
+    }
+
+    private static class SharedContext {
+        private final RefreshingContext context;
+        private int references = 0;
+
+        private SharedContext(RefreshingContext context) {
+            this.context = context;
+        }
+    }
 
     @SuppressWarnings("unchecked")
     @Override
@@ -67,7 +104,12 @@ public class CertRefreshingSSLEngineFactory implements SslEngineFactory {
             this.enabledProtocols = enabledProtocolsList.toArray(new String[enabledProtocolsList.size()]);
         }
 
-        this.sslContext = createSSLContext();
+        // A factory that is configured again no longer uses the context for its old settings
+        if (contextKey != null) {
+            releaseSSLContext(contextKey);
+            contextKey = null;
+        }
+        this.sslContext = acquireSSLContext();
     }
 
     @Override
@@ -131,17 +173,43 @@ public class CertRefreshingSSLEngineFactory implements SslEngineFactory {
 
     @Override
     public void close() throws IOException {
+        if (contextKey != null) {
+            releaseSSLContext(contextKey);
+            contextKey = null;
+        }
         this.sslContext = null;
+        this.keyRefresher = null;
+    }
+
+    /**
+     * Gets the number of factories using the shared {@link SSLContext} for the given files and refresh interval.
+     *
+     * @param publicCertLocation The path of the public cert.
+     * @param privateKeyLocation The path of the private key.
+     * @param truststoreLocation The path of the truststore file.
+     * @param truststorePassword The password for the truststore.
+     * @param keyRefreshInterval The refresh interval in ms.
+     * @return The number of factories using the context or 0 if there is none.
+     */
+    static int getReferences(String publicCertLocation, String privateKeyLocation, String truststoreLocation,
+                             String truststorePassword, int keyRefreshInterval) {
+        List<String> key = toContextKey(publicCertLocation, privateKeyLocation, truststoreLocation, truststorePassword, keyRefreshInterval);
+        synchronized (SHARED_CONTEXTS) {
+            SharedContext shared = SHARED_CONTEXTS.get(key);
+            return shared == null ? 0 : shared.references;
+        }
     }
 
     // Functions that proxy to other classes or require real certs can be extended for testing
 
     /**
-     * Create an SSLContext.
+     * Create an SSLContext. This is only called if no other factory in the JVM shares one for the same settings. The
+     * {@link KeyRefresher} that it starts, if any, is returned with it so that it can be shut down once the context is
+     * no longer used.
      *
-     * @return The {@link SSLContext}.
+     * @return The {@link RefreshingContext} with the {@link SSLContext} and its {@link KeyRefresher}.
      */
-    protected SSLContext createSSLContext() {
+    protected RefreshingContext createSSLContext() {
         try {
             KeyRefresher keyRefresher = generateKeyRefresher(truststoreLocation,
                                                              truststorePassword.value(),
@@ -150,7 +218,7 @@ public class CertRefreshingSSLEngineFactory implements SslEngineFactory {
             SSLContext sslContext = Utils.buildSSLContext(keyRefresher.getKeyManagerProxy(), keyRefresher.getTrustManagerProxy());
             keyRefresher.startup(keyRefreshInterval);
             log.info("Creating SSLContext that will refresh keys every {} ms.", keyRefreshInterval);
-            return sslContext;
+            return new RefreshingContext(sslContext, keyRefresher);
         } catch (Exception e) {
             throw new RuntimeException("Failed to create SSLContext.", e);
         }
@@ -205,6 +273,55 @@ public class CertRefreshingSSLEngineFactory implements SslEngineFactory {
         return sslContext.createSSLEngine(peerHost, peerPort);
     }
 
+    private SSLContext acquireSSLContext() {
+        List<String> key = toContextKey(publicCertLocation, privateKeyLocation, truststoreLocation,
+                                        truststorePassword.value(), keyRefreshInterval);
+        synchronized (SHARED_CONTEXTS) {
+            SharedContext shared = SHARED_CONTEXTS.get(key);
+            if (shared == null) {
+                shared = new SharedContext(createSSLContext());
+                SHARED_CONTEXTS.put(key, shared);
+            } else {
+                log.info("Reusing the SSLContext for {} shared by {} other factories.", publicCertLocation, shared.references);
+            }
+            shared.references++;
+            this.keyRefresher = shared.context.getKeyRefresher();
+            this.contextKey = key;
+            return shared.context.getSslContext();
+        }
+    }
+
+    private static void releaseSSLContext(List<String> key) {
+        synchronized (SHARED_CONTEXTS) {
+            SharedContext shared = SHARED_CONTEXTS.get(key);
+            if (shared == null || --shared.references > 0) {
+                return;
+            }
+            SHARED_CONTEXTS.remove(key);
+            KeyRefresher keyRefresher = shared.context.getKeyRefresher();
+            if (keyRefresher != null) {
+                log.info("Shutting down the key refresher for {} since it is no longer used.", key.get(0));
+                keyRefresher.shutdown();
+            }
+        }
+    }
+
+    private static List<String> toContextKey(String publicCertLocation, String privateKeyLocation, String truststoreLocation,
+                                             String truststorePassword, int keyRefreshInterval) {
+        return Arrays.asList(publicCertLocation, privateKeyLocation, truststoreLocation, hash(truststorePassword),
+                             String.valueOf(keyRefreshInterval));
+    }
+
+    private static String hash(String password) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
     private String findFileOrThrow(Map<String, ?> configs, String key) {
         String path = (String) configs.get(key);
         if (isAbsolutePathThatExists(path)) {
@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically samples the metrics that the Kafka producers and consumers of a {@link KafkaPubSub} keep themselves, such
+ * as the consumer lag per partition, and reports the ones with whitelisted names to its {@link KafkaMetrics}. Each
+ * sample is tagged with the tags of the Kafka metric, its group and the context and role of the client. The clients are
+ * only weakly held so clients that are no longer used stop being sampled once they are garbage collected.
+ */
+@Slf4j
+public class ClientMetricsExporter implements AutoCloseable {
+    public static final String CONTEXT_TAG = "context";
+    public static final String ROLE_TAG = "role";
+    public static final String GROUP_TAG = "group";
+    public static final String PRODUCER_ROLE = "producer";
+    public static final String CONSUMER_ROLE = "consumer";
+
+    @AllArgsConstructor
+    private static class Client {
+        private final WeakReference<Object> reference;
+        private final String context;
+        private final String role;
+    }
+
+    @Getter
+    private final KafkaMetrics metrics;
+    private final Set<String> names;
+    private final long intervalMS;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a ClientMetricsExporter. Sampling starts when the first client is registered.
+     *
+     * @param metrics The {@link KafkaMetrics} to report the samples to.
+     * @param names The {@link Collection} of the names of the Kafka metrics to sample.
+     * @param intervalMS The time in milliseconds between samples.
+     */
+    public ClientMetricsExporter(KafkaMetrics metrics, Collection<String> names, long intervalMS) {
+        this.metrics = metrics;
+        this.names = new HashSet<>(names);
+        this.intervalMS = intervalMS;
+    }
+
+    /**
+     * Starts sampling the metrics of a producer.
+     *
+     * @param producer The {@link Producer} to sample.
+     * @param context The name of the context the producer was created in.
+     */
+    public void register(Producer<?, ?> producer, String context) {
+        register(producer, context, PRODUCER_ROLE);
+    }
+
+    /**
+     * Starts sampling the metrics of a consumer.
+     *
+     * @param consumer The {@link Consumer} to sample.
+     * @param context The name of the context the consumer was created in.
+     */
+    public void register(Consumer<?, ?> consumer, String context) {
+        register(consumer, context, CONSUMER_ROLE);
+    }
+
+    /**
+     * Reports the current values of the whitelisted metrics of the registered clients. Metrics that do not have a
+     * numeric value yet, such as averages over no samples, are skipped.
+     */
+    void sample() {
+        clients.removeIf(client -> client.reference.get() == null);
+        for (Client client : clients) {
+            Object instance = client.reference.get();
+            if (instance == null) {
+                continue;
+            }
+            Map<MetricName, ? extends Metric> clientMetrics = instance instanceof Producer ?
+                                                              ((Producer<?, ?>) instance).metrics() :
+                                                              ((Consumer<?, ?>) instance).metrics();
+            clientMetrics.forEach((name, metric) -> report(client, name, metric));
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        clients.clear();
+    }
+
+    private synchronized void register(Object client, String context, String role) {
+        clients.add(new Client(new WeakReference<>(client), context, role));
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bullet-kafka-client-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::run, intervalMS, intervalMS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void report(Client client, MetricName name, Metric metric) {
+        if (!names.contains(name.name())) {
+            return;
+        }
+        Object value = metric.metricValue();
+        if (!(value instanceof Number) || !Double.isFinite(((Number) value).doubleValue())) {
+            return;
+        }
+        Map<String, String> tags = new HashMap<>(name.tags());
+        tags.put(GROUP_TAG, name.group());
+        tags.put(CONTEXT_TAG, client.context);
+        tags.put(ROLE_TAG, client.role);
+        metrics.recordClientMetric(name.name(), tags, ((Number) value).doubleValue());
+    }
+
+    private void run() {
+        // An exception would stop the scheduled sampling
+        try {
+            sample();
+        } catch (RuntimeException e) {
+            log.warn("Could not sample the metrics of the Kafka clients.", e);
+        }
+    }
+}
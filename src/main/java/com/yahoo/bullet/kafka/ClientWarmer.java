@@ -0,0 +1,216 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Creates a producer and a consumer for a {@link KafkaPubSub} on a background thread and gets them ready before they are
+ * needed: the producer fetches the metadata of the topics it writes to and the consumer fetches the metadata of the
+ * topic it reads and, if it reads assigned partitions, their committed offsets. This connects them to the brokers and,
+ * with SSL, completes the handshakes. The first publisher and subscriber then take these clients instead of creating
+ * their own. The producer can be taken right away since it is thread safe but the consumer is only handed out once it
+ * is ready. Once a subscriber has created its own consumer instead, the warmed one is closed rather than kept around.
+ */
+@Slf4j
+class ClientWarmer implements AutoCloseable {
+    private final Supplier<Producer<String, byte[]>> producerFactory;
+    private final Supplier<Consumer<String, byte[]>> consumerFactory;
+    private final List<String> writeTopics;
+    private final String readTopic;
+    private final Collection<TopicPartition> readPartitions;
+    private final Duration timeout;
+    @Getter
+    private final CompletableFuture<Void> readiness = new CompletableFuture<>();
+
+    private Producer<String, byte[]> producer;
+    private Consumer<String, byte[]> consumer;
+    private final Map<String, List<TopicPartition>> partitions = new HashMap<>();
+    private boolean closed = false;
+    private boolean consumerDiscarded = false;
+
+    /**
+     * Creates a ClientWarmer. It does nothing until started.
+     *
+     * @param producerFactory The {@link Supplier} of the producer.
+     * @param consumerFactory The {@link Supplier} of the consumer or null to only warm up the producer.
+     * @param writeTopics The {@link List} of the topics the producer writes to.
+     * @param readTopic The topic the consumer reads.
+     * @param readPartitions The {@link Collection} of {@link TopicPartition} the consumer is assigned or null if it
+     *                       subscribes to the topic.
+     * @param timeout The maximum {@link Duration} the consumer waits for each request.
+     */
+    ClientWarmer(Supplier<Producer<String, byte[]>> producerFactory, Supplier<Consumer<String, byte[]>> consumerFactory,
+                 List<String> writeTopics, String readTopic, Collection<TopicPartition> readPartitions, Duration timeout) {
+        this.producerFactory = producerFactory;
+        this.consumerFactory = consumerFactory;
+        this.writeTopics = writeTopics;
+        this.readTopic = readTopic;
+        this.readPartitions = readPartitions;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Starts warming up the clients on a daemon thread.
+     */
+    void start() {
+        Thread thread = new Thread(this::run, "bullet-kafka-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Takes the producer if it was created and not taken yet. It may still be fetching metadata.
+     *
+     * @return The {@link Producer} or null.
+     */
+    synchronized Producer<String, byte[]> takeProducer() {
+        Producer<String, byte[]> taken = producer;
+        producer = null;
+        return taken;
+    }
+
+    /**
+     * Takes the consumer if it is ready and not taken yet.
+     *
+     * @return The {@link Consumer} or null.
+     */
+    synchronized Consumer<String, byte[]> takeConsumer() {
+        Consumer<String, byte[]> taken = consumer;
+        consumer = null;
+        return taken;
+    }
+
+    /**
+     * Closes the consumer if it is not taken yet and stops handing it out. If it is still being warmed up, it is closed
+     * once it is done.
+     */
+    void discardConsumer() {
+        Consumer<String, byte[]> unused;
+        synchronized (this) {
+            consumerDiscarded = true;
+            unused = takeConsumer();
+        }
+        if (unused != null) {
+            log.info("Closing the warmed up consumer since a subscriber created its own.");
+            unused.close(timeout);
+        }
+    }
+
+    /**
+     * Gets the partitions of a topic the producer writes to if they were fetched.
+     *
+     * @param topic The name of the topic.
+     * @return The {@link List} of {@link TopicPartition} of the topic or null.
+     */
+    synchronized List<TopicPartition> getPartitions(String topic) {
+        return partitions.get(topic);
+    }
+
+    /**
+     * Closes the clients that were not taken. If they are still being warmed up, they are closed once they are done.
+     */
+    @Override
+    public void close() {
+        Producer<String, byte[]> unusedProducer;
+        Consumer<String, byte[]> unusedConsumer;
+        synchronized (this) {
+            closed = true;
+            unusedProducer = takeProducer();
+            unusedConsumer = takeConsumer();
+        }
+        if (unusedProducer != null) {
+            unusedProducer.close(timeout);
+        }
+        if (unusedConsumer != null) {
+            unusedConsumer.close(timeout);
+        }
+    }
+
+    private void run() {
+        long start = System.currentTimeMillis();
+        try {
+            warmProducer();
+            warmConsumer();
+            log.info("Warmed up the Kafka clients in {} ms.", System.currentTimeMillis() - start);
+            readiness.complete(null);
+        } catch (RuntimeException e) {
+            log.warn("Could not warm up the Kafka clients. They will be created when needed.", e);
+            readiness.completeExceptionally(e);
+        }
+    }
+
+    private void warmProducer() {
+        Producer<String, byte[]> warming = producerFactory.get();
+        synchronized (this) {
+            if (closed) {
+                warming.close(timeout);
+                return;
+            }
+            producer = warming;
+        }
+        for (String topic : writeTopics) {
+            List<TopicPartition> found;
+            try {
+                found = warming.partitionsFor(topic).stream()
+                               .map(info -> new TopicPartition(info.topic(), info.partition()))
+                               .collect(Collectors.toList());
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    if (producer == warming) {
+                        throw e;
+                    }
+                }
+                // The producer was taken and may have been closed by its publisher, which is not a failure to warm up
+                log.debug("Stopped fetching metadata with the producer that was taken.", e);
+                return;
+            }
+            synchronized (this) {
+                partitions.put(topic, found);
+            }
+        }
+    }
+
+    private void warmConsumer() {
+        synchronized (this) {
+            if (consumerFactory == null || closed || consumerDiscarded) {
+                return;
+            }
+        }
+        Consumer<String, byte[]> warming = consumerFactory.get();
+        try {
+            warming.partitionsFor(readTopic, timeout);
+            if (readPartitions != null) {
+                // Finds and connects to the group coordinator
+                warming.committed(new HashSet<>(readPartitions), timeout);
+            }
+        } catch (RuntimeException e) {
+            warming.close(timeout);
+            throw e;
+        }
+        synchronized (this) {
+            if (!closed && !consumerDiscarded) {
+                consumer = warming;
+                return;
+            }
+        }
+        warming.close(timeout);
+    }
+}
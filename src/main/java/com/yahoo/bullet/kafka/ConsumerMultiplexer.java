@@ -0,0 +1,252 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.PubSubException;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shares a single {@link Consumer} between a number of {@link KafkaSubscriber} views. Whichever view needs messages
+ * polls the consumer for all of them and the records are buffered for the view that owns their partition. A view owns
+ * the partitions it was added with or, if it was added without any, the partitions whose number modulo the number of
+ * views is its index. Each view commits and fails its messages independently. The consumer is only used while holding
+ * the lock on this object, which the views also hold while they are used. A view that is waiting for records briefly
+ * releases the lock whenever records arrived for other views so they do not wait for it. The partitions of a view that has too many
+ * buffered records or that is paused are paused until it catches up or resumes. When a view closes, its partitions are
+ * handed to the next open view, which reads the records that the closed view did not commit again.
+ */
+@Slf4j
+public class ConsumerMultiplexer implements ConsumerRebalanceListener {
+    // How long a view that is waiting for records lets the other views take the records that arrived for them
+    private static final long HANDOFF_WAIT_MS = 10L;
+
+    @Getter(AccessLevel.PACKAGE)
+    private final Consumer<String, byte[]> consumer;
+    private final int maxBufferedRecords;
+    private final List<KafkaSubscriber> views = new ArrayList<>();
+    private final List<List<ConsumerRecord<String, byte[]>>> buffers = new ArrayList<>();
+    private final Map<TopicPartition, Integer> routes = new HashMap<>();
+    // The indices of the views that were closed, which no longer get records
+    private final Set<Integer> closedViews = new HashSet<>();
+
+    /**
+     * Creates a ConsumerMultiplexer for a {@link Consumer}.
+     *
+     * @param consumer The {@link Consumer} to share.
+     * @param maxBufferedRecords The number of records buffered for a view at which its partitions are paused.
+     */
+    public ConsumerMultiplexer(Consumer<String, byte[]> consumer, int maxBufferedRecords) {
+        this.consumer = consumer;
+        this.maxBufferedRecords = maxBufferedRecords;
+    }
+
+    /**
+     * Adds a view that reads through the shared consumer. The view must have been created with the same consumer.
+     *
+     * @param view The {@link KafkaSubscriber} to add.
+     * @param partitions The {@link Collection} of {@link TopicPartition} the view owns or null to divide the partitions
+     *                   that the consumer is given by their number.
+     */
+    public synchronized void addView(KafkaSubscriber view, Collection<TopicPartition> partitions) {
+        int index = views.size();
+        views.add(view);
+        buffers.add(new ArrayList<>());
+        if (partitions != null) {
+            partitions.forEach(partition -> routes.put(partition, index));
+        }
+        view.setMultiplexer(this);
+    }
+
+    /**
+     * Polls the shared consumer and returns the records buffered for a view. If none are buffered for it, this polls
+     * until some arrive for it or the timeout passes. While records that arrived for other views are waiting to be
+     * taken, this waits for a short while without holding the lock so those views can take them.
+     *
+     * @param view The {@link KafkaSubscriber} to get records for.
+     * @param timeout The maximum {@link Duration} to wait for records for the view.
+     * @return The {@link List} of {@link ConsumerRecord} for the view, which may be empty.
+     * @throws PubSubException if the consumer poll fails.
+     */
+    synchronized List<ConsumerRecord<String, byte[]>> fetch(KafkaSubscriber view, Duration timeout) throws PubSubException {
+        int index = views.indexOf(view);
+        long deadline = System.currentTimeMillis() + timeout.toMillis();
+        try {
+            do {
+                long remaining = Math.max(deadline - System.currentTimeMillis(), 0L);
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofMillis(remaining))) {
+                    buffers.get(route(new TopicPartition(record.topic(), record.partition()))).add(record);
+                }
+                throttle();
+                if (!buffers.get(index).isEmpty() || closedViews.contains(index)) {
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+                if (remaining > 0L && haveRecordsForOthers(index)) {
+                    // Releases the lock, including the one the view holds, and wakes up early once a view took its records
+                    wait(Math.min(remaining, HANDOFF_WAIT_MS));
+                }
+            } while (System.currentTimeMillis() < deadline);
+        } catch (KafkaException e) {
+            throw new PubSubException("Consumer poll failed.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<ConsumerRecord<String, byte[]>> records = buffers.get(index);
+        buffers.set(index, new ArrayList<>());
+        throttle();
+        if (!records.isEmpty()) {
+            notifyAll();
+        }
+        return records;
+    }
+
+    /**
+     * Closes a view, which should have committed what it could. Its buffered records are dropped and its partitions are
+     * handed to the next open view, which reads the records that the closed view did not commit again. The shared
+     * consumer is closed when all the views are closed.
+     *
+     * @param view The {@link KafkaSubscriber} that is closing.
+     * @param timeout The maximum {@link Duration} to wait for the consumer to close or null for its default.
+     */
+    synchronized void close(KafkaSubscriber view, Duration timeout) {
+        int index = views.indexOf(view);
+        if (!closedViews.add(index)) {
+            return;
+        }
+        buffers.get(index).clear();
+        if (closedViews.size() < views.size()) {
+            handOver(index);
+            return;
+        }
+        if (timeout == null) {
+            consumer.close();
+        } else {
+            consumer.close(timeout);
+        }
+    }
+
+    @Override
+    public synchronized void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        List<List<TopicPartition>> split = split(partitions);
+        for (int i = 0; i < views.size(); ++i) {
+            if (closedViews.contains(i)) {
+                continue;
+            }
+            List<TopicPartition> revoked = split.get(i);
+            buffers.get(i).removeIf(record -> revoked.contains(new TopicPartition(record.topic(), record.partition())));
+            views.get(i).onPartitionsRevoked(revoked);
+        }
+    }
+
+    @Override
+    public synchronized void onPartitionsLost(Collection<TopicPartition> partitions) {
+        List<List<TopicPartition>> split = split(partitions);
+        for (int i = 0; i < views.size(); ++i) {
+            if (closedViews.contains(i)) {
+                continue;
+            }
+            List<TopicPartition> lost = split.get(i);
+            buffers.get(i).removeIf(record -> lost.contains(new TopicPartition(record.topic(), record.partition())));
+            views.get(i).onPartitionsLost(lost);
+        }
+    }
+
+    @Override
+    public synchronized void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        List<List<TopicPartition>> split = split(partitions);
+        for (int i = 0; i < views.size(); ++i) {
+            if (!closedViews.contains(i)) {
+                views.get(i).onPartitionsAssigned(split.get(i));
+            }
+        }
+    }
+
+    /**
+     * Gets the index of the view that owns a partition. The partitions of a closed view are owned by the next open one.
+     *
+     * @param partition The {@link TopicPartition} to route.
+     * @return The index of the view.
+     */
+    int route(TopicPartition partition) {
+        Integer index = routes.get(partition);
+        int owner = index != null ? index : Math.floorMod(partition.partition(), views.size());
+        // Stops at the owner if every view is closed
+        for (int i = 0; i < views.size() && closedViews.contains(owner); ++i) {
+            owner = (owner + 1) % views.size();
+        }
+        return owner;
+    }
+
+    private void handOver(int closed) {
+        Set<TopicPartition> partitions = new HashSet<>();
+        for (TopicPartition partition : consumer.assignment()) {
+            Integer index = routes.get(partition);
+            if ((index != null ? index : Math.floorMod(partition.partition(), views.size())) == closed) {
+                partitions.add(partition);
+            }
+        }
+        if (partitions.isEmpty()) {
+            return;
+        }
+        List<List<TopicPartition>> split = split(partitions);
+        for (int i = 0; i < views.size(); ++i) {
+            if (!split.get(i).isEmpty()) {
+                views.get(i).onPartitionsAssigned(split.get(i));
+            }
+        }
+        // The records that the closed view read but did not commit were already fetched and are read again
+        views.get(closed).getUncommittedOffsets(partitions).forEach(consumer::seek);
+        log.info("Handed over partitions {} of a closed view.", partitions);
+    }
+
+    private List<List<TopicPartition>> split(Collection<TopicPartition> partitions) {
+        List<List<TopicPartition>> split = new ArrayList<>();
+        views.forEach(view -> split.add(new ArrayList<>()));
+        partitions.forEach(partition -> split.get(route(partition)).add(partition));
+        return split;
+    }
+
+    private boolean haveRecordsForOthers(int index) {
+        for (int i = 0; i < buffers.size(); ++i) {
+            if (i != index && !closedViews.contains(i) && !buffers.get(i).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void throttle() {
+        List<TopicPartition> pause = new ArrayList<>();
+        List<TopicPartition> resume = new ArrayList<>();
+        for (TopicPartition partition : consumer.assignment()) {
+            int index = route(partition);
+            boolean full = buffers.get(index).size() >= maxBufferedRecords || views.get(index).isPaused();
+            (full ? pause : resume).add(partition);
+        }
+        if (!pause.isEmpty()) {
+            consumer.pause(pause);
+        }
+        if (!resume.isEmpty()) {
+            consumer.resume(resume);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Receives the records that a {@link KafkaSubscriber} could not turn into messages so that they can be inspected later
+ * instead of being lost.
+ */
+public interface DeadLetterSink extends AutoCloseable {
+    /**
+     * Stores a record that could not be read. The subscriber does not commit past the record until it is stored.
+     *
+     * @param record The {@link ConsumerRecord} that could not be read.
+     * @param reason A description of why it could not be read.
+     * @return A {@link CompletableFuture} that completes once the record is stored or could not be.
+     */
+    CompletableFuture<Void> send(ConsumerRecord<String, byte[]> record, String reason);
+
+    @Override
+    void close();
+}
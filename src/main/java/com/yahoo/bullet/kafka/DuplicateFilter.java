@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+
+/**
+ * Remembers the messages seen recently to detect the ones that are delivered again. Messages are identified by a 64-bit
+ * fingerprint of their id and the sequence their publisher stamped on them. The fingerprints are kept in two
+ * preallocated arrays as a set-associative cache, so the memory used is fixed and checking a message does not allocate.
+ * When all the slots a fingerprint can go in are taken, the oldest one is evicted, and entries older than the TTL are
+ * ignored. A duplicate is therefore only detected if it arrives within the TTL and has not been evicted. Each entry also
+ * keeps the group (such as the partition) that its message came from so that the entries for a group can be forgotten
+ * without the rest. The chance of two different messages having the same fingerprint is negligible. This class is not
+ * thread-safe.
+ */
+public class DuplicateFilter {
+    // The number of slots that a fingerprint can go in
+    private static final int WAYS = 4;
+    private static final long EMPTY = 0L;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long[] fingerprints;
+    private final long[] timestamps;
+    private final int[] groups;
+    private final int setMask;
+    private final long ttlMS;
+
+    /**
+     * Creates a DuplicateFilter.
+     *
+     * @param maxEntries The maximum number of messages to remember. It is rounded up to a power of two of at least 4.
+     * @param ttlMS How long to remember a message for in milliseconds.
+     */
+    public DuplicateFilter(int maxEntries, long ttlMS) {
+        int needed = (Math.max(maxEntries, 1) + WAYS - 1) / WAYS;
+        int sets = needed == 1 ? 1 : Integer.highestOneBit(needed - 1) << 1;
+        this.fingerprints = new long[sets * WAYS];
+        this.timestamps = new long[sets * WAYS];
+        this.groups = new int[sets * WAYS];
+        this.setMask = sets - 1;
+        this.ttlMS = ttlMS;
+    }
+
+    /**
+     * Checks if a message was seen within the TTL and remembers it under a group if it was not.
+     *
+     * @param fingerprint The fingerprint of the message from {@link #fingerprint(String, byte[])}.
+     * @param group The group of the message that {@link #forget(int)} can forget it by.
+     * @param now The current time in milliseconds.
+     * @return A boolean denoting whether the message is a duplicate.
+     */
+    public boolean isDuplicate(long fingerprint, int group, long now) {
+        fingerprint = fingerprint == EMPTY ? 1L : fingerprint;
+        int start = ((int) (fingerprint ^ (fingerprint >>> 32)) & setMask) * WAYS;
+        // Replace an empty or expired slot or else the oldest one
+        int victim = start;
+        long victimTime = Long.MAX_VALUE;
+        for (int i = start; i < start + WAYS; ++i) {
+            boolean live = fingerprints[i] != EMPTY && now - timestamps[i] <= ttlMS;
+            if (live && fingerprints[i] == fingerprint) {
+                return true;
+            }
+            long time = live ? timestamps[i] : Long.MIN_VALUE;
+            if (time < victimTime) {
+                victim = i;
+                victimTime = time;
+            }
+        }
+        fingerprints[victim] = fingerprint;
+        timestamps[victim] = now;
+        groups[victim] = group;
+        return false;
+    }
+
+    /**
+     * Forgets the messages seen for a group.
+     *
+     * @param group The group passed in to {@link #isDuplicate(long, int, long)} for the messages.
+     */
+    public void forget(int group) {
+        for (int i = 0; i < fingerprints.length; ++i) {
+            if (groups[i] == group) {
+                fingerprints[i] = EMPTY;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of messages this can remember.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return fingerprints.length;
+    }
+
+    /**
+     * Computes the fingerprint of a message from its id and the sequence its publisher stamped on it.
+     *
+     * @param id The id of the message.
+     * @param sequence The value of the {@link KafkaHeaders#SEQUENCE} header.
+     * @return A 64-bit fingerprint.
+     */
+    public static long fingerprint(String id, byte[] sequence) {
+        long hash = FNV_OFFSET;
+        // Hash the chars themselves instead of encoding the id, which would allocate for every record
+        for (int i = 0; i < id.length(); ++i) {
+            hash = (hash ^ id.charAt(i)) * FNV_PRIME;
+        }
+        for (byte b : sequence) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        // Finish by spreading the bits since the low bits pick the set
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link DeadLetterSink} that appends the records to a local file, one per line. Each line has the topic, partition,
+ * offset, timestamp, key and the Base64 encoded value of the record and the reason, separated by tabs. All the sinks
+ * for the same file share one writer, so the lines of different subscribers are never interleaved, and the file is
+ * closed once the last of them is closed.
+ */
+@Slf4j
+public class FileDeadLetterSink implements DeadLetterSink {
+    // Guarded by itself
+    private static final Map<Path, SharedWriter> SHARED_WRITERS = new HashMap<>();
+
+    private static class SharedWriter {
+        private final BufferedWriter writer;
+        private int references = 0;
+
+        private SharedWriter(BufferedWriter writer) {
+            this.writer = writer;
+        }
+    }
+
+    private final Path path;
+    private SharedWriter shared;
+
+    /**
+     * Creates a FileDeadLetterSink. The file is created when the first record is written to it.
+     *
+     * @param path The {@link Path} of the file to append to.
+     */
+    public FileDeadLetterSink(Path path) {
+        this.path = path.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> send(ConsumerRecord<String, byte[]> record, String reason) {
+        String value = record.value() == null ? "" : Base64.getEncoder().encodeToString(record.value());
+        String line = String.join("\t", record.topic(), String.valueOf(record.partition()), String.valueOf(record.offset()),
+                                  String.valueOf(record.timestamp()), String.valueOf(record.key()), value,
+                                  reason.replaceAll("\\s+", " "));
+        CompletableFuture<Void> stored = new CompletableFuture<>();
+        try {
+            if (shared == null) {
+                shared = acquireWriter(path);
+            }
+            synchronized (shared) {
+                shared.writer.write(line);
+                shared.writer.newLine();
+                shared.writer.flush();
+            }
+            stored.complete(null);
+        } catch (IOException e) {
+            log.error("Could not write the record from {}-{}@{} to {}.", record.topic(), record.partition(), record.offset(), path, e);
+            stored.completeExceptionally(e);
+        }
+        return stored;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (shared == null) {
+            return;
+        }
+        releaseWriter(path);
+        shared = null;
+    }
+
+    private static SharedWriter acquireWriter(Path path) throws IOException {
+        synchronized (SHARED_WRITERS) {
+            SharedWriter shared = SHARED_WRITERS.get(path);
+            if (shared == null) {
+                shared = new SharedWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                                                                  StandardOpenOption.APPEND));
+                SHARED_WRITERS.put(path, shared);
+            }
+            shared.references++;
+            return shared;
+        }
+    }
+
+    private static void releaseWriter(Path path) {
+        synchronized (SHARED_WRITERS) {
+            SharedWriter shared = SHARED_WRITERS.get(path);
+            if (shared == null || --shared.references > 0) {
+                return;
+            }
+            SHARED_WRITERS.remove(path);
+            try {
+                shared.writer.close();
+            } catch (IOException e) {
+                log.error("Could not close {}.", path, e);
+            }
+        }
+    }
+}
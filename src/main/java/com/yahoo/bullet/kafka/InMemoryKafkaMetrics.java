@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.common.BulletConfig;
+import lombok.Getter;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link KafkaMetrics} that keeps counters and {@link LogHistogram} per partition in memory so that the host
+ * application can read them through the getMetrics() of the {@link KafkaPubSub} and export them however it likes.
+ */
+public class InMemoryKafkaMetrics implements KafkaMetrics {
+    /**
+     * The measurements for a single partition.
+     */
+    public static class PartitionMetrics {
+        private final LongAdder sentMessages = new LongAdder();
+        private final LongAdder sentBytes = new LongAdder();
+        @Getter
+        private final LogHistogram serializationNanos = new LogHistogram();
+        private final LongAdder receivedMessages = new LongAdder();
+        private final LongAdder receivedBytes = new LongAdder();
+        @Getter
+        private final LogHistogram deserializationNanos = new LogHistogram();
+        private final Map<DropReason, LongAdder> dropped = new EnumMap<>(DropReason.class);
+
+        private PartitionMetrics() {
+            for (DropReason reason : DropReason.values()) {
+                dropped.put(reason, new LongAdder());
+            }
+        }
+
+        /**
+         * Gets the number of messages sent.
+         *
+         * @return The count of sent messages.
+         */
+        public long getSentMessages() {
+            return sentMessages.sum();
+        }
+
+        /**
+         * Gets the serialized size of the messages sent.
+         *
+         * @return The total bytes sent.
+         */
+        public long getSentBytes() {
+            return sentBytes.sum();
+        }
+
+        /**
+         * Gets the number of messages read.
+         *
+         * @return The count of read messages.
+         */
+        public long getReceivedMessages() {
+            return receivedMessages.sum();
+        }
+
+        /**
+         * Gets the serialized size of the messages read.
+         *
+         * @return The total bytes read.
+         */
+        public long getReceivedBytes() {
+            return receivedBytes.sum();
+        }
+
+        /**
+         * Gets the number of records dropped for a reason.
+         *
+         * @param reason The {@link DropReason} to get the count for.
+         * @return The number of dropped records.
+         */
+        public long getDropped(DropReason reason) {
+            return dropped.get(reason).sum();
+        }
+    }
+
+    private final ConcurrentMap<TopicPartition, PartitionMetrics> partitions = new ConcurrentHashMap<>();
+    @Getter
+    private final LogHistogram pollNanos = new LogHistogram();
+    @Getter
+    private final LogHistogram pollRecords = new LogHistogram();
+    @Getter
+    private final LogHistogram queryQueueingMS = new LogHistogram();
+    @Getter
+    private final LogHistogram processingMS = new LogHistogram();
+    @Getter
+    private final LogHistogram responseQueueingMS = new LogHistogram();
+    private final ConcurrentMap<String, Double> clientMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty InMemoryKafkaMetrics.
+     */
+    public InMemoryKafkaMetrics() {
+    }
+
+    /**
+     * Creates an empty InMemoryKafkaMetrics. This is the constructor used to load it from the configuration.
+     *
+     * @param config The {@link BulletConfig}, which is not used.
+     */
+    public InMemoryKafkaMetrics(BulletConfig config) {
+        this();
+    }
+
+    @Override
+    public void recordSend(TopicPartition partition, int bytes, long serializationNanos) {
+        PartitionMetrics metrics = getOrCreate(partition);
+        metrics.sentMessages.increment();
+        metrics.sentBytes.add(bytes);
+        metrics.serializationNanos.record(serializationNanos);
+    }
+
+    @Override
+    public void recordPoll(int records, long pollNanos) {
+        this.pollNanos.record(pollNanos);
+        pollRecords.record(records);
+    }
+
+    @Override
+    public void recordReceive(TopicPartition partition, int bytes, long deserializationNanos) {
+        PartitionMetrics metrics = getOrCreate(partition);
+        metrics.receivedMessages.increment();
+        metrics.receivedBytes.add(bytes);
+        metrics.deserializationNanos.record(deserializationNanos);
+    }
+
+    @Override
+    public void recordDrop(TopicPartition partition, DropReason reason) {
+        getOrCreate(partition).dropped.get(reason).increment();
+    }
+
+    @Override
+    public void recordTrace(String traceID, long queryQueueingMS, long processingMS, long responseQueueingMS) {
+        this.queryQueueingMS.record(queryQueueingMS);
+        this.processingMS.record(processingMS);
+        this.responseQueueingMS.record(responseQueueingMS);
+    }
+
+    @Override
+    public void recordClientMetric(String name, Map<String, String> tags, double value) {
+        clientMetrics.put(name + new TreeMap<>(tags), value);
+    }
+
+    /**
+     * Gets the measurements for the partitions that were sent to or read from so far.
+     *
+     * @return An unmodifiable {@link Map} of {@link TopicPartition} to their {@link PartitionMetrics}.
+     */
+    public Map<TopicPartition, PartitionMetrics> getPartitions() {
+        return Collections.unmodifiableMap(partitions);
+    }
+
+    /**
+     * Gets the latest values of the metrics of the Kafka clients. The names are the names of the Kafka metrics followed
+     * by their sorted tags, such as "records-lag-max{client-id=consumer-1, context=query_processing, ...}".
+     *
+     * @return An unmodifiable {@link Map} of the names of the client metrics to their latest values.
+     */
+    public Map<String, Double> getClientMetrics() {
+        return Collections.unmodifiableMap(clientMetrics);
+    }
+
+    /**
+     * Gets all the measurements as flat names and values, sorted by name. The names of the partition measurements end
+     * with the topic and the partition, such as "sent.messages.bullet.queries-0". Each histogram is reported as its
+     * count, median, 99th percentile and maximum. The client metrics are rounded and their names are prefixed with
+     * "client.".
+     *
+     * @return A {@link Map} of the names of measurements to their values.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        partitions.forEach((partition, metrics) -> {
+            String suffix = "." + partition;
+            snapshot.put("sent.messages" + suffix, metrics.getSentMessages());
+            snapshot.put("sent.bytes" + suffix, metrics.getSentBytes());
+            put(snapshot, "serialization.nanos", suffix, metrics.serializationNanos);
+            snapshot.put("received.messages" + suffix, metrics.getReceivedMessages());
+            snapshot.put("received.bytes" + suffix, metrics.getReceivedBytes());
+            put(snapshot, "deserialization.nanos", suffix, metrics.deserializationNanos);
+            for (DropReason reason : DropReason.values()) {
+                snapshot.put("dropped." + reason.name().toLowerCase() + suffix, metrics.getDropped(reason));
+            }
+        });
+        put(snapshot, "poll.nanos", "", pollNanos);
+        put(snapshot, "poll.records", "", pollRecords);
+        put(snapshot, "trace.query.queueing.ms", "", queryQueueingMS);
+        put(snapshot, "trace.processing.ms", "", processingMS);
+        put(snapshot, "trace.response.queueing.ms", "", responseQueueingMS);
+        clientMetrics.forEach((name, value) -> snapshot.put("client." + name, Math.round(value)));
+        return snapshot;
+    }
+
+    private PartitionMetrics getOrCreate(TopicPartition partition) {
+        PartitionMetrics metrics = partitions.get(partition);
+        return metrics != null ? metrics : partitions.computeIfAbsent(partition, k -> new PartitionMetrics());
+    }
+
+    private static void put(Map<String, Long> snapshot, String name, String suffix, LogHistogram histogram) {
+        snapshot.put(name + ".count" + suffix, histogram.getCount());
+        snapshot.put(name + ".p50" + suffix, histogram.getPercentile(50.0));
+        snapshot.put(name + ".p99" + suffix, histogram.getPercentile(99.0));
+        snapshot.put(name + ".max" + suffix, histogram.getMax());
+    }
+}
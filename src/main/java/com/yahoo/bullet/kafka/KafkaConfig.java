@@ -8,11 +8,18 @@ package com.yahoo.bullet.kafka;
 import com.yahoo.bullet.common.BulletConfig;
 import com.yahoo.bullet.common.Config;
 import com.yahoo.bullet.common.Validator;
+import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
+@Slf4j
 public class KafkaConfig extends BulletConfig {
     public static final String KAFKA_NAMESPACE = "bullet.pubsub.kafka" + DELIMITER;
 
@@ -35,6 +42,11 @@ public class KafkaConfig extends BulletConfig {
     public static final String PRODUCER_SSL_CERT_LOCATION = PRODUCER_NAMESPACE + SSL_CERT_LOCATION;
     public static final String PRODUCER_SSL_KEY_LOCATION = PRODUCER_NAMESPACE + SSL_KEY_LOCATION;
     public static final String PRODUCER_SSL_KEY_REFRESH_INTERVAL = PRODUCER_NAMESPACE + SSL_KEY_REFRESH_INTERVAL;
+    // Producer properties that only apply to the producers for queries and signals or to the producers for results
+    public static final String LATENCY_PROFILE = "latency" + DELIMITER;
+    public static final String THROUGHPUT_PROFILE = "throughput" + DELIMITER;
+    public static final String PRODUCER_LATENCY_NAMESPACE = PRODUCER_NAMESPACE + LATENCY_PROFILE;
+    public static final String PRODUCER_THROUGHPUT_NAMESPACE = PRODUCER_NAMESPACE + THROUGHPUT_PROFILE;
 
     public static final String CONSUMER_NAMESPACE = KAFKA_NAMESPACE + "consumer" + DELIMITER;
     // Consumer specific properties
@@ -52,12 +64,45 @@ public class KafkaConfig extends BulletConfig {
     public static final String REQUEST_TOPIC_NAME = KAFKA_NAMESPACE + "request.topic.name";
     public static final String RESPONSE_TOPIC_NAME = KAFKA_NAMESPACE + "response.topic.name";
     public static final String PARTITION_ROUTING_ENABLE = KAFKA_NAMESPACE + "partition.routing.enable";
+    public static final String CLOSE_TIMEOUT_MS = KAFKA_NAMESPACE + "close.timeout.ms";
+    public static final String METRICS_CLASS_NAME = KAFKA_NAMESPACE + "metrics.class.name";
+    public static final String CLIENT_METRICS_NAMES = KAFKA_NAMESPACE + "metrics.client.names";
+    public static final String CLIENT_METRICS_INTERVAL_MS = KAFKA_NAMESPACE + "metrics.client.interval.ms";
+    public static final String TRACE_ENABLE = KAFKA_NAMESPACE + "trace.enable";
+    public static final String RESPONSE_PARTITIONS_AUTO_CLAIM_ENABLE = KAFKA_NAMESPACE + "response.partitions.auto.claim.enable";
+    public static final String WARMUP_ENABLE = KAFKA_NAMESPACE + "warmup.enable";
+    public static final String WARMUP_TIMEOUT_MS = KAFKA_NAMESPACE + "warmup.timeout.ms";
+    public static final String TUNING_PROFILE = KAFKA_NAMESPACE + "tuning.profile";
+    // The web service setting for how long it sleeps between reads when there is nothing to read
+    public static final String WEB_SERVICE_SLEEP_MS = "bullet.pubsub.sleep-ms";
+
+    // Kafka PubSub Publisher properties
+    public static final String PRODUCER_STRIPES = KAFKA_NAMESPACE + "publisher.producer.stripes";
+    public static final String PRODUCER_STRIPE_BY = KAFKA_NAMESPACE + "publisher.producer.stripe.by";
+    public static final String SPOOL_DIRECTORY = KAFKA_NAMESPACE + "publisher.spool.directory";
+    public static final String SPOOL_MAX_BYTES = KAFKA_NAMESPACE + "publisher.spool.max.bytes";
+    public static final String SPOOL_FSYNC_INTERVAL_MS = KAFKA_NAMESPACE + "publisher.spool.fsync.interval.ms";
+    public static final String SPOOL_RETRY_INTERVAL_MS = KAFKA_NAMESPACE + "publisher.spool.retry.interval.ms";
 
     // Kafka PubSub Subscriber properties
     public static final String MAX_UNCOMMITTED_MESSAGES = KAFKA_NAMESPACE + "subscriber.max.uncommitted.messages";
     public static final String RATE_LIMIT_ENABLE = KAFKA_NAMESPACE + "subscriber.rate.limit.enable";
     public static final String RATE_LIMIT_MAX_MESSAGES = KAFKA_NAMESPACE + "subscriber.rate.limit.max.messages";
     public static final String RATE_LIMIT_INTERVAL_MS = KAFKA_NAMESPACE + "subscriber.rate.limit.interval.ms";
+    public static final String STATIC_MEMBERSHIP_ENABLE = KAFKA_NAMESPACE + "subscriber.static.membership.enable";
+    public static final String STATIC_MEMBERSHIP_INSTANCE_ID = KAFKA_NAMESPACE + "subscriber.static.membership.instance.id";
+    public static final String STATIC_MEMBERSHIP_SESSION_TIMEOUT_MS = KAFKA_NAMESPACE + "subscriber.static.membership.session.timeout.ms";
+    public static final String START_POSITION = KAFKA_NAMESPACE + "subscriber.start.position";
+    public static final String START_LOOKBACK_MS = KAFKA_NAMESPACE + "subscriber.start.lookback.ms";
+    public static final String QUERY_TTL_MS = KAFKA_NAMESPACE + "subscriber.query.ttl.ms";
+    public static final String RESULT_TTL_MS = KAFKA_NAMESPACE + "subscriber.result.ttl.ms";
+    public static final String SIGNAL_TTL_MS = KAFKA_NAMESPACE + "subscriber.signal.ttl.ms";
+    public static final String MULTIPLEX_ENABLE = KAFKA_NAMESPACE + "subscriber.multiplex.enable";
+    public static final String DEDUP_ENABLE = KAFKA_NAMESPACE + "subscriber.dedup.enable";
+    public static final String DEDUP_MAX_ENTRIES = KAFKA_NAMESPACE + "subscriber.dedup.max.entries";
+    public static final String DEDUP_TTL_MS = KAFKA_NAMESPACE + "subscriber.dedup.ttl.ms";
+    public static final String DEAD_LETTER_TOPIC_NAME = KAFKA_NAMESPACE + "subscriber.dead.letter.topic.name";
+    public static final String DEAD_LETTER_FILE = KAFKA_NAMESPACE + "subscriber.dead.letter.file";
 
     // Defaults
     private static String TRUE = "true";
@@ -65,10 +110,48 @@ public class KafkaConfig extends BulletConfig {
     public static final String DEFAULT_KAFKA_CONFIGURATION = "bullet_kafka_defaults.yaml";
     public static final String DEFAULT_ENABLE_AUTO_COMMIT = TRUE;
     public static final boolean DEFAULT_PARTITION_ROUTING_ENABLE = true;
+    public static final boolean DEFAULT_RESPONSE_PARTITIONS_AUTO_CLAIM_ENABLE = false;
+    public static final long DEFAULT_CLOSE_TIMEOUT_MS = 30000L;
+    public static final List<String> DEFAULT_CLIENT_METRICS_NAMES =
+        Arrays.asList("records-lag-max", "records-lag", "fetch-latency-avg", "batch-size-avg", "record-queue-time-avg");
+    public static final long DEFAULT_CLIENT_METRICS_INTERVAL_MS = 30000L;
+    public static final boolean DEFAULT_TRACE_ENABLE = false;
+    public static final boolean DEFAULT_WARMUP_ENABLE = false;
+    public static final long DEFAULT_WARMUP_TIMEOUT_MS = 30000L;
+    public static final String LOW_LATENCY_TUNING_PROFILE = "low-latency";
+    public static final String BALANCED_TUNING_PROFILE = "balanced";
+    public static final String HIGH_THROUGHPUT_TUNING_PROFILE = "high-throughput";
+    public static final String DEFAULT_TUNING_PROFILE = BALANCED_TUNING_PROFILE;
+    public static final int DEFAULT_MAX_UNCOMMITTED_MESSAGES = 50;
     public static final boolean DEFAULT_RATE_LIMIT_ENABLE = false;
+    public static final boolean DEFAULT_STATIC_MEMBERSHIP_ENABLE = false;
+    public static final int DEFAULT_STATIC_MEMBERSHIP_SESSION_TIMEOUT_MS = 120000;
+    public static final String COMMITTED_START_POSITION = "committed";
+    public static final String LATEST_START_POSITION = "latest";
+    public static final String TIMESTAMP_START_POSITION = "timestamp";
+    public static final String DEFAULT_START_POSITION = COMMITTED_START_POSITION;
+    public static final long DEFAULT_START_LOOKBACK_MS = 30000L;
+    public static final boolean DEFAULT_MULTIPLEX_ENABLE = false;
+    public static final int DEFAULT_PRODUCER_STRIPES = 1;
+    public static final String PARTITION_STRIPE_BY = "partition";
+    public static final String PUBLISHER_STRIPE_BY = "publisher";
+    public static final String DEFAULT_PRODUCER_STRIPE_BY = PARTITION_STRIPE_BY;
+    public static final int DEFAULT_SPOOL_MAX_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_SPOOL_FSYNC_INTERVAL_MS = 1000L;
+    public static final long DEFAULT_SPOOL_RETRY_INTERVAL_MS = 1000L;
+    public static final boolean DEFAULT_DEDUP_ENABLE = false;
+    public static final int DEFAULT_DEDUP_MAX_ENTRIES = 65536;
+    public static final long DEFAULT_DEDUP_TTL_MS = 600000L;
 
     private static final long serialVersionUID = 7613682421100044732L;
     private static final Validator VALIDATOR = BulletConfig.getValidator();
+    // The settings of each tuning profile other than the balanced one, which are the defaults
+    private static final Map<String, String> TUNING_PROFILE_FILES = new HashMap<>();
+
+    static {
+        TUNING_PROFILE_FILES.put(LOW_LATENCY_TUNING_PROFILE, "bullet_kafka_low_latency.yaml");
+        TUNING_PROFILE_FILES.put(HIGH_THROUGHPUT_TUNING_PROFILE, "bullet_kafka_high_throughput.yaml");
+    }
 
     static {
         VALIDATOR.define(BOOTSTRAP_SERVERS)
@@ -136,6 +219,69 @@ public class KafkaConfig extends BulletConfig {
         VALIDATOR.define(PARTITION_ROUTING_ENABLE)
                  .checkIf(Validator::isBoolean)
                  .defaultTo(DEFAULT_PARTITION_ROUTING_ENABLE);
+        VALIDATOR.define(RESPONSE_PARTITIONS_AUTO_CLAIM_ENABLE)
+                 .checkIf(Validator::isBoolean)
+                 .defaultTo(DEFAULT_RESPONSE_PARTITIONS_AUTO_CLAIM_ENABLE);
+        VALIDATOR.define(CLOSE_TIMEOUT_MS)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asLong)
+                 .defaultTo(DEFAULT_CLOSE_TIMEOUT_MS);
+        VALIDATOR.define(METRICS_CLASS_NAME)
+                 .checkIf(Validator::isClassName)
+                 .unless(Validator::isNull)
+                 .orFail();
+        VALIDATOR.define(CLIENT_METRICS_NAMES)
+                 .checkIf(Validator.isListOfType(String.class))
+                 .defaultTo(DEFAULT_CLIENT_METRICS_NAMES);
+        VALIDATOR.define(CLIENT_METRICS_INTERVAL_MS)
+                 .checkIf(Validator::isInt)
+                 .checkIf(Validator.isInRange(0, Integer.MAX_VALUE))
+                 .castTo(Validator::asLong)
+                 .defaultTo(DEFAULT_CLIENT_METRICS_INTERVAL_MS);
+        VALIDATOR.define(TRACE_ENABLE)
+                 .checkIf(Validator::isBoolean)
+                 .defaultTo(DEFAULT_TRACE_ENABLE);
+        VALIDATOR.define(WARMUP_ENABLE)
+                 .checkIf(Validator::isBoolean)
+                 .defaultTo(DEFAULT_WARMUP_ENABLE);
+        VALIDATOR.define(WARMUP_TIMEOUT_MS)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asLong)
+                 .defaultTo(DEFAULT_WARMUP_TIMEOUT_MS);
+        VALIDATOR.define(TUNING_PROFILE)
+                 .checkIf(Validator::isString)
+                 .checkIf(Validator.isIn(LOW_LATENCY_TUNING_PROFILE, BALANCED_TUNING_PROFILE, HIGH_THROUGHPUT_TUNING_PROFILE))
+                 .defaultTo(DEFAULT_TUNING_PROFILE);
+        VALIDATOR.define(PRODUCER_STRIPES)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asInt)
+                 .defaultTo(DEFAULT_PRODUCER_STRIPES);
+        VALIDATOR.define(PRODUCER_STRIPE_BY)
+                 .checkIf(Validator::isString)
+                 .checkIf(Validator.isIn(PARTITION_STRIPE_BY, PUBLISHER_STRIPE_BY))
+                 .defaultTo(DEFAULT_PRODUCER_STRIPE_BY);
+        VALIDATOR.define(SPOOL_DIRECTORY)
+                 .checkIf(Validator::isString)
+                 .unless(Validator::isNull)
+                 .orFail();
+        VALIDATOR.define(SPOOL_MAX_BYTES)
+                 .checkIf(Validator::isPositiveInt)
+                 .checkIf(Validator.isInRange(1024, Integer.MAX_VALUE))
+                 .castTo(Validator::asInt)
+                 .defaultTo(DEFAULT_SPOOL_MAX_BYTES);
+        VALIDATOR.define(SPOOL_FSYNC_INTERVAL_MS)
+                 .checkIf(Validator::isInt)
+                 .checkIf(Validator.isInRange(0, Integer.MAX_VALUE))
+                 .castTo(Validator::asLong)
+                 .defaultTo(DEFAULT_SPOOL_FSYNC_INTERVAL_MS);
+        VALIDATOR.define(SPOOL_RETRY_INTERVAL_MS)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asLong)
+                 .defaultTo(DEFAULT_SPOOL_RETRY_INTERVAL_MS);
+        VALIDATOR.define(MAX_UNCOMMITTED_MESSAGES)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asInt)
+                 .defaultTo(DEFAULT_MAX_UNCOMMITTED_MESSAGES);
         VALIDATOR.define(RATE_LIMIT_ENABLE)
                  .checkIf(Validator::isBoolean)
                  .defaultTo(DEFAULT_RATE_LIMIT_ENABLE);
@@ -147,6 +293,67 @@ public class KafkaConfig extends BulletConfig {
                  .checkIf(Validator::isPositiveInt)
                  .unless(Validator::isNull)
                  .orFail();
+        VALIDATOR.define(STATIC_MEMBERSHIP_ENABLE)
+                 .checkIf(Validator::isBoolean)
+                 .defaultTo(DEFAULT_STATIC_MEMBERSHIP_ENABLE);
+        VALIDATOR.define(STATIC_MEMBERSHIP_INSTANCE_ID)
+                 .checkIf(Validator::isString)
+                 .unless(Validator::isNull)
+                 .orFail();
+        VALIDATOR.define(STATIC_MEMBERSHIP_SESSION_TIMEOUT_MS)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asInt)
+                 .defaultTo(DEFAULT_STATIC_MEMBERSHIP_SESSION_TIMEOUT_MS);
+        VALIDATOR.define(START_POSITION)
+                 .checkIf(Validator::isString)
+                 .checkIf(Validator.isIn(COMMITTED_START_POSITION, LATEST_START_POSITION, TIMESTAMP_START_POSITION))
+                 .defaultTo(DEFAULT_START_POSITION);
+        VALIDATOR.define(START_LOOKBACK_MS)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asLong)
+                 .defaultTo(DEFAULT_START_LOOKBACK_MS);
+        VALIDATOR.define(QUERY_TTL_MS)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asLong)
+                 .unless(Validator::isNull)
+                 .orFail();
+        VALIDATOR.define(RESULT_TTL_MS)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asLong)
+                 .unless(Validator::isNull)
+                 .orFail();
+        VALIDATOR.define(SIGNAL_TTL_MS)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asLong)
+                 .unless(Validator::isNull)
+                 .orFail();
+        VALIDATOR.define(MULTIPLEX_ENABLE)
+                 .checkIf(Validator::isBoolean)
+                 .defaultTo(DEFAULT_MULTIPLEX_ENABLE);
+        VALIDATOR.define(DEDUP_ENABLE)
+                 .checkIf(Validator::isBoolean)
+                 .defaultTo(DEFAULT_DEDUP_ENABLE);
+        VALIDATOR.define(DEDUP_MAX_ENTRIES)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asInt)
+                 .defaultTo(DEFAULT_DEDUP_MAX_ENTRIES);
+        VALIDATOR.define(DEDUP_TTL_MS)
+                 .checkIf(Validator::isPositiveInt)
+                 .castTo(Validator::asLong)
+                 .defaultTo(DEFAULT_DEDUP_TTL_MS);
+        VALIDATOR.define(DEAD_LETTER_TOPIC_NAME)
+                 .checkIf(Validator::isString)
+                 .unless(Validator::isNull)
+                 .orFail();
+        VALIDATOR.define(DEAD_LETTER_FILE)
+                 .checkIf(Validator::isString)
+                 .unless(Validator::isNull)
+                 .orFail();
+
+        // Instance ids made up for static members would clash between the instances on a host and fence each other
+        VALIDATOR.relate("Static membership needs an instance id", STATIC_MEMBERSHIP_ENABLE, STATIC_MEMBERSHIP_INSTANCE_ID)
+                 .checkIf((enable, instanceID) -> !((Boolean) enable) || instanceID != null)
+                 .orFail();
     }
 
     /**
@@ -159,7 +366,8 @@ public class KafkaConfig extends BulletConfig {
     }
 
     /**
-     * Creates a KafkaConfig from a Config.
+     * Creates a KafkaConfig from a Config. The settings of the {@link #TUNING_PROFILE} are used for the ones that the
+     * Config does not have and the contradictory settings that result are logged.
      *
      * @param config The {@link Config} to copy settings from.
      */
@@ -167,6 +375,77 @@ public class KafkaConfig extends BulletConfig {
         // Load default Kafka settings. Merge additional settings in Config
         super(DEFAULT_KAFKA_CONFIGURATION);
         merge(config);
+        applyTuningProfile(config);
+        getContradictions().forEach(log::warn);
+    }
+
+    /**
+     * Finds the settings that work against each other. They are valid by themselves so they are not changed.
+     *
+     * @return The {@link List} of the descriptions of the contradictions found, which is empty if there are none.
+     */
+    List<String> getContradictions() {
+        List<String> contradictions = new ArrayList<>();
+        Long maxPollInterval = getLong(CONSUMER_NAMESPACE + "max.poll.interval.ms");
+        Long sleep = getLong(WEB_SERVICE_SLEEP_MS);
+        if (maxPollInterval != null && sleep != null && maxPollInterval <= sleep) {
+            contradictions.add("The consumer max.poll.interval.ms (" + maxPollInterval + ") is not more than " +
+                               WEB_SERVICE_SLEEP_MS + " (" + sleep + "). The subscribers leave their group between reads.");
+        }
+        Long fetchMaxWait = getLong(CONSUMER_NAMESPACE + "fetch.max.wait.ms");
+        Long consumerRequestTimeout = getLong(CONSUMER_NAMESPACE + "request.timeout.ms");
+        if (fetchMaxWait != null && consumerRequestTimeout != null && consumerRequestTimeout <= fetchMaxWait) {
+            contradictions.add("The consumer request.timeout.ms (" + consumerRequestTimeout + ") is not more than its " +
+                               "fetch.max.wait.ms (" + fetchMaxWait + "). Fetches that wait for data time out.");
+        }
+        Long heartbeatInterval = getLong(CONSUMER_NAMESPACE + "heartbeat.interval.ms");
+        Long sessionTimeout = getLong(CONSUMER_NAMESPACE + "session.timeout.ms");
+        if (heartbeatInterval != null && sessionTimeout != null && 3 * heartbeatInterval > sessionTimeout) {
+            contradictions.add("The consumer heartbeat.interval.ms (" + heartbeatInterval + ") is more than a third of " +
+                               "its session.timeout.ms (" + sessionTimeout + "). A few missed heartbeats end the session.");
+        }
+        for (String namespace : Arrays.asList(PRODUCER_NAMESPACE, PRODUCER_LATENCY_NAMESPACE, PRODUCER_THROUGHPUT_NAMESPACE)) {
+            Long deliveryTimeout = getProducerLong(namespace, "delivery.timeout.ms");
+            Long linger = getProducerLong(namespace, "linger.ms");
+            Long producerRequestTimeout = getProducerLong(namespace, "request.timeout.ms");
+            if (deliveryTimeout != null && linger != null && producerRequestTimeout != null &&
+                deliveryTimeout < linger + producerRequestTimeout) {
+                contradictions.add("The producer delivery.timeout.ms (" + deliveryTimeout + ") for " + namespace +
+                                   " is less than its linger.ms (" + linger + ") and request.timeout.ms (" +
+                                   producerRequestTimeout + ") together. The producer cannot be created.");
+            }
+        }
+        return contradictions;
+    }
+
+    private void applyTuningProfile(Config explicit) {
+        String file = TUNING_PROFILE_FILES.get(getAs(TUNING_PROFILE, String.class));
+        if (file == null) {
+            return;
+        }
+        Map<String, Object> settings = new Config(file).getAll(Optional.empty());
+        // The settings that were given override the profile
+        settings.keySet().removeIf(key -> explicit.get(key) != null);
+        settings.forEach(this::set);
+        validate();
+    }
+
+    private Long getProducerLong(String namespace, String property) {
+        // The latency and throughput producers fall back to the settings for all producers
+        Long value = getLong(namespace + property);
+        return value != null || namespace.equals(PRODUCER_NAMESPACE) ? value : getLong(PRODUCER_NAMESPACE + property);
+    }
+
+    private Long getLong(String key) {
+        Object value = get(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     @Override
@@ -0,0 +1,147 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The record headers that the publishers add to the messages they send so that subscribers can act on records without
+ * deserializing them.
+ */
+public final class KafkaHeaders {
+    // The name of the signal in a message that only carries a signal
+    public static final String SIGNAL = "bullet.signal";
+    // The id of the publisher and the number of the message from it, which identify a send across retries
+    public static final String SEQUENCE = "bullet.sequence";
+    // The id of the trace of a query and the times in milliseconds when the query was sent, when the backend read it
+    // and when the backend sent a result for it
+    public static final String TRACE_ID = "bullet.trace.id";
+    public static final String SUBMIT_TIME = "bullet.trace.submit.time";
+    public static final String RECEIVE_TIME = "bullet.trace.receive.time";
+    public static final String RESPONSE_TIME = "bullet.trace.response.time";
+
+    /**
+     * Numbers the messages sent by a publisher. The numbers are prefixed with a random id for the publisher so that
+     * they are unique across publishers.
+     */
+    public static final class Sequencer {
+        private final long publisherID = UUID.randomUUID().getMostSignificantBits();
+        private final AtomicLong sequence = new AtomicLong();
+
+        /**
+         * Gets the value of the {@link #SEQUENCE} header for the next message.
+         *
+         * @return The bytes for the header.
+         */
+        public byte[] next() {
+            return ByteBuffer.allocate(2 * Long.BYTES).putLong(publisherID).putLong(sequence.getAndIncrement()).array();
+        }
+    }
+
+    private KafkaHeaders() {
+    }
+
+    /**
+     * Adds the headers for a {@link PubSubMessage} that is about to be sent to the headers that its record already has,
+     * so that sending the message does not need headers of its own.
+     *
+     * @param headers The {@link Headers} of the record for the message.
+     * @param message The {@link PubSubMessage} to add headers for.
+     * @param sequencer The {@link Sequencer} of the publisher that sends the message or null to not add a sequence.
+     * @return The {@link Headers} to send with the record.
+     */
+    public static Headers add(Headers headers, PubSubMessage message, Sequencer sequencer) {
+        if (message.hasSignal() && !message.hasContent()) {
+            headers.add(SIGNAL, message.getMetadata().getSignal().name().getBytes(StandardCharsets.UTF_8));
+        }
+        if (sequencer != null) {
+            headers.add(SEQUENCE, sequencer.next());
+        }
+        return headers;
+    }
+
+    /**
+     * Adds the headers that start the trace of a query.
+     *
+     * @param headers The {@link Headers} of the query.
+     * @param traceID The id of the trace.
+     * @param submitTime The time in milliseconds when the query is sent.
+     * @return The {@link Headers} with the trace.
+     */
+    public static Headers addTrace(Headers headers, String traceID, long submitTime) {
+        return headers.add(TRACE_ID, traceID.getBytes(StandardCharsets.UTF_8)).add(SUBMIT_TIME, toBytes(submitTime));
+    }
+
+    /**
+     * Adds the headers that carry the trace of a query to one of its results.
+     *
+     * @param headers The {@link Headers} of the result.
+     * @param metadata The {@link KafkaMetadata} of the result that carries the trace.
+     * @param responseTime The time in milliseconds when the result is sent.
+     * @return The {@link Headers} with the trace.
+     */
+    public static Headers addTrace(Headers headers, KafkaMetadata metadata, long responseTime) {
+        return addTrace(headers, metadata.getTraceID(), metadata.getSubmitTime())
+                .add(RECEIVE_TIME, toBytes(metadata.getReceiveTime()))
+                .add(RESPONSE_TIME, toBytes(responseTime));
+    }
+
+    /**
+     * Gets the id of the trace in a record.
+     *
+     * @param record The {@link ConsumerRecord} to get the trace id of.
+     * @return The value of the {@link #TRACE_ID} header or null if the record is not traced.
+     */
+    public static String getTraceID(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(TRACE_ID);
+        return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets one of the times of the trace in a record.
+     *
+     * @param record The {@link ConsumerRecord} to get the time from.
+     * @param name The name of the header with the time.
+     * @return The time in milliseconds or -1 if the record does not have it.
+     */
+    public static long getTime(ConsumerRecord<?, ?> record, String name) {
+        Header header = record.headers().lastHeader(name);
+        return header == null || header.value().length != Long.BYTES ? -1L : ByteBuffer.wrap(header.value()).getLong();
+    }
+
+    /**
+     * Gets the sequence that the publisher stamped on a record.
+     *
+     * @param record The {@link ConsumerRecord} to get the sequence of.
+     * @return The value of the {@link #SEQUENCE} header or null if the publisher did not stamp one.
+     */
+    public static byte[] getSequence(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(SEQUENCE);
+        return header == null ? null : header.value();
+    }
+
+    /**
+     * Checks if a record only carries a signal.
+     *
+     * @param record The {@link ConsumerRecord} to check.
+     * @return A boolean denoting whether the record was marked as a signal by its publisher.
+     */
+    public static boolean isSignal(ConsumerRecord<?, ?> record) {
+        return record.headers().lastHeader(SIGNAL) != null;
+    }
+
+    private static byte[] toBytes(long time) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(time).array();
+    }
+}
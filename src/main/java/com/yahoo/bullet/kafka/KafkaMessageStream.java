@@ -0,0 +1,259 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A reactive-streams {@link Publisher} that pushes the messages read by a {@link KafkaSubscriber} to a single
+ * {@link Subscriber} as it requests them. While there is outstanding demand, a delivery thread blocks in the consumer
+ * poll for up to the demand and delivers the messages as soon as they arrive. While there is none, the partitions of
+ * the KafkaSubscriber are paused and the thread waits for a request, only waking up to poll the consumer so that it
+ * stays in its group. Delivered messages must be acknowledged with {@link #commit(String)} or {@link #fail(String)} and
+ * the KafkaSubscriber stops reading once too many are unacknowledged, which bounds the messages buffered for the
+ * Subscriber.
+ */
+@Slf4j
+public class KafkaMessageStream implements Publisher<PubSubMessage>, AutoCloseable {
+    private static final Subscription EMPTY = new Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private final KafkaSubscriber subscriber;
+    private final long idleWaitMS;
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+    private final Object signal = new Object();
+    private Thread delivery;
+    private long demand = 0L;
+    // The number of acknowledgements so far, which wake the delivery thread if it is waiting for them
+    private long acknowledgements = 0L;
+    private volatile boolean cancelled = false;
+    // An error to signal from the delivery thread so that signals to the Subscriber are never concurrent
+    private volatile Throwable error;
+
+    /**
+     * Creates a KafkaMessageStream for a {@link KafkaSubscriber}.
+     *
+     * @param subscriber The {@link KafkaSubscriber} to read messages from. It should not be used by anything else.
+     * @param idleWaitMS The maximum time in milliseconds that a poll blocks for while there is demand and the time between
+     *                   the polls that keep the consumer in its group while there is none. Closing the stream may wait
+     *                   for this long.
+     */
+    public KafkaMessageStream(KafkaSubscriber subscriber, long idleWaitMS) {
+        this.subscriber = Objects.requireNonNull(subscriber);
+        this.idleWaitMS = idleWaitMS;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super PubSubMessage> downstream) {
+        Objects.requireNonNull(downstream);
+        if (!subscribed.compareAndSet(false, true)) {
+            // The offsets of a KafkaSubscriber can only be committed for one Subscriber
+            downstream.onSubscribe(EMPTY);
+            downstream.onError(new IllegalStateException("This stream only supports a single subscriber."));
+            return;
+        }
+        delivery = new Thread(() -> run(downstream), "bullet-kafka-stream");
+        delivery.setDaemon(true);
+        downstream.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                synchronized (signal) {
+                    if (n <= 0) {
+                        error = new IllegalArgumentException("Requested a non-positive number: " + n);
+                        signal.notifyAll();
+                        return;
+                    }
+                    // Demand is capped at Long.MAX_VALUE, which means unbounded
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    signal.notifyAll();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                synchronized (signal) {
+                    signal.notifyAll();
+                }
+            }
+        });
+        delivery.start();
+    }
+
+    /**
+     * Acknowledges a message that was delivered so that its offset can be committed.
+     *
+     * @param id The id of the message.
+     */
+    public void commit(String id) {
+        subscriber.commit(id);
+        acknowledged();
+    }
+
+    /**
+     * Marks a message that was delivered as failed so that it is delivered again.
+     *
+     * @param id The id of the message.
+     */
+    public void fail(String id) {
+        subscriber.fail(id);
+        acknowledged();
+    }
+
+    /**
+     * Stops delivering messages and closes the {@link KafkaSubscriber}.
+     */
+    @Override
+    public void close() {
+        cancelled = true;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        if (delivery != null && delivery != Thread.currentThread()) {
+            try {
+                delivery.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        subscriber.close();
+    }
+
+    private void run(Subscriber<? super PubSubMessage> downstream) {
+        // The messages that were read while there was no demand for them
+        Queue<PubSubMessage> held = new ArrayDeque<>();
+        while (!cancelled) {
+            if (error != null) {
+                signalError(downstream, error);
+                return;
+            }
+            long wanted = getDemand();
+            if ((wanted > 0) == subscriber.isPaused()) {
+                if (wanted > 0) {
+                    subscriber.resume();
+                } else {
+                    subscriber.pause();
+                }
+            }
+            try {
+                if (wanted == 0) {
+                    // Keep polling without demand so that the consumer stays in its group. Its partitions are paused.
+                    PubSubMessage message = subscriber.receive();
+                    if (message != null) {
+                        held.add(message);
+                    }
+                    awaitDemand();
+                    continue;
+                }
+                if (held.isEmpty()) {
+                    long seen = getAcknowledgements();
+                    long start = System.currentTimeMillis();
+                    held.addAll(subscriber.receive((int) Math.min(wanted, Integer.MAX_VALUE), idleWaitMS, Long.MAX_VALUE));
+                    if (held.isEmpty() && System.currentTimeMillis() - start < idleWaitMS) {
+                        // The subscriber did not poll because of its limits and needs acknowledgements to go on
+                        awaitAcknowledgement(seen);
+                    }
+                }
+            } catch (PubSubException e) {
+                signalError(downstream, e);
+                return;
+            }
+            while (!held.isEmpty() && !cancelled && takeDemand()) {
+                PubSubMessage message = held.remove();
+                try {
+                    downstream.onNext(message);
+                } catch (RuntimeException e) {
+                    log.error("The subscriber failed on the message for id {}. Cancelling.", message.getId(), e);
+                    cancelled = true;
+                }
+            }
+        }
+    }
+
+    private long getDemand() {
+        synchronized (signal) {
+            return demand;
+        }
+    }
+
+    private boolean takeDemand() {
+        synchronized (signal) {
+            if (demand == 0) {
+                return false;
+            }
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+            return true;
+        }
+    }
+
+    private long getAcknowledgements() {
+        synchronized (signal) {
+            return acknowledgements;
+        }
+    }
+
+    private void acknowledged() {
+        synchronized (signal) {
+            acknowledgements++;
+            signal.notifyAll();
+        }
+    }
+
+    private void awaitDemand() {
+        synchronized (signal) {
+            if (demand == 0) {
+                await();
+            }
+        }
+    }
+
+    private void awaitAcknowledgement(long seen) {
+        synchronized (signal) {
+            if (acknowledgements == seen) {
+                await();
+            }
+        }
+    }
+
+    // Called while holding the lock on the signal
+    private void await() {
+        if (cancelled || error != null) {
+            return;
+        }
+        try {
+            signal.wait(idleWaitMS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        }
+    }
+
+    private void signalError(Subscriber<? super PubSubMessage> downstream, Throwable error) {
+        if (!cancelled) {
+            cancelled = true;
+            downstream.onError(error);
+        }
+    }
+}
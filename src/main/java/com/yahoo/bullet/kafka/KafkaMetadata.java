@@ -12,6 +12,8 @@ import lombok.Getter;
 import lombok.Setter;
 import org.apache.kafka.common.TopicPartition;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Objects;
@@ -21,9 +23,16 @@ public class KafkaMetadata extends Metadata implements Serializable {
 
     @Getter @Setter
     private TopicPartition topicPartition;
+    // The trace of the query this is for, which is carried from the query to its results
+    @Getter
+    private String traceID;
+    @Getter
+    private long submitTime = -1L;
+    @Getter
+    private long receiveTime = -1L;
 
     /**
-     * Constructor that wraps a {@link Metadata} and {@link TopicPartition}.
+     * Constructor that wraps a {@link Metadata} and {@link TopicPartition}. The trace is kept if the metadata has one.
      *
      * @param metadata The metadata that is to be wrapped.
      * @param topicPartition The {@link TopicPartition} information for Kafka to use.
@@ -31,6 +40,10 @@ public class KafkaMetadata extends Metadata implements Serializable {
     public KafkaMetadata(Metadata metadata, TopicPartition topicPartition) {
         super(metadata.getSignal(), metadata.getContent());
         this.topicPartition = topicPartition;
+        if (metadata instanceof KafkaMetadata) {
+            KafkaMetadata other = (KafkaMetadata) metadata;
+            setTrace(other.traceID, other.submitTime, other.receiveTime);
+        }
     }
 
     /**
@@ -42,6 +55,37 @@ public class KafkaMetadata extends Metadata implements Serializable {
         this.topicPartition = topicPartition;
     }
 
+    /**
+     * Sets the trace of the query this is for.
+     *
+     * @param traceID The id of the trace.
+     * @param submitTime The time in milliseconds when the query was sent.
+     * @param receiveTime The time in milliseconds when the query was read by the backend.
+     */
+    public void setTrace(String traceID, long submitTime, long receiveTime) {
+        this.traceID = traceID;
+        this.submitTime = submitTime;
+        this.receiveTime = receiveTime;
+    }
+
+    /**
+     * Checks if this carries the trace of a query.
+     *
+     * @return A boolean denoting whether there is a trace.
+     */
+    public boolean hasTrace() {
+        return traceID != null;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        topicPartition = (TopicPartition) fields.get("topicPartition", null);
+        traceID = (String) fields.get("traceID", null);
+        // Metadata serialized before the trace was added has no times, which must read as not being set
+        submitTime = fields.get("submitTime", -1L);
+        receiveTime = fields.get("receiveTime", -1L);
+    }
+
     @Override
     public Metadata copy() {
         return new KafkaMetadata(this, topicPartition);
@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Map;
+
+/**
+ * Receives measurements from the publishers and subscribers as they send and read messages. All the methods do nothing
+ * by default so an implementation only needs to override the ones it wants. They are called on the sending and reading
+ * threads and should be cheap. An implementation is loaded from {@link KafkaConfig#METRICS_CLASS_NAME} through a
+ * constructor that takes a {@link com.yahoo.bullet.common.BulletConfig}.
+ */
+public interface KafkaMetrics {
+    /**
+     * Why a subscriber dropped a record instead of returning it as a message.
+     */
+    enum DropReason {
+        EXPIRED, DUPLICATE, UNREADABLE
+    }
+
+    /**
+     * Records nothing.
+     */
+    KafkaMetrics NONE = new KafkaMetrics() { };
+
+    /**
+     * Records a message that a publisher handed to its producer.
+     *
+     * @param partition The {@link TopicPartition} the message was sent to.
+     * @param bytes The serialized size of the message.
+     * @param serializationNanos The time in nanoseconds taken to serialize the message.
+     */
+    default void recordSend(TopicPartition partition, int bytes, long serializationNanos) {
+    }
+
+    /**
+     * Records a poll of the consumer by a subscriber.
+     *
+     * @param records The number of records the poll returned.
+     * @param pollNanos The time in nanoseconds taken by the poll.
+     */
+    default void recordPoll(int records, long pollNanos) {
+    }
+
+    /**
+     * Records a message that a subscriber read.
+     *
+     * @param partition The {@link TopicPartition} the message was read from.
+     * @param bytes The serialized size of the message.
+     * @param deserializationNanos The time in nanoseconds taken to deserialize the message.
+     */
+    default void recordReceive(TopicPartition partition, int bytes, long deserializationNanos) {
+    }
+
+    /**
+     * Records a record that a subscriber dropped.
+     *
+     * @param partition The {@link TopicPartition} the record was read from.
+     * @param reason The {@link DropReason} it was dropped for.
+     */
+    default void recordDrop(TopicPartition partition, DropReason reason) {
+    }
+
+    /**
+     * Records the stages of a traced query when one of its results is read. The times come from the clocks of different
+     * hosts so they are only as accurate as the clocks are in sync.
+     *
+     * @param traceID The id of the trace.
+     * @param queryQueueingMS The time in milliseconds from sending the query to the backend reading it.
+     * @param processingMS The time in milliseconds from the backend reading the query to it sending the result.
+     * @param responseQueueingMS The time in milliseconds from the backend sending the result to it being read.
+     */
+    default void recordTrace(String traceID, long queryQueueingMS, long processingMS, long responseQueueingMS) {
+    }
+
+    /**
+     * Records the current value of a metric that a Kafka producer or consumer keeps itself. These are sampled
+     * periodically by a {@link ClientMetricsExporter} on its own thread.
+     *
+     * @param name The name of the Kafka metric, such as records-lag-max.
+     * @param tags The {@link Map} of the tags of the Kafka metric, such as the client id, topic and partition, with its
+     *             group and the context and role of the client.
+     * @param value The value of the metric.
+     */
+    default void recordClientMetric(String name, Map<String, String> tags, double value) {
+    }
+}
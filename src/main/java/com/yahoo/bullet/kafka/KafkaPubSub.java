@@ -10,16 +10,34 @@ import com.yahoo.bullet.pubsub.PubSub;
 import com.yahoo.bullet.pubsub.PubSubException;
 import com.yahoo.bullet.pubsub.Publisher;
 import com.yahoo.bullet.pubsub.Subscriber;
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.yahoo.bullet.kafka.KafkaConfig.CONSUMER_NAMESPACE;
@@ -28,15 +46,65 @@ import static com.yahoo.bullet.kafka.KafkaConfig.PRODUCER_NAMESPACE;
 
 @Slf4j
 public class KafkaPubSub extends PubSub {
+    // The settings that reconfigure applies to the publishers and subscribers that are in use
+    private static final List<String> LIVE_SETTINGS = Arrays.asList(KafkaConfig.MAX_UNCOMMITTED_MESSAGES,
+                                                                    KafkaConfig.RATE_LIMIT_ENABLE,
+                                                                    KafkaConfig.RATE_LIMIT_MAX_MESSAGES,
+                                                                    KafkaConfig.RATE_LIMIT_INTERVAL_MS,
+                                                                    KafkaConfig.PARTITION_ROUTING_ENABLE);
+
     private List<TopicPartition> queryPartitions;
     private List<TopicPartition> responsePartitions;
     private String queryTopicName;
     private String responseTopicName;
     private String topic;
     private boolean partitionRoutingEnabled;
+    private Duration closeTimeout;
+    @Getter
+    private KafkaMetrics metrics;
+    @Getter(AccessLevel.PACKAGE)
+    private ClientMetricsExporter clientMetricsExporter;
+    private boolean traceEnabled;
     private List<TopicPartition> partitions;
+    @Getter(AccessLevel.PACKAGE)
+    private ResponsePartitionClaimer responsePartitionClaimer;
+    @Getter(AccessLevel.PACKAGE)
     private Map<String, Object> producerProperties;
+    @Getter(AccessLevel.PACKAGE)
+    private Map<String, Object> latencyProducerProperties;
+    @Getter(AccessLevel.PACKAGE)
+    private Map<String, Object> throughputProducerProperties;
     private Map<String, Object> consumerProperties;
+    private String staticMemberID;
+    private int staticMemberSessionTimeout;
+    // The index of the next subscriber, which makes the group.instance.id of each static member unique
+    private int nextSubscriberIndex = 0;
+    private KafkaSubscriber.StartPosition startPosition;
+    private long startLookbackMS;
+    private long recordTTLMS;
+    private long signalTTLMS;
+    private boolean multiplexEnabled;
+    private int producerStripes;
+    private boolean stripeByPartition;
+    private String spoolDirectory;
+    private int spoolMaxBytes;
+    private long spoolFsyncIntervalMS;
+    private long spoolRetryIntervalMS;
+    // The partitions of the topics when they are not configured, which are looked up once
+    private List<TopicPartition> allQueryPartitions;
+    private List<TopicPartition> allResponsePartitions;
+    private boolean dedupEnabled;
+    private int dedupMaxEntries;
+    private long dedupTTLMS;
+    private String deadLetterTopicName;
+    private String deadLetterFile;
+    // Shared by the dead letter sinks of all the subscribers and only created when one of them first needs it
+    private TopicDeadLetterSink.SharedProducer deadLetterProducer;
+    @Getter(AccessLevel.PACKAGE)
+    private ClientWarmer clientWarmer;
+    // The publishers and subscribers created in the current context, which are not kept from being collected
+    private final List<WeakReference<Publisher>> publishers = new CopyOnWriteArrayList<>();
+    private final List<WeakReference<KafkaSubscriber>> subscribers = new CopyOnWriteArrayList<>();
 
     /**
      * Creates a KafkaPubSub from a {@link BulletConfig}.
@@ -62,48 +130,340 @@ public class KafkaPubSub extends PubSub {
         responseTopicName  = config.getAs(KafkaConfig.RESPONSE_TOPIC_NAME, String.class);
         topic = (context == Context.QUERY_PROCESSING) ? queryTopicName : responseTopicName;
         partitionRoutingEnabled = config.getAs(KafkaConfig.PARTITION_ROUTING_ENABLE, Boolean.class);
+        closeTimeout = Duration.ofMillis(config.getAs(KafkaConfig.CLOSE_TIMEOUT_MS, Long.class));
+        traceEnabled = config.getAs(KafkaConfig.TRACE_ENABLE, Boolean.class);
+        String metricsClassName = config.getAs(KafkaConfig.METRICS_CLASS_NAME, String.class);
+        if (metricsClassName == null) {
+            metrics = KafkaMetrics.NONE;
+        } else if (metrics == null || !metrics.getClass().getName().equals(metricsClassName)) {
+            // Keep the measurements across context switches
+            metrics = config.loadConfiguredClass(KafkaConfig.METRICS_CLASS_NAME);
+        }
+        if (clientMetricsExporter != null && clientMetricsExporter.getMetrics() != metrics) {
+            clientMetricsExporter.close();
+            clientMetricsExporter = null;
+        }
+        long clientMetricsIntervalMS = config.getAs(KafkaConfig.CLIENT_METRICS_INTERVAL_MS, Long.class);
+        if (clientMetricsExporter == null && metrics != KafkaMetrics.NONE && clientMetricsIntervalMS > 0) {
+            List<String> clientMetricsNames = config.getAs(KafkaConfig.CLIENT_METRICS_NAMES, List.class);
+            clientMetricsExporter = new ClientMetricsExporter(metrics, clientMetricsNames, clientMetricsIntervalMS);
+        }
+
+        queryPartitions = parsePartitionsFor(config, queryTopicName, KafkaConfig.REQUEST_PARTITIONS);
+        responsePartitions = parsePartitionsFor(config, responseTopicName, KafkaConfig.RESPONSE_PARTITIONS);
 
-        queryPartitions = parsePartitionsFor(queryTopicName, KafkaConfig.REQUEST_PARTITIONS);
-        responsePartitions = parsePartitionsFor(responseTopicName, KafkaConfig.RESPONSE_PARTITIONS);
+        boolean autoClaimEnabled = config.getAs(KafkaConfig.RESPONSE_PARTITIONS_AUTO_CLAIM_ENABLE, Boolean.class);
+        responsePartitionClaimer = null;
+        if (autoClaimEnabled && context == Context.QUERY_SUBMISSION) {
+            // The response partitions come from the consumer group instead
+            responsePartitions = null;
+            responsePartitionClaimer = new ResponsePartitionClaimer();
+        }
         partitions = (context == Context.QUERY_PROCESSING) ? queryPartitions : responsePartitions;
 
         Map<String, Object> commonProperties = config.getAllWithPrefix(Optional.of(KafkaConfig.COMMON_PROPERTIES), KAFKA_NAMESPACE, true);
-        producerProperties = config.getAllWithPrefix(Optional.empty(), PRODUCER_NAMESPACE, true);
+        Map<String, Object> allProducerProperties = config.getAllWithPrefix(Optional.empty(), PRODUCER_NAMESPACE, true);
+        producerProperties = withoutProfiles(allProducerProperties);
         producerProperties.putAll(commonProperties);
         log.info("Producer properties:\n{}", producerProperties);
+        latencyProducerProperties = withProfile(allProducerProperties, commonProperties, KafkaConfig.LATENCY_PROFILE);
+        log.info("Producer properties for queries and signals:\n{}", latencyProducerProperties);
+        throughputProducerProperties = withProfile(allProducerProperties, commonProperties, KafkaConfig.THROUGHPUT_PROFILE);
+        log.info("Producer properties for results:\n{}", throughputProducerProperties);
         consumerProperties = config.getAllWithPrefix(Optional.empty(), CONSUMER_NAMESPACE, true);
         consumerProperties.putAll(commonProperties);
         log.info("Consumer properties:\n{}", consumerProperties);
+
+        startPosition = KafkaSubscriber.StartPosition.from(config.getAs(KafkaConfig.START_POSITION, String.class));
+        startLookbackMS = config.getAs(KafkaConfig.START_LOOKBACK_MS, Long.class);
+        String recordTTL = (context == Context.QUERY_PROCESSING) ? KafkaConfig.QUERY_TTL_MS : KafkaConfig.RESULT_TTL_MS;
+        recordTTLMS = config.getOrDefaultAs(recordTTL, 0L, Long.class);
+        signalTTLMS = config.getOrDefaultAs(KafkaConfig.SIGNAL_TTL_MS, 0L, Long.class);
+        multiplexEnabled = config.getAs(KafkaConfig.MULTIPLEX_ENABLE, Boolean.class);
+        producerStripes = config.getAs(KafkaConfig.PRODUCER_STRIPES, Integer.class);
+        stripeByPartition = KafkaConfig.PARTITION_STRIPE_BY.equals(config.getAs(KafkaConfig.PRODUCER_STRIPE_BY, String.class));
+        spoolDirectory = config.getAs(KafkaConfig.SPOOL_DIRECTORY, String.class);
+        spoolMaxBytes = config.getAs(KafkaConfig.SPOOL_MAX_BYTES, Integer.class);
+        spoolFsyncIntervalMS = config.getAs(KafkaConfig.SPOOL_FSYNC_INTERVAL_MS, Long.class);
+        spoolRetryIntervalMS = config.getAs(KafkaConfig.SPOOL_RETRY_INTERVAL_MS, Long.class);
+        allQueryPartitions = null;
+        allResponsePartitions = null;
+        dedupEnabled = config.getAs(KafkaConfig.DEDUP_ENABLE, Boolean.class);
+        dedupMaxEntries = config.getAs(KafkaConfig.DEDUP_MAX_ENTRIES, Integer.class);
+        dedupTTLMS = config.getAs(KafkaConfig.DEDUP_TTL_MS, Long.class);
+        deadLetterTopicName = config.getAs(KafkaConfig.DEAD_LETTER_TOPIC_NAME, String.class);
+        deadLetterFile = config.getAs(KafkaConfig.DEAD_LETTER_FILE, String.class);
+        deadLetterProducer = null;
+
+        staticMemberID = null;
+        if (config.getAs(KafkaConfig.STATIC_MEMBERSHIP_ENABLE, Boolean.class)) {
+            staticMemberID = config.getAs(KafkaConfig.STATIC_MEMBERSHIP_INSTANCE_ID, String.class);
+            staticMemberSessionTimeout = config.getAs(KafkaConfig.STATIC_MEMBERSHIP_SESSION_TIMEOUT_MS, Integer.class);
+        }
+
+        // The publishers and subscribers of the previous context keep its settings
+        publishers.clear();
+        subscribers.clear();
+
+        // The clients warmed up for the previous context are of no use in this one
+        if (clientWarmer != null) {
+            clientWarmer.close();
+            clientWarmer = null;
+        }
+        if (config.getAs(KafkaConfig.WARMUP_ENABLE, Boolean.class)) {
+            startWarmup(Duration.ofMillis(config.getAs(KafkaConfig.WARMUP_TIMEOUT_MS, Long.class)));
+        }
     }
 
-    @Override
-    public Publisher getPublisher() {
-        KafkaProducer<String, byte[]> producer = new KafkaProducer<>(producerProperties);
+    /**
+     * Gets a future that completes once the producer and consumer that were warmed up in the background are ready. It
+     * completes exceptionally if they could not be, in which case the publishers and subscribers create their own
+     * clients as usual. It is already complete if {@link KafkaConfig#WARMUP_ENABLE} is false.
+     *
+     * @return A {@link CompletableFuture} that completes when the warm up is done.
+     */
+    public CompletableFuture<Void> getReadiness() {
+        return clientWarmer == null ? CompletableFuture.completedFuture(null) : clientWarmer.getReadiness();
+    }
+
+    /**
+     * Applies the settings of an updated configuration that can change while the publishers and subscribers are in use:
+     * the subscriber limits ({@link KafkaConfig#MAX_UNCOMMITTED_MESSAGES} and the rate limit settings),
+     * {@link KafkaConfig#PARTITION_ROUTING_ENABLE} and the partitions that this context writes to, which are
+     * {@link KafkaConfig#REQUEST_PARTITIONS} when submitting queries and {@link KafkaConfig#RESPONSE_PARTITIONS} when
+     * processing them. They are applied to the publishers and subscribers that were created in the current context and
+     * to the ones created after. The partitions that this context reads are assigned to its consumers so, like all the
+     * other settings, they only change with a new KafkaPubSub. The updated configuration is validated as a whole and
+     * nothing is applied if any of the settings that would be applied is not valid.
+     *
+     * @param updated The complete {@link BulletConfig} to change to.
+     * @return The {@link Set} of the keys of the settings that changed but were not applied.
+     * @throws PubSubException if the updated configuration is not valid or the partitions to write to cannot be found.
+     */
+    public synchronized Set<String> reconfigure(BulletConfig updated) throws PubSubException {
+        KafkaConfig validated;
+        try {
+            validated = new KafkaConfig(updated);
+        } catch (IllegalStateException e) {
+            throw new PubSubException("The updated configuration is not valid.", e);
+        }
+        List<String> liveSettings = new ArrayList<>(LIVE_SETTINGS);
+        liveSettings.add(context == Context.QUERY_PROCESSING ? KafkaConfig.RESPONSE_PARTITIONS : KafkaConfig.REQUEST_PARTITIONS);
+        for (String key : liveSettings) {
+            Object value = updated.get(key);
+            // The validator replaces invalid values with their defaults, which is not the change that was asked for
+            if (value != null && !String.valueOf(value).equals(String.valueOf(validated.get(key)))) {
+                throw new PubSubException("The value " + value + " for " + key + " is not valid.");
+            }
+        }
+        Map<String, Object> previous = config.getAllWithPrefix(Optional.empty(), KAFKA_NAMESPACE, false);
+        Map<String, Object> next = validated.getAllWithPrefix(Optional.empty(), KAFKA_NAMESPACE, false);
+        Set<String> changed = new HashSet<>(previous.keySet());
+        changed.addAll(next.keySet());
+        changed.removeIf(key -> Objects.equals(previous.get(key), next.get(key)));
 
-        List<TopicPartition> forResponses = (responsePartitions == null) ? getAllPartitions(getDummyProducer(), responseTopicName) : responsePartitions;
+        Set<String> applied = new HashSet<>(liveSettings);
+        applied.retainAll(changed);
+        changed.removeAll(applied);
+        if (!changed.isEmpty()) {
+            log.warn("Settings {} cannot change while in use and were not applied.", changed);
+        }
+        if (applied.isEmpty()) {
+            return changed;
+        }
 
-        if (context == Context.QUERY_PROCESSING) {
-            return new KafkaResponsePublisher(producer, forResponses, partitionRoutingEnabled);
+        // Find the partitions to write to first so that nothing changes if they cannot be found
+        String partitionsKey = liveSettings.get(liveSettings.size() - 1);
+        boolean processing = context == Context.QUERY_PROCESSING;
+        List<TopicPartition> configuredPartitions = parsePartitionsFor(validated, processing ? responseTopicName : queryTopicName,
+                                                                       partitionsKey);
+        List<TopicPartition> writePartitions = null;
+        if (applied.contains(partitionsKey)) {
+            try {
+                writePartitions = configuredPartitions != null ? configuredPartitions :
+                                  processing ? getAllResponsePartitions() : getAllQueryPartitions();
+            } catch (KafkaException e) {
+                throw new PubSubException("Could not find the partitions to write to.", e);
+            }
+        }
+        for (String key : applied) {
+            config.set(key, validated.get(key));
         }
+        partitionRoutingEnabled = config.getAs(KafkaConfig.PARTITION_ROUTING_ENABLE, Boolean.class);
+        if (processing) {
+            responsePartitions = configuredPartitions;
+        } else {
+            queryPartitions = configuredPartitions;
+        }
+        for (Publisher publisher : getLive(publishers)) {
+            if (publisher instanceof KafkaQueryPublisher) {
+                KafkaQueryPublisher queryPublisher = (KafkaQueryPublisher) publisher;
+                queryPublisher.setPartitionRoutingEnabled(partitionRoutingEnabled);
+                if (writePartitions != null) {
+                    queryPublisher.setWritePartitions(writePartitions);
+                }
+            } else if (publisher instanceof KafkaResponsePublisher) {
+                KafkaResponsePublisher responsePublisher = (KafkaResponsePublisher) publisher;
+                responsePublisher.setPartitionRoutingEnabled(partitionRoutingEnabled);
+                if (writePartitions != null) {
+                    responsePublisher.setWritePartitions(writePartitions);
+                }
+            }
+        }
+        getLive(subscribers).forEach(this::setLimits);
+        log.info("Applied the updated settings {}.", applied);
+        return changed;
+    }
 
-        List<TopicPartition> forQueries = (queryPartitions == null) ? getAllPartitions(getDummyProducer(), queryTopicName) : queryPartitions;
-        return new KafkaQueryPublisher(producer, forQueries, forResponses, partitionRoutingEnabled);
+    @Override
+    public Publisher getPublisher() throws PubSubException {
+        return createPublisher(createProducer());
     }
 
+    /**
+     * Creates n {@link Publisher} objects. If {@link KafkaConfig#PRODUCER_STRIPES} is more than one, they are backed by
+     * that many producers (or n if it is less) as configured by {@link KafkaConfig#PRODUCER_STRIPE_BY}. Otherwise, they
+     * are all the same Publisher.
+     *
+     * @param n The number of Publishers requested.
+     * @return A {@link List} containing the requested Publishers.
+     * @throws PubSubException if unable to create Publishers.
+     */
     @Override
     public List<Publisher> getPublishers(int n) throws PubSubException {
-        // Kafka Publishers are thread safe and can be reused
-        return Collections.nCopies(n, getPublisher());
+        int stripes = Math.min(n, producerStripes);
+        if (stripes <= 1) {
+            // Kafka Publishers are thread safe and can be reused
+            return Collections.nCopies(n, getPublisher());
+        }
+        List<Producer<String, byte[]>> producers = new ArrayList<>();
+        for (int i = 0; i < stripes; ++i) {
+            producers.add(createProducer());
+        }
+        if (stripeByPartition) {
+            return Collections.nCopies(n, createPublisher(new StripedProducer(producers)));
+        }
+        // Each publisher sends everything through one producer so the messages it sends stay in order
+        List<Publisher> publishers = new ArrayList<>();
+        for (int i = 0; i < stripes; ++i) {
+            publishers.add(createPublisher(producers.get(i)));
+        }
+        List<Publisher> assigned = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            assigned.add(publishers.get(i % stripes));
+        }
+        return assigned;
+    }
+
+    private void startWarmup(Duration timeout) {
+        List<String> writeTopics = context == Context.QUERY_PROCESSING ? Collections.singletonList(responseTopicName) :
+                                                                         Arrays.asList(queryTopicName, responseTopicName);
+        Supplier<Producer<String, byte[]>> producerFactory = () -> newProducer(getContextProducerProperties());
+        // A static member has its own properties so it cannot use the warmed up consumer
+        Supplier<Consumer<String, byte[]>> consumerFactory = null;
+        if (staticMemberID == null || partitions != null) {
+            consumerFactory = () -> newConsumer(consumerProperties);
+        }
+        clientWarmer = new ClientWarmer(producerFactory, consumerFactory, writeTopics, topic, partitions, timeout);
+        clientWarmer.start();
+    }
+
+    private Map<String, Object> getContextProducerProperties() {
+        // Results are sent with the throughput profile while queries and signals are sent with the latency profile
+        return context == Context.QUERY_PROCESSING ? throughputProducerProperties : latencyProducerProperties;
+    }
+
+    private Producer<String, byte[]> createProducer() throws PubSubException {
+        Producer<String, byte[]> producer = clientWarmer != null ? clientWarmer.takeProducer() : null;
+        if (producer == null) {
+            producer = newProducer(getContextProducerProperties());
+        }
+        export(producer);
+        if (spoolDirectory == null) {
+            return producer;
+        }
+        try {
+            SpoolJournal journal = SpoolJournal.claim(Paths.get(spoolDirectory), context.name().toLowerCase(), spoolMaxBytes);
+            SpoolingProducer spoolingProducer = new SpoolingProducer(producer, journal, spoolRetryIntervalMS, spoolFsyncIntervalMS);
+            spoolingProducer.start();
+            return spoolingProducer;
+        } catch (IOException e) {
+            producer.close();
+            throw new PubSubException("Could not open a spool journal in " + spoolDirectory, e);
+        }
+    }
+
+    private Publisher createPublisher(Producer<String, byte[]> producer) {
+        if (context == Context.QUERY_PROCESSING) {
+            KafkaResponsePublisher publisher = new KafkaResponsePublisher(producer, getResponseWritePartitions(), partitionRoutingEnabled, closeTimeout);
+            publisher.setMetrics(metrics);
+            publisher.setSequencer(createSequencer());
+            publishers.add(new WeakReference<>(publisher));
+            return publisher;
+        }
+
+        List<TopicPartition> forQueries = getQueryWritePartitions();
+        KafkaQueryPublisher publisher;
+        if (responsePartitionClaimer != null) {
+            // The receive partitions are filled in and updated by the claimer as the group assigns them
+            publisher = new KafkaQueryPublisher(producer, forQueries, null, partitionRoutingEnabled, closeTimeout);
+            responsePartitionClaimer.register(publisher);
+        } else {
+            publisher = new KafkaQueryPublisher(producer, forQueries, getResponseWritePartitions(), partitionRoutingEnabled, closeTimeout);
+        }
+        publisher.setMetrics(metrics);
+        publisher.setTraceEnabled(traceEnabled);
+        publisher.setSequencer(createSequencer());
+        publishers.add(new WeakReference<>(publisher));
+        return publisher;
+    }
+
+    private KafkaHeaders.Sequencer createSequencer() {
+        // The sequences are only read by the duplicate filter so they are only worth their bytes if it is on
+        return dedupEnabled ? new KafkaHeaders.Sequencer() : null;
+    }
+
+    private synchronized List<TopicPartition> getQueryWritePartitions() {
+        return queryPartitions != null ? queryPartitions : getAllQueryPartitions();
+    }
+
+    private synchronized List<TopicPartition> getAllQueryPartitions() {
+        if (allQueryPartitions == null) {
+            allQueryPartitions = getWarmedPartitions(queryTopicName);
+        }
+        if (allQueryPartitions == null) {
+            allQueryPartitions = getAllPartitions(getDummyProducer(), queryTopicName);
+        }
+        return allQueryPartitions;
+    }
+
+    private synchronized List<TopicPartition> getResponseWritePartitions() {
+        return responsePartitions != null ? responsePartitions : getAllResponsePartitions();
+    }
+
+    private synchronized List<TopicPartition> getAllResponsePartitions() {
+        if (allResponsePartitions == null) {
+            allResponsePartitions = getWarmedPartitions(responseTopicName);
+        }
+        if (allResponsePartitions == null) {
+            allResponsePartitions = getAllPartitions(getDummyProducer(), responseTopicName);
+        }
+        return allResponsePartitions;
+    }
+
+    private List<TopicPartition> getWarmedPartitions(String topicName) {
+        return clientWarmer == null ? null : clientWarmer.getPartitions(topicName);
     }
 
     @Override
     public Subscriber getSubscriber() {
-        return getSubscriber(partitions, topic);
+        return getSubscriber(partitions, topic, takeSubscriberIndex());
     }
 
     /**
      * Attempts to allocate available partitions to n {@link Subscriber} objects. If an exact allocation is not
-     * possible, it returns less than n Subscribers with partitions allocated as evenly as possible among them.
+     * possible, it returns less than n Subscribers with partitions allocated as evenly as possible among them. If
+     * {@link KafkaConfig#MULTIPLEX_ENABLE} is true, the Subscribers share a single {@link KafkaConsumer}.
      *
      * @param n The number of Subscribers requested.
      * @return A {@link List} containing the requested Subscribers.
@@ -111,39 +471,58 @@ public class KafkaPubSub extends PubSub {
      */
     @Override
     public List<Subscriber> getSubscribers(int n) throws PubSubException {
+        if (multiplexEnabled && n > 1) {
+            return getMultiplexedSubscribers(n);
+        }
         List<Subscriber> subscribers = new ArrayList<>();
         if (partitions == null) {
             for (int i = 0; i < n; ++i) {
-                subscribers.add(getSubscriber());
+                subscribers.add(getSubscriber(null, topic, takeSubscriberIndex()));
             }
             return subscribers;
         }
+        for (List<TopicPartition> subscriberPartitions : divide(partitions, n)) {
+            subscribers.add(getSubscriber(subscriberPartitions, topic, takeSubscriberIndex()));
+        }
+        return subscribers;
+    }
+
+    /**
+     * Divides partitions into at most n contiguous groups that are as even as possible.
+     *
+     * @param partitions The {@link List} of {@link TopicPartition} to divide.
+     * @param n The maximum number of groups.
+     * @return A {@link List} of the groups.
+     */
+    static List<List<TopicPartition>> divide(List<TopicPartition> partitions, int n) {
+        List<List<TopicPartition>> groups = new ArrayList<>();
         // Try to divide the partitions equally
         int totalPartitions = partitions.size();
         int partitionsPerSubscriber = (int) Math.ceil(totalPartitions / ((double) n));
         int start = 0;
         while (start < totalPartitions) {
             int end = start + partitionsPerSubscriber;
-            subscribers.add(getSubscriber(partitions.subList(start, Math.min(end, totalPartitions)), topic));
+            groups.add(partitions.subList(start, Math.min(end, totalPartitions)));
             start = end;
         }
-        return subscribers;
+        return groups;
     }
 
     /**
      * Safely reads the partition list from the field in the YAML file. If no such setting exists, returns null to
      * signify default to all partitions in the topic.
      *
+     * @param settings The {@link BulletConfig} to read the partitions from.
      * @param topicName The name of the topic to get partitions for.
      * @param fieldName The key corresponding to the partition list in the YAML file.
      * @return {@link List} of {@link TopicPartition} values assigned in {@link KafkaConfig}.
      */
-    private List<TopicPartition> parsePartitionsFor(String topicName, String fieldName) {
-        if (config.get(fieldName) == null) {
+    private static List<TopicPartition> parsePartitionsFor(BulletConfig settings, String topicName, String fieldName) {
+        if (settings.get(fieldName) == null) {
             return null;
         }
         List<TopicPartition> partitionList = new ArrayList<>();
-        List<Number> partitionObjectList = config.getAs(fieldName, List.class);
+        List<Number> partitionObjectList = settings.getAs(fieldName, List.class);
         for (Number partition : partitionObjectList) {
             partitionList.add(new TopicPartition(topicName, partition.intValue()));
         }
@@ -156,7 +535,7 @@ public class KafkaPubSub extends PubSub {
      * @param topicName The topic to get partitions for.
      * @return {@link List} of {@link TopicPartition} values corresponding to the topic.
      */
-    List<TopicPartition> getAllPartitions(KafkaProducer<String, byte[]> dummy, String topicName) {
+    List<TopicPartition> getAllPartitions(Producer<String, byte[]> dummy, String topicName) {
         List<TopicPartition> partitions = dummy.partitionsFor(topicName)
                                                .stream().map(i -> new TopicPartition(i.topic(), i.partition()))
                                                .collect(Collectors.toList());
@@ -164,39 +543,206 @@ public class KafkaPubSub extends PubSub {
         return partitions;
     }
 
+    /**
+     * Get the properties for a consumer that subscribes to the topic as a static member of the consumer group.
+     *
+     * @param index The index of the subscriber in this instance.
+     * @return The {@link Map} of consumer properties with the group.instance.id for this subscriber or null if static
+     *         membership is not enabled.
+     */
+    Map<String, Object> getStaticMemberProperties(int index) {
+        if (staticMemberID == null) {
+            return null;
+        }
+        Map<String, Object> properties = new HashMap<>(consumerProperties);
+        properties.put(ConsumerConfig.GROUP_INSTANCE_ID_CONFIG, staticMemberID + "-" + context + "-" + index);
+        properties.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, staticMemberSessionTimeout);
+        return properties;
+    }
+
     /**
      * Get a Subscriber that reads from the given partitions. If partitions is null, the Subscriber reads from the topic
      * corresponding to topicName.
      *
      * @param partitions The list of partitions to read from.
      * @param topicName The topic to subscribe to if partitions are not given.
+     * @param index The index of this Subscriber among the ones created by this instance.
      * @return The Subscriber reading from the appropriate topic/partitions.
      */
-    private Subscriber getSubscriber(List<TopicPartition> partitions, String topicName) {
+    private Subscriber getSubscriber(List<TopicPartition> partitions, String topicName, int index) {
+        Consumer<String, byte[]> consumer = createConsumer(partitions == null, index);
+        KafkaSubscriber subscriber = createSubscriber(consumer);
+        // Subscribe to the topic if partitions are not set in the config. The subscriber handles the rebalances.
+        if (partitions == null) {
+            subscriber.setRebalanceListener(responsePartitionClaimer);
+            consumer.subscribe(Collections.singleton(topicName), subscriber);
+        } else {
+            consumer.assign(partitions);
+            subscriber.onPartitionsAssigned(partitions);
+        }
+        return subscriber;
+    }
+
+    private List<Subscriber> getMultiplexedSubscribers(int n) {
+        Consumer<String, byte[]> consumer = createConsumer(partitions == null, takeSubscriberIndex());
+        Number maxUnackedMessages = config.getAs(KafkaConfig.MAX_UNCOMMITTED_MESSAGES, Number.class);
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, maxUnackedMessages.intValue());
+        // The views divide the partitions that the group assigns to the consumer by partition number if none are set
+        List<List<TopicPartition>> divided = partitions == null ? Collections.nCopies(n, null) : divide(partitions, n);
+        List<Subscriber> subscribers = new ArrayList<>();
+        for (List<TopicPartition> viewPartitions : divided) {
+            KafkaSubscriber subscriber = createSubscriber(consumer);
+            subscriber.setRebalanceListener(responsePartitionClaimer);
+            multiplexer.addView(subscriber, viewPartitions);
+            subscribers.add(subscriber);
+        }
+        if (partitions == null) {
+            consumer.subscribe(Collections.singleton(topic), multiplexer);
+        } else {
+            consumer.assign(partitions);
+            multiplexer.onPartitionsAssigned(partitions);
+        }
+        return subscribers;
+    }
+
+    private synchronized int takeSubscriberIndex() {
+        return nextSubscriberIndex++;
+    }
+
+    private Consumer<String, byte[]> createConsumer(boolean subscribing, int index) {
+        // Only members that subscribe to the topic take part in group membership
+        Map<String, Object> staticMemberProperties = subscribing ? getStaticMemberProperties(index) : null;
+        Consumer<String, byte[]> consumer = null;
+        // The warmed up consumer does not have the properties of a static member
+        if (staticMemberProperties == null && clientWarmer != null) {
+            consumer = clientWarmer.takeConsumer();
+        }
+        if (consumer == null) {
+            if (clientWarmer != null) {
+                // The warmed up consumer would only be taken by a later subscriber so it is not worth keeping open
+                clientWarmer.discardConsumer();
+            }
+            consumer = newConsumer(staticMemberProperties != null ? staticMemberProperties : consumerProperties);
+        }
+        export(consumer);
+        return consumer;
+    }
+
+    private KafkaSubscriber createSubscriber(Consumer<String, byte[]> consumer) {
+        // Is autocommit on
+        boolean enableAutoCommit = Boolean.parseBoolean(config.getAs(KafkaConfig.ENABLE_AUTO_COMMIT, String.class));
+
+        Number maxUnackedMessages = config.getAs(KafkaConfig.MAX_UNCOMMITTED_MESSAGES, Number.class);
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, maxUnackedMessages.intValue(), !enableAutoCommit);
+        setLimits(subscriber);
+        subscriber.setStartPosition(startPosition, startLookbackMS);
+        subscriber.setRecordTTL(recordTTLMS, signalTTLMS);
+        subscriber.setCloseTimeout(closeTimeout);
+        subscriber.setMetrics(metrics);
+        if (dedupEnabled) {
+            subscriber.setDuplicateFilter(new DuplicateFilter(dedupMaxEntries, dedupTTLMS));
+        }
+        if (deadLetterTopicName != null) {
+            subscriber.setDeadLetterSink(new TopicDeadLetterSink(getDeadLetterProducer(), deadLetterTopicName));
+        } else if (deadLetterFile != null) {
+            subscriber.setDeadLetterSink(new FileDeadLetterSink(Paths.get(deadLetterFile)));
+        }
+        subscribers.add(new WeakReference<>(subscriber));
+        return subscriber;
+    }
+
+    private synchronized TopicDeadLetterSink.SharedProducer getDeadLetterProducer() {
+        if (deadLetterProducer == null) {
+            Map<String, Object> properties = throughputProducerProperties;
+            deadLetterProducer = new TopicDeadLetterSink.SharedProducer(() -> {
+                Producer<String, byte[]> producer = newProducer(properties);
+                export(producer);
+                return producer;
+            });
+        }
+        return deadLetterProducer;
+    }
+
+    private void setLimits(KafkaSubscriber subscriber) {
         // Get the PubSub Consumer specific properties
         Number maxUnackedMessages = config.getAs(KafkaConfig.MAX_UNCOMMITTED_MESSAGES, Number.class);
+        boolean rateLimitEnable = config.getAs(KafkaConfig.RATE_LIMIT_ENABLE, Boolean.class);
+        if (!rateLimitEnable) {
+            subscriber.setLimits(maxUnackedMessages.intValue(), false, 0, 0L);
+            return;
+        }
         Number rateLimitMaxMessages = config.getAs(KafkaConfig.RATE_LIMIT_MAX_MESSAGES, Number.class);
         Number rateLimitIntervalMS = config.getAs(KafkaConfig.RATE_LIMIT_INTERVAL_MS, Number.class);
-        boolean rateLimitEnable = config.getAs(KafkaConfig.RATE_LIMIT_ENABLE, Boolean.class);
+        subscriber.setLimits(maxUnackedMessages.intValue(), true, rateLimitMaxMessages.intValue(), rateLimitIntervalMS.longValue());
+    }
 
-        // Is autocommit on
-        boolean enableAutoCommit = Boolean.parseBoolean(config.getAs(KafkaConfig.ENABLE_AUTO_COMMIT, String.class));
+    private static <T> List<T> getLive(List<WeakReference<T>> references) {
+        references.removeIf(reference -> reference.get() == null);
+        List<T> live = new ArrayList<>();
+        for (WeakReference<T> reference : references) {
+            T instance = reference.get();
+            if (instance != null) {
+                live.add(instance);
+            }
+        }
+        return live;
+    }
 
-        KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(consumerProperties);
-        // Subscribe to the topic if partitions are not set in the config.
-        if (partitions == null) {
-            consumer.subscribe(Collections.singleton(topicName));
-        } else {
-            consumer.assign(partitions);
+    private void export(Producer<?, ?> producer) {
+        if (clientMetricsExporter != null) {
+            clientMetricsExporter.register(producer, context.name().toLowerCase());
         }
-        if (rateLimitEnable) {
-            return new KafkaSubscriber(consumer, maxUnackedMessages.intValue(), rateLimitMaxMessages.intValue(),
-                                       rateLimitIntervalMS.longValue(), !enableAutoCommit);
+    }
+
+    private void export(Consumer<?, ?> consumer) {
+        if (clientMetricsExporter != null) {
+            clientMetricsExporter.register(consumer, context.name().toLowerCase());
         }
-        return new KafkaSubscriber(consumer, maxUnackedMessages.intValue(), !enableAutoCommit);
     }
 
-    private KafkaProducer<String, byte[]> getDummyProducer() {
-        return new KafkaProducer<>(producerProperties);
+    private static Map<String, Object> withoutProfiles(Map<String, Object> properties) {
+        Map<String, Object> base = new HashMap<>();
+        properties.forEach((key, value) -> {
+            if (!key.startsWith(KafkaConfig.LATENCY_PROFILE) && !key.startsWith(KafkaConfig.THROUGHPUT_PROFILE)) {
+                base.put(key, value);
+            }
+        });
+        return base;
+    }
+
+    private static Map<String, Object> withProfile(Map<String, Object> properties, Map<String, Object> commonProperties,
+                                                   String profile) {
+        Map<String, Object> profiled = withoutProfiles(properties);
+        properties.forEach((key, value) -> {
+            if (key.startsWith(profile)) {
+                profiled.put(key.substring(profile.length()), value);
+            }
+        });
+        profiled.putAll(commonProperties);
+        return profiled;
+    }
+
+    private Producer<String, byte[]> getDummyProducer() {
+        return newProducer(producerProperties);
+    }
+
+    /**
+     * Creates a producer with the given properties. Every producer that this creates goes through here.
+     *
+     * @param properties The {@link Map} of producer properties.
+     * @return A {@link KafkaProducer}.
+     */
+    Producer<String, byte[]> newProducer(Map<String, Object> properties) {
+        return new KafkaProducer<>(properties);
+    }
+
+    /**
+     * Creates a consumer with the given properties. Every consumer that this creates goes through here.
+     *
+     * @param properties The {@link Map} of consumer properties.
+     * @return A {@link KafkaConsumer}.
+     */
+    Consumer<String, byte[]> newConsumer(Map<String, Object> properties) {
+        return new KafkaConsumer<>(properties);
     }
 }
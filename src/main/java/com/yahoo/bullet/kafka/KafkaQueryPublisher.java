@@ -9,23 +9,75 @@ import com.yahoo.bullet.common.SerializerDeserializer;
 import com.yahoo.bullet.pubsub.PubSubException;
 import com.yahoo.bullet.pubsub.PubSubMessage;
 import com.yahoo.bullet.pubsub.Publisher;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
-import org.apache.kafka.clients.producer.KafkaProducer;
+import lombok.Setter;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Headers;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.UUID;
 
 import static com.yahoo.bullet.kafka.KafkaMetadata.getPartition;
 import static com.yahoo.bullet.kafka.KafkaMetadata.setRouteData;
 
-@Getter @RequiredArgsConstructor
+@Getter
 public class KafkaQueryPublisher implements Publisher {
-    private final KafkaProducer<String, byte[]> producer;
-    private final List<TopicPartition> writePartitions;
-    private final List<TopicPartition> receivePartitions;
-    private final boolean partitionRoutingEnabled;
+    private final Producer<String, byte[]> producer;
+    // Can change when the PubSub is reconfigured
+    @Setter
+    private volatile List<TopicPartition> writePartitions;
+    // Can change when the response partitions are claimed through the consumer group
+    @Setter
+    private volatile List<TopicPartition> receivePartitions;
+    @Setter
+    private volatile boolean partitionRoutingEnabled;
+    // How long to wait for the pending messages to be sent on close or null to wait for as long as it takes
+    private final Duration closeTimeout;
+    // Numbers the messages for the duplicate filter of the subscribers or null when they do not filter duplicates
+    @Getter(AccessLevel.PACKAGE) @Setter
+    private KafkaHeaders.Sequencer sequencer;
+    @Setter
+    private KafkaMetrics metrics = KafkaMetrics.NONE;
+    // Whether to start a trace for each query that is carried to its results
+    @Setter
+    private boolean traceEnabled = false;
+
+    /**
+     * Creates a KafkaQueryPublisher that waits for as long as it takes to send the pending messages when it is closed.
+     *
+     * @param producer The {@link Producer} to send queries with.
+     * @param writePartitions The {@link List} of {@link TopicPartition} to write queries to or null for all of them.
+     * @param receivePartitions The {@link List} of {@link TopicPartition} to route the results to.
+     * @param partitionRoutingEnabled Whether the results should be routed to the receive partitions.
+     */
+    public KafkaQueryPublisher(Producer<String, byte[]> producer, List<TopicPartition> writePartitions,
+                               List<TopicPartition> receivePartitions, boolean partitionRoutingEnabled) {
+        this(producer, writePartitions, receivePartitions, partitionRoutingEnabled, null);
+    }
+
+    /**
+     * Creates a KafkaQueryPublisher.
+     *
+     * @param producer The {@link Producer} to send queries with.
+     * @param writePartitions The {@link List} of {@link TopicPartition} to write queries to or null for all of them.
+     * @param receivePartitions The {@link List} of {@link TopicPartition} to route the results to.
+     * @param partitionRoutingEnabled Whether the results should be routed to the receive partitions.
+     * @param closeTimeout The maximum {@link Duration} to wait for the pending messages to be sent on close or null to
+     *                     wait for as long as it takes.
+     */
+    public KafkaQueryPublisher(Producer<String, byte[]> producer, List<TopicPartition> writePartitions,
+                               List<TopicPartition> receivePartitions, boolean partitionRoutingEnabled,
+                               Duration closeTimeout) {
+        this.producer = producer;
+        this.writePartitions = writePartitions;
+        this.receivePartitions = receivePartitions;
+        this.partitionRoutingEnabled = partitionRoutingEnabled;
+        this.closeTimeout = closeTimeout;
+    }
 
     @Override
     public PubSubMessage send(PubSubMessage message) throws PubSubException {
@@ -33,15 +85,28 @@ public class KafkaQueryPublisher implements Publisher {
         if (partitionRoutingEnabled) {
             setRouteData(receivePartitions, message);
         }
-        producer.send(new ProducerRecord<>(requestPartition.topic(),
-                                           requestPartition.partition(),
-                                           message.getId(),
-                                           SerializerDeserializer.toBytes(message)));
+        long start = System.nanoTime();
+        byte[] value = SerializerDeserializer.toBytes(message);
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(requestPartition.topic(), requestPartition.partition(), null,
+                                                                     message.getId(), value);
+        Headers headers = KafkaHeaders.add(record.headers(), message, sequencer);
+        if (traceEnabled) {
+            KafkaHeaders.addTrace(headers, UUID.randomUUID().toString(), System.currentTimeMillis());
+        }
+        metrics.recordSend(requestPartition, value.length, System.nanoTime() - start);
+        producer.send(record);
         return message;
     }
 
+    /**
+     * Closes the producer after sending the pending messages or after the close timeout, whichever is first.
+     */
     @Override
     public void close() {
-        producer.close();
+        if (closeTimeout == null) {
+            producer.close();
+        } else {
+            producer.close(closeTimeout);
+        }
     }
 }
@@ -6,38 +6,98 @@
 package com.yahoo.bullet.kafka;
 
 import com.yahoo.bullet.common.SerializerDeserializer;
+import com.yahoo.bullet.pubsub.Metadata;
 import com.yahoo.bullet.pubsub.PubSubException;
 import com.yahoo.bullet.pubsub.PubSubMessage;
 import com.yahoo.bullet.pubsub.Publisher;
-import lombok.RequiredArgsConstructor;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Headers;
 
+import java.time.Duration;
 import java.util.List;
 
 import static com.yahoo.bullet.kafka.KafkaMetadata.getPartition;
 import static com.yahoo.bullet.kafka.KafkaMetadata.getRouteInfo;
 
-@Slf4j @RequiredArgsConstructor
+@Slf4j
 public class KafkaResponsePublisher implements Publisher {
-    private final KafkaProducer<String, byte[]> producer;
-    private final List<TopicPartition> writePartitions;
-    private final boolean partitionRoutingEnabled;
+    private final Producer<String, byte[]> producer;
+    // Can change when the PubSub is reconfigured
+    @Setter
+    private volatile List<TopicPartition> writePartitions;
+    @Setter
+    private volatile boolean partitionRoutingEnabled;
+    // How long to wait for the pending messages to be sent on close or null to wait for as long as it takes
+    private final Duration closeTimeout;
+    // Numbers the messages for the duplicate filter of the subscribers or null when they do not filter duplicates
+    @Getter(AccessLevel.PACKAGE) @Setter
+    private KafkaHeaders.Sequencer sequencer;
+    @Setter
+    private KafkaMetrics metrics = KafkaMetrics.NONE;
+
+    /**
+     * Creates a KafkaResponsePublisher that waits for as long as it takes to send the pending messages when it is
+     * closed.
+     *
+     * @param producer The {@link Producer} to send results with.
+     * @param writePartitions The {@link List} of {@link TopicPartition} to write results to if they are not routed.
+     * @param partitionRoutingEnabled Whether the results should be sent to the partitions routed in their metadata.
+     */
+    public KafkaResponsePublisher(Producer<String, byte[]> producer, List<TopicPartition> writePartitions,
+                                  boolean partitionRoutingEnabled) {
+        this(producer, writePartitions, partitionRoutingEnabled, null);
+    }
+
+    /**
+     * Creates a KafkaResponsePublisher.
+     *
+     * @param producer The {@link Producer} to send results with.
+     * @param writePartitions The {@link List} of {@link TopicPartition} to write results to if they are not routed.
+     * @param partitionRoutingEnabled Whether the results should be sent to the partitions routed in their metadata.
+     * @param closeTimeout The maximum {@link Duration} to wait for the pending messages to be sent on close or null to
+     *                     wait for as long as it takes.
+     */
+    public KafkaResponsePublisher(Producer<String, byte[]> producer, List<TopicPartition> writePartitions,
+                                  boolean partitionRoutingEnabled, Duration closeTimeout) {
+        this.producer = producer;
+        this.writePartitions = writePartitions;
+        this.partitionRoutingEnabled = partitionRoutingEnabled;
+        this.closeTimeout = closeTimeout;
+    }
 
     @Override
     public PubSubMessage send(PubSubMessage message) throws PubSubException {
         TopicPartition responsePartition = partitionRoutingEnabled ? getRouteInfo(message) : getPartition(writePartitions, message);
-        producer.send(new ProducerRecord<>(responsePartition.topic(), responsePartition.partition(),
-                                           message.getId(), SerializerDeserializer.toBytes(message)));
+        long start = System.nanoTime();
+        byte[] value = SerializerDeserializer.toBytes(message);
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(responsePartition.topic(), responsePartition.partition(), null,
+                                                                     message.getId(), value);
+        Headers headers = KafkaHeaders.add(record.headers(), message, sequencer);
+        Metadata metadata = message.getMetadata();
+        if (metadata instanceof KafkaMetadata && ((KafkaMetadata) metadata).hasTrace()) {
+            KafkaHeaders.addTrace(headers, (KafkaMetadata) metadata, System.currentTimeMillis());
+        }
+        metrics.recordSend(responsePartition, value.length, System.nanoTime() - start);
+        producer.send(record);
         return message;
     }
 
-
+    /**
+     * Closes the producer after sending the pending messages or after the close timeout, whichever is first.
+     */
     @Override
     public void close() {
-        producer.close();
+        if (closeTimeout == null) {
+            producer.close();
+        } else {
+            producer.close(closeTimeout);
+        }
     }
 }
 
@@ -7,87 +7,679 @@ package com.yahoo.bullet.kafka;
 
 import com.yahoo.bullet.common.SerializerDeserializer;
 import com.yahoo.bullet.pubsub.BufferingSubscriber;
+import com.yahoo.bullet.pubsub.Metadata;
 import com.yahoo.bullet.pubsub.PubSubException;
 import com.yahoo.bullet.pubsub.PubSubMessage;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
 
 import java.time.Duration;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * A {@link BufferingSubscriber} that reads from a {@link Consumer}. If the consumer subscribes to topics instead
+ * of being assigned partitions, pass this subscriber as the {@link ConsumerRebalanceListener} to
+ * {@link Consumer#subscribe(Collection, ConsumerRebalanceListener)}. If this subscriber commits manually, it
+ * then commits the acknowledged offsets of partitions that are revoked and drops the messages it is holding for them,
+ * while messages for the partitions it still owns are unaffected. A number of KafkaSubscriber instances can also share
+ * a consumer through a {@link ConsumerMultiplexer}.
+ */
 @Slf4j
-public class KafkaSubscriber extends BufferingSubscriber {
+public class KafkaSubscriber extends BufferingSubscriber implements ConsumerRebalanceListener {
+    /**
+     * Where to start reading the partitions that this subscriber is first given.
+     */
+    public enum StartPosition {
+        // Continue from the committed offsets
+        COMMITTED,
+        // Skip to the end of the partitions
+        LATEST,
+        // Skip the records older than a lookback from now
+        TIMESTAMP;
+
+        /**
+         * Gets the StartPosition for a name in {@link KafkaConfig#START_POSITION}.
+         *
+         * @param name The name of the start position.
+         * @return The StartPosition.
+         */
+        public static StartPosition from(String name) {
+            return valueOf(name.toUpperCase());
+        }
+    }
+
     @Getter(AccessLevel.PACKAGE) @Setter(AccessLevel.PACKAGE)
-    private KafkaConsumer<String, byte[]> consumer;
+    private Consumer<String, byte[]> consumer;
     private boolean manualCommit;
+    private final OffsetTracker offsets = new OffsetTracker();
+    // Another listener to notify of rebalances after this has handled them
+    @Setter
+    private ConsumerRebalanceListener rebalanceListener;
+    private StartPosition startPosition = StartPosition.COMMITTED;
+    private long startLookbackMS;
+    private boolean started = false;
+    private long recordTTLMS = 0L;
+    private long signalTTLMS = 0L;
+    // The number of records dropped for being older than their TTL
+    @Getter
+    private long expiredCount = 0L;
+    // If set, the records that cannot be read are sent here
+    @Getter(AccessLevel.PACKAGE)
+    private DeadLetterSink deadLetterSink;
+    // The number of records that could not be read
+    @Getter
+    private long unreadableCount = 0L;
+    // The records that the dead letter sink is done with, which are released the next time the lock is held
+    private final Queue<Map.Entry<TopicPartition, Long>> storedDeadLetters = new ConcurrentLinkedQueue<>();
+    // If set, records that were already seen are dropped
+    @Getter(AccessLevel.PACKAGE)
+    private DuplicateFilter duplicateFilter;
+    // The number of records dropped as duplicates
+    @Getter
+    private long duplicateCount = 0L;
+    // If set, the consumer is shared and only used while holding the lock on the multiplexer
+    private ConsumerMultiplexer multiplexer;
+    private Object lock = this;
+    // How long the next poll may block for, which is only non-zero during a long poll
+    private long pollTimeoutMS = 0L;
+    // The serialized sizes of the messages that are not yet committed, by id
+    private final Map<String, Integer> messageSizes = new HashMap<>();
+    // Whether reading new records is paused
+    @Getter
+    private volatile boolean paused = false;
+    // How long to wait for the final commit and for leaving the group on close or null for the consumer defaults
+    @Getter(AccessLevel.PACKAGE) @Setter
+    private Duration closeTimeout;
+    @Setter
+    private KafkaMetrics metrics = KafkaMetrics.NONE;
+    // The limits are enforced here instead of by the BufferingSubscriber so that they can be changed while in use
+    @Getter(AccessLevel.PACKAGE)
+    private int maxUncommitted;
+    private boolean rateLimited = false;
+    private int rateLimitMessages;
+    private long rateLimitWindowMS;
+    // The start and the number of messages received so far of the current rate limit interval
+    private long windowStart = 0L;
+    private int windowCount = 0;
 
     /**
-     * Creates a KafkaSubscriber using a {@link KafkaConsumer}.
+     * Creates a KafkaSubscriber using a {@link Consumer}.
      *
-     * @param consumer The {@link KafkaConsumer} to read data from.
+     * @param consumer The {@link Consumer} to read data from.
      * @param maxUncommittedMessages The maximum number of messages that can be received before a commit is needed.
      * @param manualCommit Should this subscriber commit its offsets manually.
      */
-    public KafkaSubscriber(KafkaConsumer<String, byte[]> consumer, int maxUncommittedMessages, boolean manualCommit) {
-        super(maxUncommittedMessages);
+    public KafkaSubscriber(Consumer<String, byte[]> consumer, int maxUncommittedMessages, boolean manualCommit) {
+        super(Integer.MAX_VALUE);
         this.consumer = consumer;
         this.manualCommit = manualCommit;
+        this.maxUncommitted = maxUncommittedMessages;
     }
 
     /**
      *
-     * Creates a KafkaSubscriber using a {@link KafkaConsumer} that does not manually commit.
+     * Creates a KafkaSubscriber using a {@link Consumer} that does not manually commit.
      *
-     * @param consumer The {@link KafkaConsumer} to read data from.
+     * @param consumer The {@link Consumer} to read data from.
      * @param maxUncommittedMessages The maximum number of messages that can be received before a commit is needed.
      */
-    public KafkaSubscriber(KafkaConsumer<String, byte[]> consumer, int maxUncommittedMessages) {
+    public KafkaSubscriber(Consumer<String, byte[]> consumer, int maxUncommittedMessages) {
         this(consumer, maxUncommittedMessages, false);
     }
 
     /**
-     * Creates a rate-limited KafkaSubscriber using a {@link KafkaConsumer}.
+     * Creates a rate-limited KafkaSubscriber using a {@link Consumer}.
      *
-     * @param consumer The {@link KafkaConsumer} to read data from.
+     * @param consumer The {@link Consumer} to read data from.
      * @param maxUncommittedMessages The maximum number of messages that can be received before a commit is needed.
      * @param rateLimitMaxMessages The maximum number of messages that will be read in a rate limit interval.
      * @param rateLimitIntervalMS The duration of a rate limit interval in milliseconds.
      * @param manualCommit Should this subscriber commit its offsets manually.
      */
-    public KafkaSubscriber(KafkaConsumer<String, byte[]> consumer, int maxUncommittedMessages, int rateLimitMaxMessages,
+    public KafkaSubscriber(Consumer<String, byte[]> consumer, int maxUncommittedMessages, int rateLimitMaxMessages,
                            long rateLimitIntervalMS, boolean manualCommit) {
-        super(maxUncommittedMessages, rateLimitMaxMessages, rateLimitIntervalMS);
-        this.consumer = consumer;
-        this.manualCommit = manualCommit;
+        this(consumer, maxUncommittedMessages, manualCommit);
+        this.rateLimited = true;
+        this.rateLimitMessages = rateLimitMaxMessages;
+        this.rateLimitWindowMS = rateLimitIntervalMS;
     }
 
     @Override
-    public List<PubSubMessage> getMessages() throws PubSubException {
-        ConsumerRecords<String, byte[]> buffer;
-        try {
-            buffer = consumer.poll(Duration.ZERO);
-        } catch (KafkaException e) {
-            throw new PubSubException("Consumer poll failed.", e);
+    public PubSubMessage receive() throws PubSubException {
+        synchronized (lock) {
+            if (uncommittedMessages.size() >= maxUncommitted) {
+                log.warn("Reached limit of max uncommitted messages: {}. Waiting for commits to proceed.", maxUncommitted);
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (rateLimited && now < windowStart + rateLimitWindowMS && windowCount >= rateLimitMessages) {
+                log.warn("Reached rate limit of max {} messages every {} ms.", rateLimitMessages, rateLimitWindowMS);
+                return null;
+            }
+            PubSubMessage message = super.receive();
+            if (message != null && rateLimited) {
+                if (now < windowStart + rateLimitWindowMS) {
+                    windowCount++;
+                } else {
+                    windowStart = now;
+                    windowCount = 1;
+                }
+            }
+            return message;
         }
+    }
+
+    /**
+     * Receives up to a number of messages, waiting up to a maximum time for the first one. As soon as a message is
+     * available, this returns it along with the others that are already available, up to the given limits. The consumer
+     * is held while waiting, so acknowledgements from other threads wait as well. If the consumer is shared through a
+     * {@link ConsumerMultiplexer}, it is released whenever records arrive for the other views so they can take them.
+     * Like {@link #receive()}, this returns fewer messages if the rate limit or the maximum number of uncommitted
+     * messages is reached.
+     *
+     * @param maxMessages The maximum number of messages to return.
+     * @param maxWaitMS The maximum time in milliseconds to wait for a message.
+     * @param maxBytes The budget for the total serialized size of the returned messages. The message that goes over it
+     *                 is still returned.
+     * @return A {@link List} of {@link PubSubMessage} that is empty if none arrived in time.
+     * @throws PubSubException if the consumer poll fails before any message was read. If it fails after, the messages
+     *                         read so far are returned.
+     */
+    public List<PubSubMessage> receive(int maxMessages, long maxWaitMS, long maxBytes) throws PubSubException {
         List<PubSubMessage> messages = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + maxWaitMS;
+        long bytes = 0L;
+        synchronized (lock) {
+            while (messages.size() < maxMessages && bytes < maxBytes) {
+                long remaining = deadline - System.currentTimeMillis();
+                // Only wait until the first message so that messages are returned as soon as they arrive
+                pollTimeoutMS = messages.isEmpty() ? Math.max(remaining, 0L) : 0L;
+                PubSubMessage message;
+                try {
+                    message = receive();
+                } catch (PubSubException e) {
+                    if (messages.isEmpty()) {
+                        throw e;
+                    }
+                    // The messages read so far are already handed out and would never be returned otherwise
+                    log.warn("Returning the {} messages read before the consumer poll failed.", messages.size(), e);
+                    break;
+                }
+                boolean polled = pollTimeoutMS == 0L;
+                pollTimeoutMS = 0L;
+                if (message != null) {
+                    messages.add(message);
+                    bytes += messageSizes.getOrDefault(message.getId(), 0);
+                } else if (!messages.isEmpty() || remaining <= 0 || !polled) {
+                    // Done or the consumer was not polled because of the limits
+                    break;
+                }
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public List<PubSubMessage> getMessages() throws PubSubException {
+        Duration timeout = Duration.ofMillis(pollTimeoutMS);
+        pollTimeoutMS = 0L;
+        releaseStoredDeadLetters();
+        long start = System.nanoTime();
+        Iterable<ConsumerRecord<String, byte[]>> buffer = multiplexer != null ? multiplexer.fetch(this, timeout) : poll(timeout);
+        long pollNanos = System.nanoTime() - start;
+        int polled = 0;
+        List<PubSubMessage> messages = new ArrayList<>();
+        long now = System.currentTimeMillis();
         for (ConsumerRecord<String, byte[]> record : buffer) {
-            messages.add(SerializerDeserializer.fromBytes(record.value()));
+            polled++;
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            if (isExpired(record, now)) {
+                expiredCount++;
+                drop(partition, record.offset(), KafkaMetrics.DropReason.EXPIRED);
+                continue;
+            }
+            if (isDuplicate(record, partition, now)) {
+                duplicateCount++;
+                drop(partition, record.offset(), KafkaMetrics.DropReason.DUPLICATE);
+                continue;
+            }
+            start = System.nanoTime();
+            PubSubMessage message = decode(record, partition);
+            if (message == null) {
+                unreadableCount++;
+                drop(partition, record.offset(), KafkaMetrics.DropReason.UNREADABLE);
+                continue;
+            }
+            metrics.recordReceive(partition, record.value().length, System.nanoTime() - start);
+            trace(record, message, now);
+            messageSizes.merge(message.getId(), record.value().length, Integer::sum);
+            if (manualCommit) {
+                offsets.track(message.getId(), partition, record.offset());
+            }
+            messages.add(message);
         }
+        metrics.recordPoll(polled, pollNanos);
         if (manualCommit) {
-            consumer.commitAsync();
+            commitAsync(offsets.getCommittable());
         }
         return messages;
     }
 
+    /**
+     * Commits a message. If this subscriber commits manually, this acknowledges the oldest record that was read for the
+     * id and not yet acknowledged, so a message that was read more than once (such as a query and its kill) needs to be
+     * committed once for each time it was received.
+     *
+     * @param id The id of the message to commit.
+     */
+    @Override
+    public void commit(String id) {
+        synchronized (lock) {
+            super.commit(id);
+            messageSizes.remove(id);
+            if (manualCommit) {
+                offsets.ack(id);
+            }
+        }
+    }
+
+    @Override
+    public void fail(String id) {
+        synchronized (lock) {
+            super.fail(id);
+        }
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        if (manualCommit) {
+            Map<TopicPartition, OffsetAndMetadata> committable = offsets.getCommittable(partitions);
+            try {
+                if (!committable.isEmpty()) {
+                    consumer.commitSync(committable);
+                }
+            } catch (KafkaException e) {
+                log.warn("Could not commit offsets {} for revoked partitions.", committable, e);
+            }
+            drop(partitions);
+        }
+        if (rebalanceListener != null) {
+            rebalanceListener.onPartitionsRevoked(partitions);
+        }
+    }
+
+    @Override
+    public void onPartitionsLost(Collection<TopicPartition> partitions) {
+        // These are already owned by another consumer so nothing can be committed for them
+        if (manualCommit) {
+            drop(partitions);
+        }
+        if (rebalanceListener != null) {
+            rebalanceListener.onPartitionsLost(partitions);
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        if (!started && !partitions.isEmpty()) {
+            seekToStart(partitions);
+            started = true;
+        }
+        if (paused && multiplexer == null) {
+            consumer.pause(partitions);
+        }
+        if (rebalanceListener != null) {
+            rebalanceListener.onPartitionsAssigned(partitions);
+        }
+    }
+
+    /**
+     * Commits the offsets of the messages that were committed so far, closes the consumer (which leaves the group if
+     * this subscribes to the topic) and closes the {@link DeadLetterSink} if there is one. Messages that were received
+     * but not committed are read again by whoever reads their partitions next. If a close timeout is set, committing
+     * and closing the consumer each wait for at most that long.
+     */
     @Override
     public void close() {
-        consumer.close();
+        synchronized (lock) {
+            if (manualCommit) {
+                releaseStoredDeadLetters();
+                commitSync(offsets.getCommittable());
+            }
+            if (multiplexer != null) {
+                multiplexer.close(this, closeTimeout);
+            } else if (closeTimeout == null) {
+                consumer.close();
+            } else {
+                consumer.close(closeTimeout);
+            }
+        }
+        if (deadLetterSink != null) {
+            deadLetterSink.close();
+        }
+    }
+
+    /**
+     * Sets where this subscriber starts reading the partitions it is first assigned. If the partitions are assigned
+     * manually instead of through a subscription, call {@link #onPartitionsAssigned(Collection)} with them after.
+     *
+     * @param startPosition The {@link StartPosition} to use.
+     * @param lookbackMS The lookback in milliseconds from now to start from for {@link StartPosition#TIMESTAMP}.
+     */
+    public void setStartPosition(StartPosition startPosition, long lookbackMS) {
+        this.startPosition = startPosition;
+        this.startLookbackMS = lookbackMS;
+    }
+
+    /**
+     * Sets the maximum age of the records that this subscriber reads. Older records are dropped without being
+     * deserialized but still count as committed.
+     *
+     * @param recordTTLMS The maximum age in milliseconds of records or a non-positive value to keep all of them.
+     * @param signalTTLMS The maximum age in milliseconds of records that only carry a signal or a non-positive value to
+     *                    keep all of them.
+     */
+    public void setRecordTTL(long recordTTLMS, long signalTTLMS) {
+        this.recordTTLMS = recordTTLMS;
+        this.signalTTLMS = signalTTLMS;
+    }
+
+    /**
+     * Changes the limits on the messages this subscriber hands out. They take effect on the next receive and messages
+     * that were already received are not affected. Lowering the maximum number of uncommitted messages below the number
+     * currently uncommitted makes this wait for commits until it is under it again.
+     *
+     * @param maxUncommittedMessages The maximum number of messages that can be received before a commit is needed.
+     * @param rateLimitEnable Whether the messages are rate limited.
+     * @param rateLimitMaxMessages The maximum number of messages that will be read in a rate limit interval.
+     * @param rateLimitIntervalMS The duration of a rate limit interval in milliseconds.
+     */
+    public void setLimits(int maxUncommittedMessages, boolean rateLimitEnable, int rateLimitMaxMessages,
+                          long rateLimitIntervalMS) {
+        synchronized (lock) {
+            maxUncommitted = maxUncommittedMessages;
+            if (!rateLimited && rateLimitEnable) {
+                // Start a new interval rather than count the messages received while not rate limited
+                windowStart = 0L;
+                windowCount = 0;
+            }
+            rateLimited = rateLimitEnable;
+            rateLimitMessages = rateLimitMaxMessages;
+            rateLimitWindowMS = rateLimitIntervalMS;
+        }
+    }
+
+    /**
+     * Sets a {@link DeadLetterSink} for the records that cannot be turned into messages. Either way, such records are
+     * skipped and count as committed, though not before the sink has stored them. The sink is closed with this
+     * subscriber.
+     *
+     * @param deadLetterSink The {@link DeadLetterSink} to use or null to only log the records.
+     */
+    public void setDeadLetterSink(DeadLetterSink deadLetterSink) {
+        synchronized (lock) {
+            this.deadLetterSink = deadLetterSink;
+        }
+    }
+
+    /**
+     * Sets a {@link DuplicateFilter} to drop the records that were already read without deserializing them. Only records
+     * with a {@link KafkaHeaders#SEQUENCE} header are checked. Dropped records still count as committed.
+     *
+     * @param duplicateFilter The {@link DuplicateFilter} to use or null to keep all records.
+     */
+    public void setDuplicateFilter(DuplicateFilter duplicateFilter) {
+        synchronized (lock) {
+            this.duplicateFilter = duplicateFilter;
+        }
+    }
+
+    /**
+     * Stops reading new records from the partitions of this subscriber. Messages that were already read can still be
+     * received and the consumer is still polled on {@link #receive()} so that it stays in its group.
+     */
+    public void pause() {
+        synchronized (lock) {
+            paused = true;
+            // The multiplexer pauses the partitions of its views when it next polls
+            if (multiplexer == null) {
+                consumer.pause(consumer.assignment());
+            }
+        }
+    }
+
+    /**
+     * Resumes reading new records after {@link #pause()}.
+     */
+    public void resume() {
+        synchronized (lock) {
+            paused = false;
+            if (multiplexer == null) {
+                consumer.resume(consumer.assignment());
+            }
+        }
+    }
+
+    /**
+     * Makes this subscriber a view of a {@link ConsumerMultiplexer} that polls its consumer for it.
+     *
+     * @param multiplexer The {@link ConsumerMultiplexer} that shares the consumer.
+     */
+    void setMultiplexer(ConsumerMultiplexer multiplexer) {
+        this.multiplexer = multiplexer;
+        this.lock = multiplexer;
+    }
+
+    /**
+     * Gets the offsets to read the given partitions again from so that the records this read but that were not committed
+     * are read again. This is only known if this commits manually.
+     *
+     * @param partitions The {@link Collection} of {@link TopicPartition} to get offsets for.
+     * @return A {@link Map} of {@link TopicPartition} to offset, which may not have all the partitions.
+     */
+    Map<TopicPartition, Long> getUncommittedOffsets(Collection<TopicPartition> partitions) {
+        synchronized (lock) {
+            return manualCommit ? offsets.getUnacknowledged(partitions) : new HashMap<>();
+        }
+    }
+
+    private ConsumerRecords<String, byte[]> poll(Duration timeout) throws PubSubException {
+        try {
+            return consumer.poll(timeout);
+        } catch (KafkaException e) {
+            throw new PubSubException("Consumer poll failed.", e);
+        }
+    }
+
+    private boolean isExpired(ConsumerRecord<String, byte[]> record, long now) {
+        if ((recordTTLMS <= 0 && signalTTLMS <= 0) || record.timestamp() < 0) {
+            return false;
+        }
+        long ttl = KafkaHeaders.isSignal(record) ? signalTTLMS : recordTTLMS;
+        return ttl > 0 && now - record.timestamp() > ttl;
+    }
+
+    private PubSubMessage decode(ConsumerRecord<String, byte[]> record, TopicPartition partition) {
+        String reason;
+        try {
+            PubSubMessage message = SerializerDeserializer.fromBytes(record.value());
+            if (message != null && message.getId() != null) {
+                return message;
+            }
+            reason = "The record is not a message.";
+        } catch (RuntimeException e) {
+            reason = e.toString();
+        }
+        log.warn("Skipping the unreadable record at {}-{}@{}: {}", record.topic(), record.partition(), record.offset(), reason);
+        if (deadLetterSink != null) {
+            sendToDeadLetters(record, partition, reason);
+        }
+        return null;
+    }
+
+    private void sendToDeadLetters(ConsumerRecord<String, byte[]> record, TopicPartition partition, String reason) {
+        long offset = record.offset();
+        CompletableFuture<Void> stored;
+        try {
+            stored = deadLetterSink.send(record, reason);
+        } catch (RuntimeException e) {
+            log.error("Could not send the record at {}-{}@{} to the dead letter sink.", record.topic(),
+                      record.partition(), offset, e);
+            return;
+        }
+        if (!manualCommit) {
+            return;
+        }
+        // The record is only consumed once the sink has it (or gave up on it) so that it is read again otherwise. The
+        // sink may complete on a thread it shares with other subscribers so that thread must never wait for the lock.
+        offsets.hold(partition, offset);
+        stored.whenComplete((result, e) -> storedDeadLetters.add(new AbstractMap.SimpleImmutableEntry<>(partition, offset)));
+    }
+
+    private void releaseStoredDeadLetters() {
+        Map.Entry<TopicPartition, Long> stored;
+        while ((stored = storedDeadLetters.poll()) != null) {
+            offsets.release(stored.getKey(), stored.getValue());
+        }
+    }
+
+    private void trace(ConsumerRecord<String, byte[]> record, PubSubMessage message, long now) {
+        String traceID = KafkaHeaders.getTraceID(record);
+        if (traceID == null) {
+            return;
+        }
+        long submitTime = KafkaHeaders.getTime(record, KafkaHeaders.SUBMIT_TIME);
+        long responseTime = KafkaHeaders.getTime(record, KafkaHeaders.RESPONSE_TIME);
+        if (responseTime >= 0) {
+            // A result for a traced query
+            long receiveTime = KafkaHeaders.getTime(record, KafkaHeaders.RECEIVE_TIME);
+            metrics.recordTrace(traceID, receiveTime - submitTime, responseTime - receiveTime, now - responseTime);
+            return;
+        }
+        // A traced query. The trace is carried in the metadata that the backend sends back with its results.
+        Metadata metadata = message.getMetadata();
+        KafkaMetadata traced;
+        if (metadata instanceof KafkaMetadata) {
+            traced = (KafkaMetadata) metadata;
+        } else {
+            traced = metadata == null ? new KafkaMetadata((TopicPartition) null) : new KafkaMetadata(metadata, null);
+            message.setMetadata(traced);
+        }
+        traced.setTrace(traceID, submitTime, now);
+    }
+
+    private boolean isDuplicate(ConsumerRecord<String, byte[]> record, TopicPartition partition, long now) {
+        if (duplicateFilter == null || record.key() == null) {
+            return false;
+        }
+        byte[] sequence = KafkaHeaders.getSequence(record);
+        // The entries are grouped by partition so that a revoked partition can be forgotten without the rest
+        return sequence != null &&
+               duplicateFilter.isDuplicate(DuplicateFilter.fingerprint(record.key(), sequence), partition.hashCode(), now);
+    }
+
+    private void seekToStart(Collection<TopicPartition> partitions) {
+        if (startPosition == StartPosition.LATEST) {
+            log.info("Starting partitions {} from the latest offsets.", partitions);
+            consumer.seekToEnd(partitions);
+        } else if (startPosition == StartPosition.TIMESTAMP) {
+            try {
+                seekToTimestamp(partitions, System.currentTimeMillis() - startLookbackMS);
+            } catch (KafkaException e) {
+                log.warn("Could not seek partitions {} by time. Starting from the committed offsets.", partitions, e);
+            }
+        }
+    }
+
+    private void seekToTimestamp(Collection<TopicPartition> partitions, long timestamp) {
+        Map<TopicPartition, Long> timestamps = new HashMap<>();
+        partitions.forEach(partition -> timestamps.put(partition, timestamp));
+        Map<TopicPartition, OffsetAndTimestamp> found = consumer.offsetsForTimes(timestamps);
+        Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(new HashSet<>(partitions));
+        List<TopicPartition> noneNewer = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            OffsetAndTimestamp offset = found.get(partition);
+            OffsetAndMetadata committedOffset = committed.get(partition);
+            if (offset == null) {
+                noneNewer.add(partition);
+            } else if (committedOffset == null || committedOffset.offset() < offset.offset()) {
+                // Never go back before what was already committed
+                consumer.seek(partition, offset.offset());
+            }
+        }
+        if (!noneNewer.isEmpty()) {
+            consumer.seekToEnd(noneNewer);
+        }
+        log.info("Started partitions {} from the offsets written after {}.", partitions, timestamp);
+    }
+
+    private void commitSync(Map<TopicPartition, OffsetAndMetadata> committable) {
+        if (committable.isEmpty()) {
+            return;
+        }
+        try {
+            if (closeTimeout == null) {
+                consumer.commitSync(committable);
+            } else {
+                consumer.commitSync(committable, closeTimeout);
+            }
+            log.info("Committed offsets {} on close.", committable);
+        } catch (KafkaException e) {
+            log.warn("Could not commit offsets {} on close.", committable, e);
+        }
+    }
+
+    private void commitAsync(Map<TopicPartition, OffsetAndMetadata> committable) {
+        if (committable.isEmpty()) {
+            return;
+        }
+        consumer.commitAsync(committable, (committed, e) -> {
+            if (e != null) {
+                log.warn("Could not commit offsets {}.", committed, e);
+            }
+        });
+    }
+
+    private void drop(TopicPartition partition, long offset, KafkaMetrics.DropReason reason) {
+        metrics.recordDrop(partition, reason);
+        if (manualCommit) {
+            offsets.consumed(partition, offset);
+        }
+    }
+
+    private void drop(Collection<TopicPartition> partitions) {
+        // The new owners of these partitions will read these messages again from the last committed offsets
+        Set<String> ids = offsets.remove(partitions);
+        // The records read again must not be taken for duplicates if their partitions come back to this subscriber
+        if (duplicateFilter != null) {
+            partitions.forEach(partition -> duplicateFilter.forget(partition.hashCode()));
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        receivedMessages.removeIf(message -> ids.contains(message.getId()));
+        uncommittedMessages.keySet().removeAll(ids);
+        messageSizes.keySet().removeAll(ids);
+        log.info("Dropped the messages for {} ids held for partitions {}.", ids.size(), partitions);
     }
 }
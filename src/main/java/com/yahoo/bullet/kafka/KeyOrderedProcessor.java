@@ -0,0 +1,239 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import com.yahoo.bullet.pubsub.Subscriber;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reads messages from a {@link Subscriber} on a single thread and hands them to a fixed number of lanes that each
+ * process messages on their own thread. Messages with the same id always go to the same lane and only one message per
+ * id is processed at a time, so they are processed in the order they were read, while messages for different ids are
+ * processed in parallel regardless of the partition they came from. Later messages for an id are held here until the
+ * earlier one is done. Processed messages are committed from the reading thread. Since a {@link Subscriber} tracks
+ * uncommitted messages by id and would redeliver the latest message for an id, a failed message is not failed back to
+ * the subscriber but processed again before any later message for its id. Since the messages for an id complete in the
+ * order they were read and a {@link KafkaSubscriber} that commits manually acknowledges one record per commit, it only
+ * commits offsets below the lowest offset that is still being processed or held in each partition.
+ * <p>
+ * This is not created by {@link KafkaPubSub}. Callers that want to process messages by key wrap the subscriber they
+ * get from it themselves and must not use that subscriber while this is running.
+ */
+@Slf4j
+public class KeyOrderedProcessor implements AutoCloseable {
+    @AllArgsConstructor
+    private static class Completion {
+        private final PubSubMessage message;
+        private final boolean succeeded;
+    }
+
+    private static final long IDLE_WAIT_MS = 10L;
+
+    private final Subscriber subscriber;
+    private final Consumer<PubSubMessage> handler;
+    private final ExecutorService[] lanes;
+    private final int maxPending;
+    private final Duration closeTimeout;
+    private final BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+    // Only used by the reading thread, or by close once the reading thread has stopped. An id is present while a
+    // message for it is being processed and maps to the later messages for it that are being held.
+    private final Map<String, Deque<PubSubMessage>> held = new HashMap<>();
+    private int pending = 0;
+    private final Thread reader;
+    private volatile boolean running = false;
+
+    /**
+     * Creates a KeyOrderedProcessor. Call {@link #start()} to begin processing.
+     *
+     * @param subscriber The {@link Subscriber} to read messages from. It is only used by the reading thread.
+     * @param lanes The number of lanes to process messages in.
+     * @param maxPending The maximum number of messages that are being processed or held at a time.
+     * @param closeTimeout The maximum time to wait for the messages being processed on close.
+     * @param handler The {@link Consumer} that processes a message. If it throws, the message is processed again.
+     */
+    public KeyOrderedProcessor(Subscriber subscriber, int lanes, int maxPending, Duration closeTimeout,
+                               Consumer<PubSubMessage> handler) {
+        if (lanes <= 0) {
+            throw new IllegalArgumentException("The number of lanes must be positive: " + lanes);
+        }
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("The maximum number of pending messages must be positive: " + maxPending);
+        }
+        this.subscriber = Objects.requireNonNull(subscriber);
+        this.handler = Objects.requireNonNull(handler);
+        this.maxPending = maxPending;
+        this.closeTimeout = Objects.requireNonNull(closeTimeout);
+        this.lanes = new ExecutorService[lanes];
+        for (int i = 0; i < lanes; ++i) {
+            String name = "bullet-kafka-lane-" + i;
+            this.lanes[i] = Executors.newSingleThreadExecutor(runnable -> newThread(runnable, name));
+        }
+        this.reader = newThread(this::run, "bullet-kafka-reader");
+    }
+
+    /**
+     * Starts reading and processing messages.
+     */
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+            reader.start();
+        }
+    }
+
+    /**
+     * Stops reading messages, waits up to the close timeout for the messages being processed and commits the ones that
+     * were. Messages that are held, failed or still being processed once the timeout passes are left uncommitted and
+     * the lanes are interrupted. The subscriber is not closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        long deadline = System.nanoTime() + closeTimeout.toNanos();
+        try {
+            for (ExecutorService lane : lanes) {
+                if (!lane.awaitTermination(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    log.warn("Timed out waiting for the messages being processed after {}", closeTimeout);
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ExecutorService lane : lanes) {
+            lane.shutdownNow();
+        }
+        // The reader has stopped so the subscriber can be used from here
+        drainCompletions();
+    }
+
+    /**
+     * Gets the lane that processes the messages with the given id.
+     *
+     * @param id The id of the message.
+     * @return The index of the lane.
+     */
+    int getLane(String id) {
+        return Math.floorMod(id.hashCode(), lanes.length);
+    }
+
+    private void run() {
+        while (running) {
+            drainCompletions();
+            PubSubMessage message = null;
+            if (pending < maxPending) {
+                try {
+                    message = subscriber.receive();
+                } catch (PubSubException e) {
+                    log.error("Could not receive a message.", e);
+                }
+            }
+            if (message == null) {
+                awaitCompletion();
+            } else {
+                accept(message);
+            }
+        }
+    }
+
+    private void accept(PubSubMessage message) {
+        pending++;
+        Deque<PubSubMessage> later = held.get(message.getId());
+        if (later != null) {
+            later.add(message);
+            return;
+        }
+        held.put(message.getId(), new ArrayDeque<>());
+        dispatch(message);
+    }
+
+    private void dispatch(PubSubMessage message) {
+        String id = message.getId();
+        lanes[getLane(id)].execute(() -> {
+            boolean succeeded = true;
+            try {
+                handler.accept(message);
+            } catch (RuntimeException e) {
+                log.error("Could not process the message for id {}.", id, e);
+                succeeded = false;
+            }
+            completions.add(new Completion(message, succeeded));
+        });
+    }
+
+    private void awaitCompletion() {
+        try {
+            Completion completion = completions.poll(IDLE_WAIT_MS, TimeUnit.MILLISECONDS);
+            if (completion != null) {
+                complete(completion);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private void drainCompletions() {
+        Completion completion;
+        while ((completion = completions.poll()) != null) {
+            complete(completion);
+        }
+    }
+
+    private void complete(Completion completion) {
+        PubSubMessage message = completion.message;
+        String id = message.getId();
+        if (!completion.succeeded) {
+            // Processed again ahead of the later messages for the id unless closing, in which case it is redelivered
+            if (running) {
+                dispatch(message);
+            }
+            return;
+        }
+        subscriber.commit(id);
+        pending--;
+        Deque<PubSubMessage> later = held.get(id);
+        PubSubMessage next = later == null ? null : later.poll();
+        if (next != null && running) {
+            dispatch(next);
+        } else if (next == null) {
+            held.remove(id);
+        }
+    }
+
+    private static Thread newThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import lombok.AllArgsConstructor;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps track of the offsets of records that have been read but not yet acknowledged so that only offsets below the
+ * lowest unacknowledged offset of each partition are committed. Records are acknowledged one at a time by the id of
+ * the message they contain, oldest first, so a record that is read after another one with the same id stays pending until
+ * it is acknowledged as well. This class is not thread-safe.
+ */
+class OffsetTracker {
+    @AllArgsConstructor
+    private static class Position {
+        private final TopicPartition partition;
+        private final long offset;
+    }
+
+    private static class PartitionState {
+        private final TreeSet<Long> pending = new TreeSet<>();
+        private long next = -1L;
+        private long committed = -1L;
+
+        private long committable() {
+            return pending.isEmpty() ? next : pending.first();
+        }
+    }
+
+    private final Map<String, List<Position>> pendingByID = new HashMap<>();
+    private final Map<TopicPartition, PartitionState> partitions = new HashMap<>();
+
+    /**
+     * Starts tracking a record that has been read and is waiting to be acknowledged.
+     *
+     * @param id The id of the message in the record.
+     * @param partition The {@link TopicPartition} of the record.
+     * @param offset The offset of the record.
+     */
+    void track(String id, TopicPartition partition, long offset) {
+        PartitionState state = advance(partition, offset);
+        state.pending.add(offset);
+        pendingByID.computeIfAbsent(id, k -> new ArrayList<>()).add(new Position(partition, offset));
+    }
+
+    /**
+     * Marks a record as consumed without waiting for an acknowledgement.
+     *
+     * @param partition The {@link TopicPartition} of the record.
+     * @param offset The offset of the record.
+     */
+    void consumed(TopicPartition partition, long offset) {
+        advance(partition, offset);
+    }
+
+    /**
+     * Holds back a record that is not a message so that nothing past it is committed until it is released.
+     *
+     * @param partition The {@link TopicPartition} of the record.
+     * @param offset The offset of the record.
+     */
+    void hold(TopicPartition partition, long offset) {
+        advance(partition, offset).pending.add(offset);
+    }
+
+    /**
+     * Releases a record held back by {@link #hold(TopicPartition, long)}.
+     *
+     * @param partition The {@link TopicPartition} of the record.
+     * @param offset The offset of the record.
+     */
+    void release(TopicPartition partition, long offset) {
+        PartitionState state = partitions.get(partition);
+        if (state != null) {
+            state.pending.remove(offset);
+        }
+    }
+
+    /**
+     * Acknowledges the oldest record that is pending for a message id.
+     *
+     * @param id The id of the message.
+     */
+    void ack(String id) {
+        List<Position> positions = pendingByID.get(id);
+        if (positions == null) {
+            return;
+        }
+        Position position = positions.remove(0);
+        if (positions.isEmpty()) {
+            pendingByID.remove(id);
+        }
+        PartitionState state = partitions.get(position.partition);
+        if (state != null) {
+            state.pending.remove(position.offset);
+        }
+    }
+
+    /**
+     * Gets the offsets that can be committed and have not been returned before for all tracked partitions.
+     *
+     * @return A {@link Map} of {@link TopicPartition} to {@link OffsetAndMetadata} that may be empty.
+     */
+    Map<TopicPartition, OffsetAndMetadata> getCommittable() {
+        return getCommittable(partitions.keySet());
+    }
+
+    /**
+     * Gets the offsets that can be committed and have not been returned before for the given partitions. The returned
+     * offsets are considered committed after this call.
+     *
+     * @param topicPartitions The {@link Collection} of {@link TopicPartition} to get offsets for.
+     * @return A {@link Map} of {@link TopicPartition} to {@link OffsetAndMetadata} that may be empty.
+     */
+    Map<TopicPartition, OffsetAndMetadata> getCommittable(Collection<TopicPartition> topicPartitions) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition partition : topicPartitions) {
+            PartitionState state = partitions.get(partition);
+            if (state == null) {
+                continue;
+            }
+            long offset = state.committable();
+            if (offset > state.committed) {
+                state.committed = offset;
+                offsets.put(partition, new OffsetAndMetadata(offset));
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Gets the offsets to read the given partitions again from so that no record that was read but not acknowledged is
+     * skipped.
+     *
+     * @param topicPartitions The {@link Collection} of {@link TopicPartition} to get offsets for.
+     * @return A {@link Map} of {@link TopicPartition} to offset for the partitions that are tracked.
+     */
+    Map<TopicPartition, Long> getUnacknowledged(Collection<TopicPartition> topicPartitions) {
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        for (TopicPartition partition : topicPartitions) {
+            PartitionState state = partitions.get(partition);
+            if (state != null) {
+                offsets.put(partition, state.committable());
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Stops tracking the given partitions.
+     *
+     * @param topicPartitions The {@link Collection} of {@link TopicPartition} to stop tracking.
+     * @return The {@link Set} of message ids that had pending records in these partitions.
+     */
+    Set<String> remove(Collection<TopicPartition> topicPartitions) {
+        Set<String> ids = new HashSet<>();
+        if (topicPartitions.isEmpty()) {
+            return ids;
+        }
+        topicPartitions.forEach(partitions::remove);
+        Iterator<Map.Entry<String, List<Position>>> iterator = pendingByID.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, List<Position>> entry = iterator.next();
+            List<Position> positions = entry.getValue();
+            if (positions.removeIf(position -> topicPartitions.contains(position.partition))) {
+                ids.add(entry.getKey());
+            }
+            if (positions.isEmpty()) {
+                iterator.remove();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the number of records that are waiting to be acknowledged.
+     *
+     * @return The number of pending records.
+     */
+    int getPendingCount() {
+        return partitions.values().stream().mapToInt(state -> state.pending.size()).sum();
+    }
+
+    private PartitionState advance(TopicPartition partition, long offset) {
+        PartitionState state = partitions.get(partition);
+        if (state == null) {
+            // The first offset read from a partition is where it was already committed or positioned to
+            state = new PartitionState();
+            state.committed = offset;
+            partitions.put(partition, state);
+        }
+        state.next = Math.max(state.next, offset + 1);
+        return state;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tracks the response partitions that the consumer group has assigned to the subscribers of a QUERY_SUBMISSION
+ * {@link KafkaPubSub} and keeps the receive partitions of its {@link KafkaQueryPublisher} instances in sync with them.
+ * Since every web-service instance only routes results to partitions it currently owns, the instances end up with
+ * disjoint response partitions without a static partition list per instance.
+ */
+@Slf4j
+public class ResponsePartitionClaimer implements ConsumerRebalanceListener {
+    private static final Comparator<TopicPartition> ORDER = Comparator.comparing(TopicPartition::topic)
+                                                                      .thenComparingInt(TopicPartition::partition);
+
+    private final Set<TopicPartition> claimed = new TreeSet<>(ORDER);
+    private final List<KafkaQueryPublisher> publishers = new ArrayList<>();
+    private volatile List<TopicPartition> partitions = Collections.emptyList();
+
+    /**
+     * Registers a {@link KafkaQueryPublisher} whose receive partitions should track the claimed partitions.
+     *
+     * @param publisher The {@link KafkaQueryPublisher} to keep updated.
+     */
+    public synchronized void register(KafkaQueryPublisher publisher) {
+        publishers.add(publisher);
+        publisher.setReceivePartitions(partitions);
+    }
+
+    /**
+     * Returns the partitions currently claimed by this instance in a stable order.
+     *
+     * @return An immutable {@link List} of the claimed {@link TopicPartition}.
+     */
+    public List<TopicPartition> getPartitions() {
+        return partitions;
+    }
+
+    @Override
+    public synchronized void onPartitionsAssigned(Collection<TopicPartition> assigned) {
+        if (claimed.addAll(assigned)) {
+            update();
+        }
+    }
+
+    @Override
+    public synchronized void onPartitionsRevoked(Collection<TopicPartition> revoked) {
+        if (claimed.removeAll(revoked)) {
+            update();
+        }
+    }
+
+    private void update() {
+        partitions = Collections.unmodifiableList(new ArrayList<>(claimed));
+        log.info("Claimed response partitions are now: {}", partitions);
+        publishers.forEach(publisher -> publisher.setReceivePartitions(partitions));
+    }
+}
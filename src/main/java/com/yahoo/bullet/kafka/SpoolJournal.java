@@ -0,0 +1,308 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only journal of {@link ProducerRecord} in a memory-mapped file of a fixed size that is used as a ring. The
+ * file starts with the positions of the oldest and the next record, which are kept up to date as records are appended
+ * and removed, so the records that were not removed are read again when the file is opened after a restart. Each file
+ * is locked by the journal that uses it.
+ */
+@Slf4j
+class SpoolJournal implements AutoCloseable {
+    // The read position, the write position, the bytes used and the number of records
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+    private static final int READ_POSITION = 0;
+    private static final int WRITE_POSITION = Integer.BYTES;
+    private static final int USED_BYTES = 2 * Integer.BYTES;
+    private static final int RECORDS = 3 * Integer.BYTES;
+    // Marks the end of the records before the ring wraps around
+    private static final int WRAP = -1;
+    private static final int NONE = -1;
+    private static final String SUFFIX = ".journal";
+
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int readPosition;
+    private int writePosition;
+    private int usedBytes;
+    private int records;
+
+    /**
+     * Opens the journal in a file, creating it if it does not exist.
+     *
+     * @param file The {@link Path} to the file.
+     * @param maxBytes The size of a new file in bytes. An existing file keeps its size.
+     * @throws IOException if the file could not be opened or is locked by another journal.
+     */
+    SpoolJournal(Path file, int maxBytes) throws IOException {
+        if (maxBytes <= HEADER_BYTES) {
+            throw new IllegalArgumentException("The journal must be larger than " + HEADER_BYTES + " bytes: " + maxBytes);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            channel.close();
+            throw new IOException("The journal is already open: " + file, e);
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("The journal is locked by another process: " + file);
+        }
+        boolean exists = channel.size() > HEADER_BYTES;
+        capacity = exists ? (int) Math.min(channel.size(), Integer.MAX_VALUE) : maxBytes;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        readPosition = buffer.getInt(READ_POSITION);
+        writePosition = buffer.getInt(WRITE_POSITION);
+        usedBytes = buffer.getInt(USED_BYTES);
+        records = buffer.getInt(RECORDS);
+        if (!exists || !isConsistent()) {
+            if (exists) {
+                log.warn("The journal {} is corrupt. Discarding its records.", file);
+            }
+            reset();
+        } else if (records > 0) {
+            log.info("Found {} records in the journal {}", records, file);
+        }
+    }
+
+    /**
+     * Opens the first journal in a directory that is not open elsewhere. The journals are named with a prefix and a
+     * number so that a restarted process claims the journals it had before.
+     *
+     * @param directory The {@link Path} to the directory, which is created if it does not exist.
+     * @param prefix The prefix of the names of the journals.
+     * @param maxBytes The size of a new journal in bytes.
+     * @return The claimed {@link SpoolJournal}.
+     * @throws IOException if the directory or the journal could not be created.
+     */
+    static SpoolJournal claim(Path directory, String prefix, int maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        for (int i = 0; ; ++i) {
+            Path file = directory.resolve(prefix + "-" + i + SUFFIX);
+            try {
+                return new SpoolJournal(file, maxBytes);
+            } catch (IOException e) {
+                if (!Files.exists(file)) {
+                    throw e;
+                }
+                log.debug("Skipping the journal {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the journal.
+     *
+     * @param record The {@link ProducerRecord} to append.
+     * @return A boolean denoting whether the record was appended. It is not if there is not enough space for it.
+     */
+    synchronized boolean append(ProducerRecord<String, byte[]> record) {
+        byte[] entry = serialize(record);
+        int needed = Integer.BYTES + entry.length;
+        boolean wraps = writePosition + needed > capacity;
+        int wasted = wraps ? capacity - writePosition : 0;
+        if (wasted + needed > capacity - HEADER_BYTES - usedBytes) {
+            return false;
+        }
+        if (wraps) {
+            if (wasted >= Integer.BYTES) {
+                buffer.putInt(writePosition, WRAP);
+            }
+            writePosition = HEADER_BYTES;
+        }
+        buffer.putInt(writePosition, entry.length);
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(writePosition + Integer.BYTES);
+        slice.put(entry);
+        writePosition += needed;
+        usedBytes += wasted + needed;
+        records++;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Reads the oldest records in the journal without removing them.
+     *
+     * @param max The maximum number of records to read.
+     * @return The {@link List} of the oldest {@link ProducerRecord}, in the order they were appended.
+     */
+    synchronized List<ProducerRecord<String, byte[]>> peek(int max) {
+        List<ProducerRecord<String, byte[]>> peeked = new ArrayList<>();
+        int position = readPosition;
+        for (int i = 0; i < Math.min(max, records); ++i) {
+            position = unwrap(position);
+            int length = buffer.getInt(position);
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(position + Integer.BYTES);
+            slice.limit(position + Integer.BYTES + length);
+            peeked.add(deserialize(slice.slice()));
+            position += Integer.BYTES + length;
+        }
+        return peeked;
+    }
+
+    /**
+     * Removes the oldest records from the journal.
+     *
+     * @param count The number of records to remove.
+     */
+    synchronized void remove(int count) {
+        for (int i = 0; i < Math.min(count, records); ++i) {
+            int position = unwrap(readPosition);
+            usedBytes -= position - readPosition + (position < readPosition ? capacity - HEADER_BYTES : 0);
+            int needed = Integer.BYTES + buffer.getInt(position);
+            readPosition = position + needed;
+            usedBytes -= needed;
+        }
+        records = Math.max(records - count, 0);
+        if (records == 0) {
+            reset();
+        } else {
+            writeHeader();
+        }
+    }
+
+    /**
+     * Checks if the journal has no records.
+     *
+     * @return A boolean denoting whether the journal is empty.
+     */
+    synchronized boolean isEmpty() {
+        return records == 0;
+    }
+
+    /**
+     * Gets the number of records in the journal.
+     *
+     * @return The number of records.
+     */
+    synchronized int size() {
+        return records;
+    }
+
+    /**
+     * Writes the changes to the journal to the disk.
+     */
+    synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        lock.release();
+        channel.close();
+    }
+
+    private int unwrap(int position) {
+        if (capacity - position < Integer.BYTES || buffer.getInt(position) == WRAP) {
+            return HEADER_BYTES;
+        }
+        return position;
+    }
+
+    private boolean isConsistent() {
+        return readPosition >= HEADER_BYTES && readPosition <= capacity && writePosition >= HEADER_BYTES &&
+               writePosition <= capacity && usedBytes >= 0 && usedBytes <= capacity - HEADER_BYTES && records >= 0;
+    }
+
+    private void reset() {
+        readPosition = HEADER_BYTES;
+        writePosition = HEADER_BYTES;
+        usedBytes = 0;
+        records = 0;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        buffer.putInt(READ_POSITION, readPosition);
+        buffer.putInt(WRITE_POSITION, writePosition);
+        buffer.putInt(USED_BYTES, usedBytes);
+        buffer.putInt(RECORDS, records);
+    }
+
+    private static byte[] serialize(ProducerRecord<String, byte[]> record) {
+        byte[] topic = record.topic().getBytes(StandardCharsets.UTF_8);
+        byte[] key = record.key() == null ? null : record.key().getBytes(StandardCharsets.UTF_8);
+        Header[] headers = record.headers().toArray();
+        int size = Integer.BYTES + topic.length + Integer.BYTES + Long.BYTES + sizeOf(key) + sizeOf(record.value()) + Integer.BYTES;
+        for (Header header : headers) {
+            size += sizeOf(header.key().getBytes(StandardCharsets.UTF_8)) + sizeOf(header.value());
+        }
+        ByteBuffer entry = ByteBuffer.allocate(size);
+        put(entry, topic);
+        entry.putInt(record.partition() == null ? NONE : record.partition());
+        entry.putLong(record.timestamp() == null ? NONE : record.timestamp());
+        put(entry, key);
+        put(entry, record.value());
+        entry.putInt(headers.length);
+        for (Header header : headers) {
+            put(entry, header.key().getBytes(StandardCharsets.UTF_8));
+            put(entry, header.value());
+        }
+        return entry.array();
+    }
+
+    private static ProducerRecord<String, byte[]> deserialize(ByteBuffer entry) {
+        String topic = new String(get(entry), StandardCharsets.UTF_8);
+        int partition = entry.getInt();
+        long timestamp = entry.getLong();
+        byte[] key = get(entry);
+        byte[] value = get(entry);
+        RecordHeaders headers = new RecordHeaders();
+        int count = entry.getInt();
+        for (int i = 0; i < count; ++i) {
+            headers.add(new String(get(entry), StandardCharsets.UTF_8), get(entry));
+        }
+        return new ProducerRecord<>(topic, partition == NONE ? null : partition, timestamp == NONE ? null : timestamp,
+                                    key == null ? null : new String(key, StandardCharsets.UTF_8), value, headers);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return Integer.BYTES + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void put(ByteBuffer entry, byte[] bytes) {
+        if (bytes == null) {
+            entry.putInt(NONE);
+        } else {
+            entry.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static byte[] get(ByteBuffer entry) {
+        int length = entry.getInt();
+        if (length == NONE) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        entry.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RetriableException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Producer} that writes records to a local {@link SpoolJournal} instead of failing or waiting when Kafka cannot
+ * take them. The producer is taken to be unhealthy as soon as a send fails with a retriable error or its buffer does not
+ * have room for the next record. From then on, every record is appended to the journal without going to the producer
+ * and a background thread replays them through the producer in the order they were appended. Records are sent directly
+ * again once the journal is empty. A record that is spooled is acknowledged with no metadata once it is in the journal.
+ * If the journal is full, records are sent directly and may block or fail as usual. Records that fail to replay with an
+ * error that is not retriable are dropped. Transactions are not supported.
+ * <p>
+ * The records spooled after the producer is found to be unhealthy keep their order. A record that was already handed to
+ * the producer is only found to have failed once its delivery times out, so it is spooled behind the records sent after
+ * it and the order within its partition is not kept. Lower the producer max.block.ms so that a send that cannot get
+ * metadata or buffer space fails fast instead of blocking before it is spooled.
+ */
+@Slf4j
+public class SpoolingProducer implements Producer<String, byte[]> {
+    private static final int REPLAY_BATCH_SIZE = 100;
+    // How often a replay that waits for a send checks if the producer is closing
+    private static final long SEND_CHECK_MS = 100L;
+    private static final String PRODUCER_METRICS = "producer-metrics";
+    private static final String BUFFER_AVAILABLE_BYTES = "buffer-available-bytes";
+
+    private final Producer<String, byte[]> producer;
+    private final SpoolJournal journal;
+    private final long retryIntervalMS;
+    private final long fsyncIntervalMS;
+    private final Object signal = new Object();
+    private final Thread drainer;
+    private volatile boolean running = false;
+    // Set once closing so that a replay stops waiting for its sends
+    private volatile boolean closing = false;
+    // Cleared when a send fails or would block and set again once the journal has been replayed
+    private volatile boolean healthy = true;
+    // The producer metric with the free space in its buffer, looked up on the first send, or null if it has none
+    private volatile Metric bufferAvailable;
+    private volatile boolean bufferAvailableLookedUp = false;
+    private boolean unsynced = false;
+    private long lastSync = System.currentTimeMillis();
+
+    /**
+     * Creates a SpoolingProducer. Call {@link #start()} to begin replaying the records in the journal.
+     *
+     * @param producer The {@link Producer} to send records with.
+     * @param journal The {@link SpoolJournal} to spool records to, which may already have records from before.
+     * @param retryIntervalMS The time in milliseconds to wait before replaying again after a replay fails.
+     * @param fsyncIntervalMS The time in milliseconds between writes of the journal to the disk. If 0, the journal is
+     *                        written to the disk after each record is spooled, by the thread that replays records if
+     *                        the record was spooled from a producer callback.
+     */
+    SpoolingProducer(Producer<String, byte[]> producer, SpoolJournal journal, long retryIntervalMS, long fsyncIntervalMS) {
+        this.producer = Objects.requireNonNull(producer);
+        this.journal = Objects.requireNonNull(journal);
+        this.retryIntervalMS = retryIntervalMS;
+        this.fsyncIntervalMS = fsyncIntervalMS;
+        drainer = new Thread(this::run, "bullet-kafka-spool");
+        drainer.setDaemon(true);
+    }
+
+    /**
+     * Starts replaying the records in the journal.
+     */
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+            drainer.start();
+        }
+    }
+
+    /**
+     * Gets the number of records waiting in the journal.
+     *
+     * @return The number of spooled records.
+     */
+    public int getSpooled() {
+        return journal.size();
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<String, byte[]> record) {
+        return send(record, null);
+    }
+
+    /**
+     * Checks if records are currently sent through the producer instead of being spooled.
+     *
+     * @return A boolean denoting whether the producer is taken to be healthy.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<String, byte[]> record, Callback callback) {
+        if (healthy && !hasRoomFor(record)) {
+            log.warn("The producer buffer is full. Spooling the records from now on.");
+            healthy = false;
+        }
+        // Records must not overtake the ones that are already spooled
+        if ((!healthy || !journal.isEmpty()) && spool(record, true)) {
+            return acknowledge(callback);
+        }
+        try {
+            return producer.send(record, (metadata, e) -> {
+                if (e instanceof RetriableException) {
+                    healthy = false;
+                    // This runs on the producer I/O thread so the journal is written to the disk by the drainer
+                    if (spool(record, false)) {
+                        e = null;
+                    }
+                }
+                if (callback != null) {
+                    callback.onCompletion(metadata, e);
+                }
+            });
+        } catch (RetriableException e) {
+            healthy = false;
+            if (spool(record, true)) {
+                return acknowledge(callback);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void flush() {
+        producer.flush();
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(String topic) {
+        return producer.partitionsFor(topic);
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+        return producer.metrics();
+    }
+
+    /**
+     * Stops replaying and closes the producer and the journal. The records left in the journal are replayed when it is
+     * opened again. A replay that is waiting for its records to be sent stops waiting, so those records are kept and
+     * may be sent again.
+     */
+    @Override
+    public void close() {
+        stop(null);
+        producer.close();
+        closeJournal();
+    }
+
+    /**
+     * Stops replaying and closes the producer and the journal, waiting up to a timeout in total for the replay to stop
+     * and the producer to close. The records left in the journal are replayed when it is opened again.
+     *
+     * @param timeout The maximum {@link Duration} to wait.
+     */
+    @Override
+    public void close(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        stop(timeout);
+        producer.close(Duration.ofNanos(Math.max(deadline - System.nanoTime(), 0L)));
+        closeJournal();
+    }
+
+    @Override
+    public void initTransactions() {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    @Override
+    public void beginTransaction() {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    @Override
+    @Deprecated
+    public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, String consumerGroupId) {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    @Override
+    public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, ConsumerGroupMetadata groupMetadata) {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    @Override
+    public void commitTransaction() {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    @Override
+    public void abortTransaction() {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    /**
+     * Replays the oldest records in the journal and removes the ones that were sent. Records are sent directly again
+     * once the journal is emptied.
+     *
+     * @return A boolean denoting whether all the replayed records were sent.
+     */
+    boolean replay() {
+        List<ProducerRecord<String, byte[]>> records = journal.peek(REPLAY_BATCH_SIZE);
+        List<Future<RecordMetadata>> sends = new ArrayList<>();
+        try {
+            for (ProducerRecord<String, byte[]> record : records) {
+                sends.add(producer.send(record));
+            }
+        } catch (KafkaException e) {
+            log.warn("Could not replay the spooled records. Retrying in {} ms", retryIntervalMS, e);
+        }
+        // Only the records up to the first one that failed are removed. Any after it are sent again.
+        int sent = 0;
+        for (Future<RecordMetadata> send : sends) {
+            if (!isSent(send)) {
+                break;
+            }
+            sent++;
+        }
+        journal.remove(sent);
+        if (sent == records.size() && journal.isEmpty()) {
+            healthy = true;
+        }
+        return sent == records.size();
+    }
+
+    /**
+     * Writes the journal to the disk if it was changed and the fsync interval has passed.
+     */
+    void sync() {
+        synchronized (signal) {
+            if (!unsynced || System.currentTimeMillis() - lastSync < fsyncIntervalMS) {
+                return;
+            }
+            unsynced = false;
+            lastSync = System.currentTimeMillis();
+        }
+        journal.force();
+    }
+
+    private boolean hasRoomFor(ProducerRecord<String, byte[]> record) {
+        Metric available = getBufferAvailable();
+        if (available == null || !(available.metricValue() instanceof Number)) {
+            return true;
+        }
+        int size = (record.key() == null ? 0 : record.key().length()) + (record.value() == null ? 0 : record.value().length);
+        return ((Number) available.metricValue()).doubleValue() >= size;
+    }
+
+    private Metric getBufferAvailable() {
+        if (!bufferAvailableLookedUp) {
+            // The metric is live so it only needs to be found once
+            bufferAvailable = producer.metrics().entrySet().stream()
+                                      .filter(e -> BUFFER_AVAILABLE_BYTES.equals(e.getKey().name()) &&
+                                                   PRODUCER_METRICS.equals(e.getKey().group()))
+                                      .map(Map.Entry::getValue).findFirst().orElse(null);
+            bufferAvailableLookedUp = true;
+        }
+        return bufferAvailable;
+    }
+
+    private boolean isSent(Future<RecordMetadata> send) {
+        try {
+            while (true) {
+                try {
+                    send.get(SEND_CHECK_MS, TimeUnit.MILLISECONDS);
+                    return true;
+                } catch (TimeoutException e) {
+                    if (closing) {
+                        return false;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RetriableException) {
+                log.warn("Could not replay a spooled record. Retrying in {} ms", retryIntervalMS, e.getCause());
+                return false;
+            }
+            log.error("Dropping a spooled record that cannot be sent.", e.getCause());
+            return true;
+        }
+    }
+
+    private boolean spool(ProducerRecord<String, byte[]> record, boolean force) {
+        if (!journal.append(record)) {
+            log.warn("The spool is full. Sending the record for {} directly.", record.key());
+            return false;
+        }
+        boolean forced = force && fsyncIntervalMS == 0;
+        if (forced) {
+            journal.force();
+        }
+        synchronized (signal) {
+            unsynced = !forced;
+            signal.notifyAll();
+        }
+        return true;
+    }
+
+    private static Future<RecordMetadata> acknowledge(Callback callback) {
+        if (callback != null) {
+            callback.onCompletion(null, null);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void run() {
+        while (running) {
+            sync();
+            boolean replayed = journal.isEmpty() || replay();
+            sync();
+            synchronized (signal) {
+                try {
+                    if (running && (!replayed || journal.isEmpty())) {
+                        signal.wait(fsyncIntervalMS > 0 ? Math.min(retryIntervalMS, fsyncIntervalMS) : retryIntervalMS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                }
+            }
+        }
+    }
+
+    private void stop(Duration timeout) {
+        synchronized (this) {
+            running = false;
+            closing = true;
+        }
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        if (drainer.isAlive() && drainer != Thread.currentThread()) {
+            try {
+                // A join of 0 waits forever
+                drainer.join(timeout == null ? 0L : Math.max(timeout.toMillis(), 1L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (drainer.isAlive()) {
+                log.warn("Timed out waiting for the spool replay to stop after {}", timeout);
+            }
+        }
+    }
+
+    private void closeJournal() {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.error("Could not close the spool journal.", e);
+        }
+    }
+}
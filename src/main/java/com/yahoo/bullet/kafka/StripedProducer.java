@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link Producer} that spreads records over a number of producers by their partition so that each partition is
+ * always written by the same producer. This keeps the order of the records in a partition, and so of the messages for a
+ * query, while the producers batch and send in parallel. Records without a partition are spread by their key.
+ * Transactions are not supported.
+ */
+public class StripedProducer implements Producer<String, byte[]> {
+    private final List<Producer<String, byte[]>> stripes;
+
+    /**
+     * Creates a StripedProducer.
+     *
+     * @param stripes The non-empty {@link List} of {@link Producer} to spread the records over.
+     */
+    public StripedProducer(List<Producer<String, byte[]>> stripes) {
+        if (stripes.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one producer to stripe over.");
+        }
+        this.stripes = new ArrayList<>(stripes);
+    }
+
+    /**
+     * Gets the producer that sends a record.
+     *
+     * @param record The {@link ProducerRecord} to send.
+     * @return The {@link Producer} for the record.
+     */
+    Producer<String, byte[]> getStripe(ProducerRecord<String, byte[]> record) {
+        int hash = record.partition() != null ? record.partition() : Objects.hashCode(record.key());
+        return stripes.get(Math.floorMod(hash, stripes.size()));
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<String, byte[]> record) {
+        return getStripe(record).send(record);
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<String, byte[]> record, Callback callback) {
+        return getStripe(record).send(record, callback);
+    }
+
+    @Override
+    public void flush() {
+        stripes.forEach(Producer::flush);
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(String topic) {
+        return stripes.get(0).partitionsFor(topic);
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+        // The metrics of the producers have the same names apart from the client id tag
+        Map<MetricName, Metric> metrics = new HashMap<>();
+        stripes.forEach(stripe -> metrics.putAll(stripe.metrics()));
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        stripes.forEach(Producer::close);
+    }
+
+    @Override
+    public void close(Duration timeout) {
+        stripes.forEach(stripe -> stripe.close(timeout));
+    }
+
+    @Override
+    public void initTransactions() {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    @Override
+    public void beginTransaction() {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    @Override
+    @Deprecated
+    public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, String consumerGroupId) {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    @Override
+    public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, ConsumerGroupMetadata groupMetadata) {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    @Override
+    public void commitTransaction() {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+
+    @Override
+    public void abortTransaction() {
+        throw new UnsupportedOperationException("Transactions are not supported.");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * A {@link DeadLetterSink} that writes the records as they are to another topic. The original headers are kept and the
+ * source of the record and the reason are added as headers. Sinks can share a {@link SharedProducer} so that the
+ * subscribers of a PubSub do not each need a producer for records that are rarely unreadable.
+ */
+@Slf4j
+public class TopicDeadLetterSink implements DeadLetterSink {
+    public static final String SOURCE = "bullet.dead.letter.source";
+    public static final String REASON = "bullet.dead.letter.reason";
+
+    /**
+     * A producer that is created when the first of the sinks sharing it sends a record and closed when the last of
+     * them is closed.
+     */
+    public static class SharedProducer {
+        private final Supplier<Producer<String, byte[]>> factory;
+        private Producer<String, byte[]> producer;
+        private int references = 0;
+
+        /**
+         * Creates a SharedProducer.
+         *
+         * @param factory The {@link Supplier} of the {@link Producer} to create when it is first needed.
+         */
+        public SharedProducer(Supplier<Producer<String, byte[]>> factory) {
+            this.factory = factory;
+        }
+
+        private synchronized void retain() {
+            references++;
+        }
+
+        private synchronized Producer<String, byte[]> get() {
+            if (producer == null) {
+                producer = factory.get();
+            }
+            return producer;
+        }
+
+        private synchronized void release() {
+            if (--references > 0 || producer == null) {
+                return;
+            }
+            producer.close();
+            producer = null;
+        }
+    }
+
+    @Getter(AccessLevel.PACKAGE)
+    private final SharedProducer sharedProducer;
+    private final String topic;
+    private boolean closed = false;
+
+    /**
+     * Creates a TopicDeadLetterSink that owns its producer.
+     *
+     * @param producer The {@link Producer} to write the records with, which is closed with this.
+     * @param topic The name of the topic to write the records to.
+     */
+    public TopicDeadLetterSink(Producer<String, byte[]> producer, String topic) {
+        this(new SharedProducer(() -> producer), topic);
+        // Taken right away so that it is closed with this even if nothing is sent
+        sharedProducer.get();
+    }
+
+    /**
+     * Creates a TopicDeadLetterSink that shares a producer with other sinks.
+     *
+     * @param sharedProducer The {@link SharedProducer} to write the records with.
+     * @param topic The name of the topic to write the records to.
+     */
+    public TopicDeadLetterSink(SharedProducer sharedProducer, String topic) {
+        this.sharedProducer = sharedProducer;
+        this.topic = topic;
+        sharedProducer.retain();
+    }
+
+    @Override
+    public CompletableFuture<Void> send(ConsumerRecord<String, byte[]> record, String reason) {
+        Headers headers = new RecordHeaders(record.headers().toArray());
+        String source = record.topic() + "-" + record.partition() + "@" + record.offset();
+        headers.add(SOURCE, source.getBytes(StandardCharsets.UTF_8));
+        headers.add(REASON, reason.getBytes(StandardCharsets.UTF_8));
+        CompletableFuture<Void> stored = new CompletableFuture<>();
+        ProducerRecord<String, byte[]> copy = new ProducerRecord<>(topic, null, null, record.key(), record.value(), headers);
+        sharedProducer.get().send(copy, (metadata, e) -> {
+            if (e != null) {
+                log.error("Could not write the record from {} to the dead letter topic {}.", source, topic, e);
+                stored.completeExceptionally(e);
+            } else {
+                stored.complete(null);
+            }
+        });
+        return stored;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        sharedProducer.release();
+    }
+}
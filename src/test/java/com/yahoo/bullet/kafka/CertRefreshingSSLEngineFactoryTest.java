@@ -8,11 +8,11 @@ package com.yahoo.bullet.kafka;
 import com.oath.auth.KeyRefresher;
 import org.apache.kafka.common.config.SslConfigs;
 import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 import org.apache.kafka.common.config.types.Password;
 
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLParameters;
 import java.io.FileNotFoundException;
@@ -32,6 +32,7 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 
 public class CertRefreshingSSLEngineFactoryTest {
     private static final String FAKE_CERT = System.getProperty("user.dir") + "/src/test/resources/fake_cert.txt";
@@ -47,6 +48,13 @@ public class CertRefreshingSSLEngineFactoryTest {
         this.conf = getBasicConf();
     }
 
+    @AfterMethod
+    public void teardown() throws Exception {
+        // Releases the shared SSLContexts so that each test creates its own
+        factorySentinel.close();
+        instantiatedFactory.close();
+    }
+
     @Test
     public void testConfiguring() {
         factorySentinel.configure(conf);
@@ -215,6 +223,82 @@ public class CertRefreshingSSLEngineFactoryTest {
         Assert.assertNull(factorySentinel.sslContext);
     }
 
+    @Test
+    public void testSSLContextIsShared() throws Exception {
+        CertRefreshingSSLEngineFactorySentinel another = new CertRefreshingSSLEngineFactorySentinel();
+        factorySentinel.configure(conf);
+        another.configure(conf);
+
+        Assert.assertSame(another.sslContext, factorySentinel.sslContext);
+        Assert.assertSame(((CertRefreshingSSLEngineFactory) another).keyRefresher, factorySentinel.getKeyRefresher());
+        Assert.assertNull(another.utilFunctionsCalled);
+        Assert.assertEquals(CertRefreshingSSLEngineFactory.getReferences(FAKE_CERT, FAKE_CERT, FAKE_CERT, "password", 1000), 2);
+        verify(factorySentinel.getKeyRefresher()).startup(1000);
+
+        another.close();
+    }
+
+    @Test
+    public void testSSLContextIsNotSharedForDifferentSettings() throws Exception {
+        CertRefreshingSSLEngineFactorySentinel another = new CertRefreshingSSLEngineFactorySentinel();
+        factorySentinel.configure(conf);
+        conf.put(SSL_KEY_REFRESH_INTERVAL, 2000);
+        another.configure(conf);
+
+        Assert.assertNotSame(another.sslContext, factorySentinel.sslContext);
+        Assert.assertNotNull(another.getKeyRefresher());
+        verify(another.getKeyRefresher()).startup(2000);
+        Assert.assertEquals(CertRefreshingSSLEngineFactory.getReferences(FAKE_CERT, FAKE_CERT, FAKE_CERT, "password", 1000), 1);
+        Assert.assertEquals(CertRefreshingSSLEngineFactory.getReferences(FAKE_CERT, FAKE_CERT, FAKE_CERT, "password", 2000), 1);
+
+        another.close();
+    }
+
+    @Test
+    public void testKeyRefresherIsShutDownWhenLastFactoryCloses() throws Exception {
+        CertRefreshingSSLEngineFactorySentinel another = new CertRefreshingSSLEngineFactorySentinel();
+        factorySentinel.configure(conf);
+        another.configure(conf);
+        KeyRefresher mock = factorySentinel.getKeyRefresher();
+
+        factorySentinel.close();
+        // Closing again does not release the context twice
+        factorySentinel.close();
+        verify(mock, never()).shutdown();
+        Assert.assertEquals(CertRefreshingSSLEngineFactory.getReferences(FAKE_CERT, FAKE_CERT, FAKE_CERT, "password", 1000), 1);
+
+        another.close();
+        verify(mock).shutdown();
+        Assert.assertEquals(CertRefreshingSSLEngineFactory.getReferences(FAKE_CERT, FAKE_CERT, FAKE_CERT, "password", 1000), 0);
+
+        // A new context is created once the old one is released
+        CertRefreshingSSLEngineFactorySentinel last = new CertRefreshingSSLEngineFactorySentinel();
+        last.configure(conf);
+        Assert.assertNotNull(last.getKeyRefresher());
+        Assert.assertNotSame(last.getKeyRefresher(), mock);
+        last.close();
+    }
+
+    @Test
+    public void testReconfiguringReleasesTheOldContext() throws Exception {
+        factorySentinel.configure(conf);
+        KeyRefresher mock = factorySentinel.getKeyRefresher();
+        conf.put(SSL_KEY_REFRESH_INTERVAL, 2000);
+        factorySentinel.configure(conf);
+
+        verify(mock).shutdown();
+        verify(mock).startup(2000);
+        Assert.assertEquals(CertRefreshingSSLEngineFactory.getReferences(FAKE_CERT, FAKE_CERT, FAKE_CERT, "password", 1000), 0);
+        Assert.assertEquals(CertRefreshingSSLEngineFactory.getReferences(FAKE_CERT, FAKE_CERT, FAKE_CERT, "password", 2000), 1);
+    }
+
+    @Test
+    public void testContextsAreNotKeyedByThePassword() {
+        factorySentinel.configure(conf);
+        Assert.assertFalse(factorySentinel.contextKey.contains("password"));
+        Assert.assertEquals(CertRefreshingSSLEngineFactory.getReferences(FAKE_CERT, FAKE_CERT, FAKE_CERT, "other", 1000), 0);
+    }
+
     @Test
     public void testCreatingKeystore() throws Exception {
         KeyStore keyStore = instantiatedFactory.getKeyStore("somePath", "somePassword".toCharArray());
@@ -249,8 +333,8 @@ public class CertRefreshingSSLEngineFactoryTest {
 
     public static class InstantiableCertRefreshingSSLEngineFactory extends CertRefreshingSSLEngineFactory {
         @Override
-        protected SSLContext createSSLContext() {
-            return null;
+        protected RefreshingContext createSSLContext() {
+            return new RefreshingContext(null, null);
         }
     }
 
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClientMetricsExporterTest {
+    private static Metric metric(Object value) {
+        Metric metric = mock(Metric.class);
+        when(metric.metricValue()).thenReturn(value);
+        return metric;
+    }
+
+    private static Map<MetricName, Metric> lag(String partition, Object value) {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("client-id", "consumer-1");
+        tags.put("topic", "topic");
+        tags.put("partition", partition);
+        return Collections.singletonMap(new MetricName("records-lag", "consumer-fetch-manager-metrics", "", tags), metric(value));
+    }
+
+    private static Map<String, String> expectedTags(String partition) {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("client-id", "consumer-1");
+        tags.put("topic", "topic");
+        tags.put("partition", partition);
+        tags.put(ClientMetricsExporter.GROUP_TAG, "consumer-fetch-manager-metrics");
+        tags.put(ClientMetricsExporter.CONTEXT_TAG, "query_processing");
+        tags.put(ClientMetricsExporter.ROLE_TAG, ClientMetricsExporter.CONSUMER_ROLE);
+        return tags;
+    }
+
+    @Test
+    public void testSamplingWhitelistedMetrics() {
+        KafkaMetrics metrics = mock(KafkaMetrics.class);
+        ClientMetricsExporter exporter = new ClientMetricsExporter(metrics, Arrays.asList("records-lag"), 60000L);
+        Map<MetricName, Metric> consumerMetrics = new HashMap<>(lag("0", 42L));
+        consumerMetrics.put(new MetricName("fetch-rate", "consumer-fetch-manager-metrics", "", Collections.emptyMap()), metric(1.0));
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        doReturn(consumerMetrics).when(consumer).metrics();
+        exporter.register(consumer, "query_processing");
+
+        exporter.sample();
+        verify(metrics).recordClientMetric("records-lag", expectedTags("0"), 42.0);
+        verify(metrics, never()).recordClientMetric(eq("fetch-rate"), anyMapOf(String.class, String.class), anyDouble());
+        exporter.close();
+    }
+
+    @Test
+    public void testSkippingMetricsWithoutValues() {
+        KafkaMetrics metrics = mock(KafkaMetrics.class);
+        ClientMetricsExporter exporter = new ClientMetricsExporter(metrics, Arrays.asList("records-lag"), 60000L);
+        Map<MetricName, Metric> consumerMetrics = new HashMap<>(lag("0", Double.NaN));
+        consumerMetrics.putAll(lag("1", "not a number"));
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        doReturn(consumerMetrics).when(consumer).metrics();
+        exporter.register(consumer, "query_processing");
+
+        exporter.sample();
+        verify(metrics, never()).recordClientMetric(anyString(), anyMapOf(String.class, String.class), anyDouble());
+        exporter.close();
+    }
+
+    @Test
+    public void testProducerRole() {
+        KafkaMetrics metrics = mock(KafkaMetrics.class);
+        ClientMetricsExporter exporter = new ClientMetricsExporter(metrics, Arrays.asList("batch-size-avg"), 60000L);
+        Map<String, String> tags = Collections.singletonMap("client-id", "producer-1");
+        MetricName name = new MetricName("batch-size-avg", "producer-metrics", "", tags);
+        Producer<?, ?> producer = mock(Producer.class);
+        doReturn(Collections.singletonMap(name, metric(512.0))).when(producer).metrics();
+        exporter.register(producer, "query_submission");
+
+        exporter.sample();
+        Map<String, String> expected = new HashMap<>(tags);
+        expected.put(ClientMetricsExporter.GROUP_TAG, "producer-metrics");
+        expected.put(ClientMetricsExporter.CONTEXT_TAG, "query_submission");
+        expected.put(ClientMetricsExporter.ROLE_TAG, ClientMetricsExporter.PRODUCER_ROLE);
+        verify(metrics).recordClientMetric("batch-size-avg", expected, 512.0);
+        exporter.close();
+    }
+
+    @Test
+    public void testPeriodicSampling() {
+        KafkaMetrics metrics = mock(KafkaMetrics.class);
+        ClientMetricsExporter exporter = new ClientMetricsExporter(metrics, Arrays.asList("records-lag"), 10L);
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        doReturn(lag("0", 7L)).when(consumer).metrics();
+        exporter.register(consumer, "query_processing");
+
+        verify(metrics, timeout(5000L).atLeast(2)).recordClientMetric("records-lag", expectedTags("0"), 7.0);
+        exporter.close();
+    }
+
+    @Test
+    public void testSamplingFailuresDoNotStopSampling() {
+        KafkaMetrics metrics = mock(KafkaMetrics.class);
+        ClientMetricsExporter exporter = new ClientMetricsExporter(metrics, Arrays.asList("records-lag"), 10L);
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        when(consumer.metrics()).thenThrow(new IllegalStateException("Testing")).thenReturn((Map) lag("0", 7L));
+        exporter.register(consumer, "query_processing");
+
+        verify(metrics, timeout(5000L)).recordClientMetric("records-lag", expectedTags("0"), 7.0);
+        exporter.close();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySet;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class ClientWarmerTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final List<TopicPartition> PARTITIONS = Arrays.asList(new TopicPartition("queries", 0),
+                                                                         new TopicPartition("queries", 1));
+
+    private static Producer<String, byte[]> makeProducer() {
+        Producer<String, byte[]> producer = (Producer<String, byte[]>) mock(Producer.class);
+        when(producer.partitionsFor(anyString())).thenAnswer(invocation -> {
+            String topic = (String) invocation.getArguments()[0];
+            return Arrays.asList(new PartitionInfo(topic, 0, null, null, null), new PartitionInfo(topic, 1, null, null, null));
+        });
+        return producer;
+    }
+
+    @Test
+    public void testWarmingUp() throws Exception {
+        Producer<String, byte[]> producer = makeProducer();
+        Consumer<String, byte[]> consumer = (Consumer<String, byte[]>) mock(Consumer.class);
+        ClientWarmer warmer = new ClientWarmer(() -> producer, () -> consumer, Arrays.asList("queries", "responses"),
+                                               "queries", PARTITIONS, TIMEOUT);
+        warmer.start();
+        warmer.getReadiness().get(10, TimeUnit.SECONDS);
+
+        verify(consumer).partitionsFor("queries", TIMEOUT);
+        verify(consumer).committed(new HashSet<>(PARTITIONS), TIMEOUT);
+        Assert.assertEquals(warmer.getPartitions("queries"), PARTITIONS);
+        Assert.assertEquals(warmer.getPartitions("responses"), Arrays.asList(new TopicPartition("responses", 0),
+                                                                             new TopicPartition("responses", 1)));
+        Assert.assertNull(warmer.getPartitions("other"));
+
+        // Each client is only handed out once
+        Assert.assertSame(warmer.takeProducer(), producer);
+        Assert.assertNull(warmer.takeProducer());
+        Assert.assertSame(warmer.takeConsumer(), consumer);
+        Assert.assertNull(warmer.takeConsumer());
+
+        warmer.close();
+        verify(producer, never()).close(any(Duration.class));
+        verify(consumer, never()).close(any(Duration.class));
+    }
+
+    @Test
+    public void testSubscribingConsumerDoesNotFetchOffsets() throws Exception {
+        Consumer<String, byte[]> consumer = (Consumer<String, byte[]>) mock(Consumer.class);
+        ClientWarmer warmer = new ClientWarmer(ClientWarmerTest::makeProducer, () -> consumer,
+                                               Collections.singletonList("responses"), "responses", null, TIMEOUT);
+        warmer.start();
+        warmer.getReadiness().get(10, TimeUnit.SECONDS);
+
+        verify(consumer).partitionsFor("responses", TIMEOUT);
+        verify(consumer, never()).committed(anySet(), any(Duration.class));
+    }
+
+    @Test
+    public void testConsumerIsOnlyHandedOutWhenReady() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Producer<String, byte[]> producer = makeProducer();
+        Consumer<String, byte[]> consumer = (Consumer<String, byte[]>) mock(Consumer.class);
+        when(consumer.partitionsFor(anyString(), eq(TIMEOUT))).thenAnswer(invocation -> {
+            fetching.countDown();
+            release.await();
+            return Collections.emptyList();
+        });
+        ClientWarmer warmer = new ClientWarmer(() -> producer, () -> consumer, Collections.singletonList("queries"),
+                                               "queries", null, TIMEOUT);
+        warmer.start();
+        fetching.await();
+
+        // The producer is thread safe and is handed out while the consumer is still warming up
+        Assert.assertSame(warmer.takeProducer(), producer);
+        Assert.assertNull(warmer.takeConsumer());
+        Assert.assertFalse(warmer.getReadiness().isDone());
+
+        release.countDown();
+        warmer.getReadiness().get(10, TimeUnit.SECONDS);
+        Assert.assertSame(warmer.takeConsumer(), consumer);
+    }
+
+    @Test
+    public void testFailureClosesTheConsumer() throws Exception {
+        Producer<String, byte[]> producer = makeProducer();
+        Consumer<String, byte[]> consumer = (Consumer<String, byte[]>) mock(Consumer.class);
+        when(consumer.partitionsFor(anyString(), any())).thenThrow(new KafkaException("unreachable"));
+        ClientWarmer warmer = new ClientWarmer(() -> producer, () -> consumer, Collections.singletonList("queries"),
+                                               "queries", null, TIMEOUT);
+        warmer.start();
+        try {
+            warmer.getReadiness().get(10, TimeUnit.SECONDS);
+            Assert.fail("The failure was not passed on");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof KafkaException);
+        }
+        verify(consumer).close(TIMEOUT);
+        Assert.assertNull(warmer.takeConsumer());
+        // The producer was warmed up before the failure and can still be used
+        Assert.assertSame(warmer.takeProducer(), producer);
+    }
+
+    @Test
+    public void testCloseClosesTheClientsNotTaken() throws Exception {
+        Producer<String, byte[]> producer = makeProducer();
+        Consumer<String, byte[]> consumer = (Consumer<String, byte[]>) mock(Consumer.class);
+        ClientWarmer warmer = new ClientWarmer(() -> producer, () -> consumer, Collections.singletonList("queries"),
+                                               "queries", null, TIMEOUT);
+        warmer.start();
+        warmer.getReadiness().get(10, TimeUnit.SECONDS);
+
+        warmer.close();
+        verify(producer).close(TIMEOUT);
+        verify(consumer).close(TIMEOUT);
+        Assert.assertNull(warmer.takeProducer());
+        Assert.assertNull(warmer.takeConsumer());
+    }
+
+    @Test
+    public void testCloseWhileWarmingUpClosesTheConsumerWhenDone() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Consumer<String, byte[]> consumer = (Consumer<String, byte[]>) mock(Consumer.class);
+        when(consumer.partitionsFor(anyString(), eq(TIMEOUT))).thenAnswer(invocation -> {
+            fetching.countDown();
+            release.await();
+            return Collections.emptyList();
+        });
+        ClientWarmer warmer = new ClientWarmer(ClientWarmerTest::makeProducer, () -> consumer,
+                                               Collections.singletonList("queries"), "queries", null, TIMEOUT);
+        warmer.start();
+        fetching.await();
+
+        warmer.close();
+        release.countDown();
+        warmer.getReadiness().get(10, TimeUnit.SECONDS);
+        verify(consumer).close(TIMEOUT);
+        Assert.assertNull(warmer.takeConsumer());
+    }
+
+    @Test
+    public void testOnlyTheProducerIsWarmedWithoutAConsumerFactory() throws Exception {
+        Producer<String, byte[]> producer = makeProducer();
+        ClientWarmer warmer = new ClientWarmer(() -> producer, null, Collections.singletonList("queries"), "queries",
+                                               null, TIMEOUT);
+        warmer.start();
+        warmer.getReadiness().get(10, TimeUnit.SECONDS);
+        Assert.assertNull(warmer.takeConsumer());
+        Assert.assertSame(warmer.takeProducer(), producer);
+    }
+
+    @Test
+    public void testDiscardingClosesTheConsumer() throws Exception {
+        Consumer<String, byte[]> consumer = (Consumer<String, byte[]>) mock(Consumer.class);
+        ClientWarmer warmer = new ClientWarmer(ClientWarmerTest::makeProducer, () -> consumer,
+                                               Collections.singletonList("queries"), "queries", null, TIMEOUT);
+        warmer.start();
+        warmer.getReadiness().get(10, TimeUnit.SECONDS);
+
+        warmer.discardConsumer();
+        verify(consumer).close(TIMEOUT);
+        Assert.assertNull(warmer.takeConsumer());
+        warmer.discardConsumer();
+        verify(consumer).close(TIMEOUT);
+    }
+
+    @Test
+    public void testDiscardingWhileWarmingUpClosesTheConsumerWhenDone() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Consumer<String, byte[]> consumer = (Consumer<String, byte[]>) mock(Consumer.class);
+        when(consumer.partitionsFor(anyString(), eq(TIMEOUT))).thenAnswer(invocation -> {
+            fetching.countDown();
+            release.await();
+            return Collections.emptyList();
+        });
+        ClientWarmer warmer = new ClientWarmer(ClientWarmerTest::makeProducer, () -> consumer,
+                                               Collections.singletonList("queries"), "queries", null, TIMEOUT);
+        warmer.start();
+        fetching.await();
+
+        warmer.discardConsumer();
+        release.countDown();
+        warmer.getReadiness().get(10, TimeUnit.SECONDS);
+        verify(consumer).close(TIMEOUT);
+        Assert.assertNull(warmer.takeConsumer());
+    }
+
+    @Test
+    public void testFailuresOfATakenProducerDoNotFailTheWarmUp() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Producer<String, byte[]> producer = (Producer<String, byte[]>) mock(Producer.class);
+        when(producer.partitionsFor(anyString())).thenAnswer(invocation -> {
+            fetching.countDown();
+            release.await();
+            throw new KafkaException("Requested metadata update after close");
+        });
+        Consumer<String, byte[]> consumer = (Consumer<String, byte[]>) mock(Consumer.class);
+        ClientWarmer warmer = new ClientWarmer(() -> producer, () -> consumer, Arrays.asList("queries", "responses"),
+                                               "queries", null, TIMEOUT);
+        warmer.start();
+        fetching.await();
+
+        Assert.assertSame(warmer.takeProducer(), producer);
+        release.countDown();
+        warmer.getReadiness().get(10, TimeUnit.SECONDS);
+        Assert.assertNull(warmer.getPartitions("queries"));
+        Assert.assertSame(warmer.takeConsumer(), consumer);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.yahoo.bullet.kafka.TestUtils.makeConsumerRecord;
+import static com.yahoo.bullet.kafka.TestUtils.makeConsumerRecords;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class ConsumerMultiplexerTest {
+    private static final TopicPartition PARTITION_A = new TopicPartition("topic", 0);
+    private static final TopicPartition PARTITION_B = new TopicPartition("topic", 1);
+    private static final TopicPartition PARTITION_C = new TopicPartition("topic", 2);
+
+    private KafkaConsumer<String, byte[]> consumer;
+
+    @BeforeMethod
+    public void setup() {
+        consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.assignment()).thenReturn(new HashSet<>(Arrays.asList(PARTITION_A, PARTITION_B)));
+    }
+
+    @Test
+    public void testRecordsAreRoutedToTheirViews() throws PubSubException {
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION_A, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(PARTITION_B, 0, new PubSubMessage("b", "")),
+                                                                  makeConsumerRecord(PARTITION_A, 1, new PubSubMessage("c", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 10);
+        KafkaSubscriber first = new KafkaSubscriber(consumer, 10);
+        KafkaSubscriber second = new KafkaSubscriber(consumer, 10);
+        multiplexer.addView(first, singletonList(PARTITION_A));
+        multiplexer.addView(second, singletonList(PARTITION_B));
+
+        Assert.assertEquals(first.receive().getId(), "a");
+        Assert.assertEquals(first.receive().getId(), "c");
+        Assert.assertNull(first.receive());
+        Assert.assertEquals(second.receive().getId(), "b");
+        Assert.assertNull(second.receive());
+    }
+
+    @Test
+    public void testViewsCommitIndependently() throws PubSubException {
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION_A, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(PARTITION_B, 0, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 10);
+        KafkaSubscriber first = new KafkaSubscriber(consumer, 10, true);
+        KafkaSubscriber second = new KafkaSubscriber(consumer, 10, true);
+        multiplexer.addView(first, singletonList(PARTITION_A));
+        multiplexer.addView(second, singletonList(PARTITION_B));
+
+        Assert.assertEquals(first.receive().getId(), "a");
+        Assert.assertEquals(second.receive().getId(), "b");
+        second.commit("b");
+        first.fail("a");
+        Assert.assertNull(second.receive());
+        verify(consumer).commitAsync(eq(singletonMap(PARTITION_B, new OffsetAndMetadata(1))), any());
+        verify(consumer, never()).commitAsync(eq(singletonMap(PARTITION_A, new OffsetAndMetadata(1))), any());
+        // The failed message comes back to its own view
+        Assert.assertEquals(first.receive().getId(), "a");
+    }
+
+    @Test
+    public void testPartitionsAreDividedByNumberWithoutRoutes() {
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 10);
+        multiplexer.addView(new KafkaSubscriber(consumer, 10), null);
+        multiplexer.addView(new KafkaSubscriber(consumer, 10), null);
+        Assert.assertEquals(multiplexer.route(PARTITION_A), 0);
+        Assert.assertEquals(multiplexer.route(PARTITION_B), 1);
+        Assert.assertEquals(multiplexer.route(PARTITION_C), 0);
+    }
+
+    @Test
+    public void testRebalancesAreSplitAmongViews() throws PubSubException {
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION_A, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(PARTITION_B, 0, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 10);
+        KafkaSubscriber first = new KafkaSubscriber(consumer, 10);
+        KafkaSubscriber second = new KafkaSubscriber(consumer, 10);
+        ConsumerRebalanceListener firstListener = mock(ConsumerRebalanceListener.class);
+        ConsumerRebalanceListener secondListener = mock(ConsumerRebalanceListener.class);
+        first.setRebalanceListener(firstListener);
+        second.setRebalanceListener(secondListener);
+        multiplexer.addView(first, null);
+        multiplexer.addView(second, null);
+
+        multiplexer.onPartitionsAssigned(Arrays.asList(PARTITION_A, PARTITION_B, PARTITION_C));
+        verify(firstListener).onPartitionsAssigned(Arrays.asList(PARTITION_A, PARTITION_C));
+        verify(secondListener).onPartitionsAssigned(singletonList(PARTITION_B));
+
+        // The record buffered for the second view is dropped when its partition is revoked
+        Assert.assertEquals(first.receive().getId(), "a");
+        multiplexer.onPartitionsRevoked(singletonList(PARTITION_B));
+        verify(firstListener).onPartitionsRevoked(emptyList());
+        verify(secondListener).onPartitionsRevoked(singletonList(PARTITION_B));
+        Assert.assertNull(second.receive());
+
+        multiplexer.onPartitionsLost(singletonList(PARTITION_C));
+        verify(firstListener).onPartitionsLost(singletonList(PARTITION_C));
+    }
+
+    @Test
+    public void testViewsThatFallBehindArePaused() throws PubSubException {
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION_A, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(PARTITION_B, 0, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 1);
+        KafkaSubscriber first = new KafkaSubscriber(consumer, 10);
+        KafkaSubscriber second = new KafkaSubscriber(consumer, 10);
+        multiplexer.addView(first, singletonList(PARTITION_A));
+        multiplexer.addView(second, singletonList(PARTITION_B));
+
+        first.receive();
+        verify(consumer).pause(singletonList(PARTITION_B));
+        second.receive();
+        verify(consumer).resume(Arrays.asList(PARTITION_A, PARTITION_B));
+    }
+
+    @Test(expectedExceptions = PubSubException.class)
+    public void testPollFailures() throws PubSubException {
+        when(consumer.poll(any())).thenThrow(new KafkaException());
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 10);
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        multiplexer.addView(subscriber, null);
+        subscriber.receive();
+    }
+
+    @Test
+    public void testConsumerIsClosedWithTheLastView() {
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 10);
+        KafkaSubscriber first = new KafkaSubscriber(consumer, 10);
+        KafkaSubscriber second = new KafkaSubscriber(consumer, 10);
+        multiplexer.addView(first, null);
+        multiplexer.addView(second, null);
+        first.close();
+        verify(consumer, never()).close();
+        second.close();
+        verify(consumer).close();
+    }
+
+    @Test
+    public void testConsumerIsClosedWithTheTimeoutOfTheLastView() {
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 10);
+        KafkaSubscriber first = new KafkaSubscriber(consumer, 10);
+        KafkaSubscriber second = new KafkaSubscriber(consumer, 10);
+        first.setCloseTimeout(Duration.ofSeconds(1));
+        second.setCloseTimeout(Duration.ofSeconds(2));
+        multiplexer.addView(first, null);
+        multiplexer.addView(second, null);
+        first.close();
+        second.close();
+        verify(consumer).close(Duration.ofSeconds(2));
+        verify(consumer, never()).close();
+    }
+
+    @Test
+    public void testLongPollWaitsForRecordsOfTheView() throws PubSubException {
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION_B, 0, new PubSubMessage("b", ""))))
+                                  .thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION_A, 0, new PubSubMessage("a", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 10);
+        KafkaSubscriber first = new KafkaSubscriber(consumer, 10);
+        KafkaSubscriber second = new KafkaSubscriber(consumer, 10);
+        multiplexer.addView(first, singletonList(PARTITION_A));
+        multiplexer.addView(second, singletonList(PARTITION_B));
+
+        Assert.assertEquals(first.receive(10, 60000L, Long.MAX_VALUE).get(0).getId(), "a");
+        // Two polls until a record for the view arrived and one more that does not wait for the rest
+        verify(consumer, times(3)).poll(any());
+        Assert.assertEquals(second.receive().getId(), "b");
+    }
+
+    @Test(timeOut = 10000L)
+    public void testLongPollLetsOtherViewsTakeTheirRecords() throws Exception {
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION_B, 0, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 1);
+        KafkaSubscriber first = new KafkaSubscriber(consumer, 10);
+        KafkaSubscriber second = new KafkaSubscriber(consumer, 10);
+        multiplexer.addView(first, singletonList(PARTITION_A));
+        multiplexer.addView(second, singletonList(PARTITION_B));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<List<PubSubMessage>> longPoll = executor.submit(() -> first.receive(10, 3000L, Long.MAX_VALUE));
+        // The partition of the second view is paused while the first one is still waiting for its own records
+        verify(consumer, timeout(1000L).atLeastOnce()).pause(singletonList(PARTITION_B));
+
+        // And the record for the second view is taken in the meantime
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(second.receive().getId(), "b");
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000L);
+        Assert.assertFalse(longPoll.isDone());
+
+        Assert.assertTrue(longPoll.get().isEmpty());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testPartitionsOfAClosedViewAreHandedOver() throws PubSubException {
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION_A, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(PARTITION_B, 0, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()))
+                                  .thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION_B, 0, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        ConsumerMultiplexer multiplexer = new ConsumerMultiplexer(consumer, 10);
+        KafkaSubscriber first = new KafkaSubscriber(consumer, 10, true);
+        KafkaSubscriber second = new KafkaSubscriber(consumer, 10, true);
+        ConsumerRebalanceListener firstListener = mock(ConsumerRebalanceListener.class);
+        first.setRebalanceListener(firstListener);
+        multiplexer.addView(first, singletonList(PARTITION_A));
+        multiplexer.addView(second, singletonList(PARTITION_B));
+
+        Assert.assertEquals(first.receive().getId(), "a");
+        // The second view closes with its record read but not committed
+        Assert.assertEquals(second.receive().getId(), "b");
+        second.close();
+        verify(consumer, never()).close();
+        verify(consumer).seek(PARTITION_B, 0L);
+        verify(firstListener).onPartitionsAssigned(singletonList(PARTITION_B));
+        Assert.assertEquals(multiplexer.route(PARTITION_B), 0);
+
+        // The first view reads the record again and commits it
+        Assert.assertEquals(first.receive().getId(), "b");
+        first.commit("a");
+        first.commit("b");
+        Assert.assertNull(first.receive());
+        Map<TopicPartition, OffsetAndMetadata> committed = new HashMap<>();
+        committed.put(PARTITION_A, new OffsetAndMetadata(1));
+        committed.put(PARTITION_B, new OffsetAndMetadata(1));
+        verify(consumer).commitAsync(eq(committed), any());
+
+        // Closing a view twice does not close the consumer early
+        second.close();
+        verify(consumer, never()).close();
+        first.close();
+        verify(consumer).close();
+    }
+}
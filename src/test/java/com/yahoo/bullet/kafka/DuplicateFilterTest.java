@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+public class DuplicateFilterTest {
+    // Fixed so that which fingerprints share a set, and could evict each other, is the same on every run
+    private static final byte[] SEQUENCE = ByteBuffer.allocate(16).putLong(42L).putLong(7L).array();
+
+    @Test
+    public void testCapacityIsRounded() {
+        Assert.assertEquals(new DuplicateFilter(1, 1000L).getCapacity(), 4);
+        Assert.assertEquals(new DuplicateFilter(4, 1000L).getCapacity(), 4);
+        Assert.assertEquals(new DuplicateFilter(5, 1000L).getCapacity(), 8);
+        Assert.assertEquals(new DuplicateFilter(65536, 1000L).getCapacity(), 65536);
+        Assert.assertEquals(new DuplicateFilter(65537, 1000L).getCapacity(), 131072);
+    }
+
+    @Test
+    public void testDuplicates() {
+        DuplicateFilter filter = new DuplicateFilter(1024, 1000L);
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertFalse(filter.isDuplicate(DuplicateFilter.fingerprint("id" + i, SEQUENCE), 0, 0L));
+        }
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertTrue(filter.isDuplicate(DuplicateFilter.fingerprint("id" + i, SEQUENCE), 0, 10L));
+        }
+    }
+
+    @Test
+    public void testFingerprintsDependOnTheSequence() {
+        KafkaHeaders.Sequencer sequencer = new KafkaHeaders.Sequencer();
+        Assert.assertNotEquals(DuplicateFilter.fingerprint("id", sequencer.next()),
+                               DuplicateFilter.fingerprint("id", sequencer.next()));
+        Assert.assertNotEquals(DuplicateFilter.fingerprint("a", SEQUENCE), DuplicateFilter.fingerprint("b", SEQUENCE));
+        Assert.assertEquals(DuplicateFilter.fingerprint("a", SEQUENCE), DuplicateFilter.fingerprint("a", SEQUENCE.clone()));
+        Assert.assertNotEquals(DuplicateFilter.fingerprint("\u00e9", SEQUENCE), DuplicateFilter.fingerprint("\u00c9", SEQUENCE));
+        Assert.assertNotEquals(DuplicateFilter.fingerprint("\u0101", SEQUENCE), DuplicateFilter.fingerprint("\u0001", SEQUENCE));
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        DuplicateFilter filter = new DuplicateFilter(16, 1000L);
+        Assert.assertFalse(filter.isDuplicate(42L, 0, 0L));
+        Assert.assertTrue(filter.isDuplicate(42L, 0, 1000L));
+        Assert.assertFalse(filter.isDuplicate(42L, 0, 2001L));
+        Assert.assertTrue(filter.isDuplicate(42L, 0, 2002L));
+    }
+
+    @Test
+    public void testOldestEntryIsEvicted() {
+        // A single set of four
+        DuplicateFilter filter = new DuplicateFilter(4, 1000L);
+        for (long i = 1; i <= 4; ++i) {
+            Assert.assertFalse(filter.isDuplicate(i, 0, i));
+        }
+        Assert.assertFalse(filter.isDuplicate(5L, 0, 5L));
+        Assert.assertTrue(filter.isDuplicate(2L, 0, 6L));
+        Assert.assertTrue(filter.isDuplicate(5L, 0, 6L));
+        Assert.assertFalse(filter.isDuplicate(1L, 0, 7L));
+    }
+
+    @Test
+    public void testZeroFingerprintAndForgetting() {
+        DuplicateFilter filter = new DuplicateFilter(16, 1000L);
+        Assert.assertFalse(filter.isDuplicate(0L, 0, 0L));
+        Assert.assertTrue(filter.isDuplicate(0L, 0, 1L));
+        filter.forget(0);
+        Assert.assertFalse(filter.isDuplicate(0L, 0, 2L));
+    }
+
+    @Test
+    public void testForgettingAGroup() {
+        DuplicateFilter filter = new DuplicateFilter(16, 1000L);
+        Assert.assertFalse(filter.isDuplicate(1L, 1, 0L));
+        Assert.assertFalse(filter.isDuplicate(2L, 2, 0L));
+        filter.forget(1);
+        Assert.assertFalse(filter.isDuplicate(1L, 1, 1L));
+        Assert.assertTrue(filter.isDuplicate(2L, 2, 1L));
+    }
+}
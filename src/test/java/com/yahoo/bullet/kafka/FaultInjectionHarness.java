@@ -0,0 +1,339 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.common.BulletConfig;
+import com.yahoo.bullet.pubsub.PubSub;
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import com.yahoo.bullet.pubsub.Publisher;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs queries and their results through two {@link KafkaPubSub} instances, one in each context, whose producers and
+ * consumers are a {@link FaultyProducer} and a {@link FaultyConsumer} on in-memory topics. The faults to inject are set
+ * on the harness before a run. A run sends queries from one thread while a backend thread answers each one it reads
+ * with a result, and reads the results until they stop arriving. It reports the throughput, the time the threads were
+ * blocked in sends and the queries whose results were lost or read more than once.
+ */
+@Getter
+class FaultInjectionHarness {
+    // The most messages read by one receive
+    static final int BATCH = 100;
+    private static final long RECEIVE_WAIT_MS = 10L;
+
+    private final KafkaConfig config;
+    private final Cluster cluster;
+    private final Random random;
+    private final Map<TopicPartition, List<ConsumerRecord<String, byte[]>>> topics = new HashMap<>();
+
+    // The faults to inject
+    @Setter
+    private volatile long sendLatencyMS = 0L;
+    @Setter
+    private volatile double sendErrorRate = 0.0;
+    @Setter
+    private volatile long pollLatencyMS = 0L;
+    @Setter
+    private volatile double pollErrorRate = 0.0;
+    @Setter
+    private volatile int rebalanceIntervalPolls = 0;
+    // The most times each consumer is rebalanced
+    @Setter
+    private volatile int maxRebalances = Integer.MAX_VALUE;
+    @Setter
+    private volatile int maxPollRecords = 500;
+    // How long to keep reading after the last result arrived once all the queries were sent
+    @Setter
+    private volatile long settleMS = 500L;
+
+    private final AtomicInteger failedSends = new AtomicInteger();
+    private final AtomicInteger failedPolls = new AtomicInteger();
+    private final AtomicInteger rebalances = new AtomicInteger();
+
+    @Getter @AllArgsConstructor
+    static class Report {
+        private final int sent;
+        private final int received;
+        private final int lost;
+        private final int duplicated;
+        private final long elapsedNanos;
+        private final long sendBlockedNanos;
+        private final int failedSends;
+        private final int failedPolls;
+        private final int rebalances;
+
+        double getThroughput() {
+            return elapsedNanos == 0L ? 0.0 : received / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent=%d received=%d lost=%d duplicated=%d throughput=%.1f/s send.blocked=%dms " +
+                                 "failed.sends=%d failed.polls=%d rebalances=%d", sent, received, lost, duplicated,
+                                 getThroughput(), TimeUnit.NANOSECONDS.toMillis(sendBlockedNanos), failedSends,
+                                 failedPolls, rebalances);
+        }
+    }
+
+    /**
+     * Creates a harness for the given settings with the topics named in them.
+     *
+     * @param config The {@link BulletConfig} for the {@link KafkaPubSub} instances.
+     * @param partitions The number of partitions of each topic.
+     * @param seed The seed for deciding which calls fail.
+     */
+    FaultInjectionHarness(BulletConfig config, int partitions, long seed) {
+        this.config = new KafkaConfig(config);
+        random = new Random(seed);
+        Node node = new Node(0, "localhost", 9092);
+        Node[] replicas = {node};
+        List<PartitionInfo> infos = new ArrayList<>();
+        for (String topic : new String[] {this.config.getAs(KafkaConfig.REQUEST_TOPIC_NAME, String.class),
+                                          this.config.getAs(KafkaConfig.RESPONSE_TOPIC_NAME, String.class)}) {
+            for (int i = 0; i < partitions; ++i) {
+                infos.add(new PartitionInfo(topic, i, node, replicas, replicas));
+                topics.put(new TopicPartition(topic, i), new ArrayList<>());
+            }
+        }
+        cluster = new Cluster("harness", Collections.singletonList(node), infos, Collections.emptySet(), Collections.emptySet());
+    }
+
+    /**
+     * Sends queries and answers them through the PubSub with the faults set on this.
+     *
+     * @param queries The number of queries to send.
+     * @return The {@link Report} of the run.
+     * @throws Exception if a send failed by throwing or if interrupted.
+     */
+    Report run(int queries) throws Exception {
+        KafkaPubSub submission = createPubSub(PubSub.Context.QUERY_SUBMISSION);
+        KafkaPubSub processing = createPubSub(PubSub.Context.QUERY_PROCESSING);
+        Publisher queryPublisher = submission.getPublisher();
+        KafkaSubscriber resultSubscriber = (KafkaSubscriber) submission.getSubscriber();
+        KafkaSubscriber querySubscriber = (KafkaSubscriber) processing.getSubscriber();
+        Publisher resultPublisher = processing.getPublisher();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean submitted = new AtomicBoolean(false);
+        AtomicLong sendBlockedNanos = new AtomicLong();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread backend = new Thread(() -> {
+            while (running.get()) {
+                try {
+                    for (PubSubMessage query : querySubscriber.receive(BATCH, RECEIVE_WAIT_MS, Long.MAX_VALUE)) {
+                        send(resultPublisher, new PubSubMessage(query.getId(), query.getContent(), query.getMetadata()), sendBlockedNanos);
+                        querySubscriber.commit(query.getId());
+                    }
+                } catch (PubSubException e) {
+                    // A backend keeps reading after a failed poll
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    return;
+                }
+            }
+        }, "fault-injection-backend");
+        Thread submitter = new Thread(() -> {
+            try {
+                for (int i = 0; i < queries && running.get(); ++i) {
+                    send(queryPublisher, new PubSubMessage("query-" + i, "query"), sendBlockedNanos);
+                }
+            } catch (PubSubException | RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                submitted.set(true);
+            }
+        }, "fault-injection-submitter");
+
+        Map<String, Integer> results = new HashMap<>();
+        long start = System.nanoTime();
+        long lastResult = start;
+        // The time since when nothing was sent or read
+        long idleSince = start;
+        backend.start();
+        submitter.start();
+        while (failure.get() == null && System.nanoTime() - idleSince < TimeUnit.MILLISECONDS.toNanos(settleMS)) {
+            try {
+                for (PubSubMessage result : resultSubscriber.receive(BATCH, RECEIVE_WAIT_MS, Long.MAX_VALUE)) {
+                    results.merge(result.getId(), 1, Integer::sum);
+                    resultSubscriber.commit(result.getId());
+                    lastResult = System.nanoTime();
+                }
+            } catch (PubSubException e) {
+                // Keep reading after a failed poll
+            }
+            idleSince = submitted.get() ? Math.max(lastResult, idleSince) : System.nanoTime();
+        }
+        long elapsed = lastResult - start;
+        running.set(false);
+        submitter.join();
+        backend.join();
+        queryPublisher.close();
+        resultPublisher.close();
+        querySubscriber.close();
+        resultSubscriber.close();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        int received = results.values().stream().mapToInt(Integer::intValue).sum();
+        return new Report(queries, received, queries - results.size(), received - results.size(), elapsed,
+                          sendBlockedNanos.get(), failedSends.get(), failedPolls.get(), rebalances.get());
+    }
+
+    /**
+     * Appends a sent record to its partition.
+     *
+     * @param record The {@link ProducerRecord} to append.
+     */
+    void append(ProducerRecord<String, byte[]> record) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        synchronized (topics) {
+            List<ConsumerRecord<String, byte[]>> log = topics.get(partition);
+            log.add(new ConsumerRecord<>(record.topic(), record.partition(), log.size(), System.currentTimeMillis(),
+                                         TimestampType.CREATE_TIME, 0L, 0, 0, record.key(), record.value(), record.headers()));
+        }
+    }
+
+    /**
+     * Reads the records of a partition.
+     *
+     * @param partition The {@link TopicPartition} to read.
+     * @param offset The offset to read from.
+     * @param max The maximum number of records to read.
+     * @return A {@link List} of the {@link ConsumerRecord} read.
+     */
+    List<ConsumerRecord<String, byte[]>> read(TopicPartition partition, long offset, int max) {
+        synchronized (topics) {
+            List<ConsumerRecord<String, byte[]>> log = topics.get(partition);
+            int from = (int) Math.min(offset, log.size());
+            return new ArrayList<>(log.subList(from, Math.min(from + max, log.size())));
+        }
+    }
+
+    /**
+     * Gets the partitions of topics.
+     *
+     * @param names The names of the topics.
+     * @return A {@link List} of all their {@link TopicPartition}.
+     */
+    List<TopicPartition> getPartitions(Collection<String> names) {
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (TopicPartition partition : topics.keySet()) {
+            if (names.contains(partition.topic())) {
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Gets the beginning offsets of all the partitions, which are all 0.
+     *
+     * @return A {@link Map} of {@link TopicPartition} to their beginning offsets.
+     */
+    Map<TopicPartition, Long> getBeginningOffsets() {
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        topics.keySet().forEach(partition -> offsets.put(partition, 0L));
+        return offsets;
+    }
+
+    /**
+     * Blocks the calling thread.
+     *
+     * @param ms The time to block for in milliseconds.
+     */
+    void delay(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decides whether a send fails and counts it if so.
+     *
+     * @return Whether to fail the send.
+     */
+    boolean injectSendError() {
+        return inject(sendErrorRate, failedSends);
+    }
+
+    /**
+     * Decides whether a poll fails and counts it if so.
+     *
+     * @return Whether to fail the poll.
+     */
+    boolean injectPollError() {
+        return inject(pollErrorRate, failedPolls);
+    }
+
+    /**
+     * Counts a rebalance that revoked partitions.
+     */
+    void recordRebalance() {
+        rebalances.incrementAndGet();
+    }
+
+    private boolean inject(double rate, AtomicInteger count) {
+        if (rate <= 0.0 || random.nextDouble() >= rate) {
+            return false;
+        }
+        count.incrementAndGet();
+        return true;
+    }
+
+    private KafkaPubSub createPubSub(PubSub.Context context) throws PubSubException {
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, context.name());
+        return new KafkaPubSub(config) {
+            @Override
+            Producer<String, byte[]> newProducer(Map<String, Object> properties) {
+                return new FaultyProducer(FaultInjectionHarness.this);
+            }
+
+            @Override
+            Consumer<String, byte[]> newConsumer(Map<String, Object> properties) {
+                return new FaultyConsumer(FaultInjectionHarness.this);
+            }
+        };
+    }
+
+    private static void send(Publisher publisher, PubSubMessage message, AtomicLong blockedNanos) throws PubSubException {
+        long start = System.nanoTime();
+        try {
+            publisher.send(message);
+        } finally {
+            blockedNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+}
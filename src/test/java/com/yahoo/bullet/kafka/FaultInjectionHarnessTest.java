@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.common.BulletConfig;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class FaultInjectionHarnessTest {
+    private static final int PARTITIONS = 4;
+    private static final long SEED = 42L;
+
+    private static BulletConfig makeConfig(boolean manualCommit) {
+        BulletConfig config = new BulletConfig();
+        config.set(KafkaConfig.ENABLE_AUTO_COMMIT, Boolean.toString(!manualCommit));
+        return config;
+    }
+
+    @Test
+    public void testNoFaults() throws Exception {
+        FaultInjectionHarness harness = new FaultInjectionHarness(makeConfig(true), PARTITIONS, SEED);
+        FaultInjectionHarness.Report report = harness.run(500);
+
+        Assert.assertEquals(report.getSent(), 500);
+        Assert.assertEquals(report.getReceived(), 500);
+        Assert.assertEquals(report.getLost(), 0);
+        Assert.assertEquals(report.getDuplicated(), 0);
+        Assert.assertEquals(report.getFailedSends(), 0);
+        Assert.assertEquals(report.getFailedPolls(), 0);
+        Assert.assertEquals(report.getRebalances(), 0);
+        Assert.assertTrue(report.getThroughput() > 0.0);
+    }
+
+    @Test
+    public void testSlowSendsBlockTheSenders() throws Exception {
+        FaultInjectionHarness harness = new FaultInjectionHarness(makeConfig(true), PARTITIONS, SEED);
+        harness.setSendLatencyMS(2L);
+        FaultInjectionHarness.Report report = harness.run(50);
+
+        Assert.assertEquals(report.getLost(), 0);
+        Assert.assertEquals(report.getDuplicated(), 0);
+        // Every query and every result waits for the send
+        Assert.assertTrue(report.getSendBlockedNanos() >= TimeUnit.MILLISECONDS.toNanos(2L * 100), report.toString());
+    }
+
+    @Test
+    public void testFailedSendsLoseMessages() throws Exception {
+        FaultInjectionHarness harness = new FaultInjectionHarness(makeConfig(true), PARTITIONS, SEED);
+        harness.setSendErrorRate(0.1);
+        FaultInjectionHarness.Report report = harness.run(500);
+
+        // The publishers do not retry so each failed query or result loses one result
+        Assert.assertTrue(report.getFailedSends() > 0, report.toString());
+        Assert.assertEquals(report.getLost(), report.getFailedSends(), report.toString());
+        Assert.assertEquals(report.getReceived(), 500 - report.getLost());
+        Assert.assertEquals(report.getDuplicated(), 0);
+    }
+
+    @Test
+    public void testFailedPollsAreRetried() throws Exception {
+        FaultInjectionHarness harness = new FaultInjectionHarness(makeConfig(true), PARTITIONS, SEED);
+        harness.setPollErrorRate(0.3);
+        harness.setPollLatencyMS(1L);
+        FaultInjectionHarness.Report report = harness.run(500);
+
+        Assert.assertTrue(report.getFailedPolls() > 0, report.toString());
+        Assert.assertEquals(report.getLost(), 0, report.toString());
+        Assert.assertEquals(report.getDuplicated(), 0, report.toString());
+    }
+
+    @Test
+    public void testRebalancesWithManualCommits() throws Exception {
+        FaultInjectionHarness harness = new FaultInjectionHarness(makeConfig(true), PARTITIONS, SEED);
+        harness.setRebalanceIntervalPolls(5);
+        harness.setMaxPollRecords(20);
+        FaultInjectionHarness.Report report = harness.run(500);
+
+        // The acknowledged offsets are committed when the partitions are revoked so nothing is lost. Only the messages
+        // of a batch that were read before a rebalance in the same receive are read again.
+        Assert.assertTrue(report.getRebalances() > 0, report.toString());
+        Assert.assertEquals(report.getLost(), 0, report.toString());
+        Assert.assertTrue(report.getDuplicated() <= report.getRebalances() * FaultInjectionHarness.BATCH, report.toString());
+    }
+
+    @Test
+    public void testRebalancesWithoutCommits() throws Exception {
+        FaultInjectionHarness harness = new FaultInjectionHarness(makeConfig(false), PARTITIONS, SEED);
+        harness.setRebalanceIntervalPolls(5);
+        harness.setMaxRebalances(2);
+        harness.setMaxPollRecords(20);
+        FaultInjectionHarness.Report report = harness.run(200);
+
+        // The mock consumer never commits by itself so the partitions are read again from the start. Since the backend
+        // answers the queries it reads again, this is bounded to a few rebalances.
+        Assert.assertTrue(report.getRebalances() > 0, report.toString());
+        Assert.assertEquals(report.getLost(), 0, report.toString());
+        Assert.assertTrue(report.getDuplicated() > 0, report.toString());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link MockConsumer} that reads the topics of a {@link FaultInjectionHarness}. Each poll first blocks for the poll
+ * latency of the harness and then fails at the poll error rate. A consumer that subscribes is the only member of its
+ * group. It is assigned all the partitions of its topics on its first poll and, if the harness rebalances, has them
+ * revoked and assigned again every so many polls up to a number of times, starting from the committed offsets like a new owner would. Unlike
+ * the {@link MockConsumer}, a poll waits for up to its timeout for records to arrive.
+ */
+class FaultyConsumer extends MockConsumer<String, byte[]> {
+    private static final long WAIT_MS = 1L;
+
+    private final FaultInjectionHarness harness;
+    private ConsumerRebalanceListener listener;
+    private int polls = 0;
+    private int rebalances = 0;
+
+    FaultyConsumer(FaultInjectionHarness harness) {
+        super(OffsetResetStrategy.EARLIEST);
+        this.harness = harness;
+        updateBeginningOffsets(harness.getBeginningOffsets());
+    }
+
+    @Override
+    public synchronized void subscribe(Collection<String> topics, ConsumerRebalanceListener listener) {
+        super.subscribe(topics, listener);
+        this.listener = listener;
+    }
+
+    @Override
+    public ConsumerRecords<String, byte[]> poll(Duration timeout) {
+        harness.delay(harness.getPollLatencyMS());
+        if (harness.injectPollError()) {
+            setPollException(new KafkaException("Injected poll failure"));
+            return super.poll(Duration.ZERO);
+        }
+        polls++;
+        int rebalanceInterval = harness.getRebalanceIntervalPolls();
+        boolean rebalanceDue = rebalanceInterval > 0 && polls % rebalanceInterval == 0 && rebalances < harness.getMaxRebalances();
+        if (!subscription().isEmpty() && (assignment().isEmpty() || rebalanceDue)) {
+            rebalance();
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            fetch();
+            ConsumerRecords<String, byte[]> records = super.poll(Duration.ZERO);
+            if (!records.isEmpty() || System.nanoTime() >= deadline) {
+                return records;
+            }
+            harness.delay(WAIT_MS);
+        }
+    }
+
+    private void rebalance() {
+        Set<TopicPartition> revoked = assignment();
+        if (!revoked.isEmpty()) {
+            rebalances++;
+            harness.recordRebalance();
+            listener.onPartitionsRevoked(revoked);
+        }
+        List<TopicPartition> assigned = harness.getPartitions(subscription());
+        rebalance(assigned);
+        Map<TopicPartition, OffsetAndMetadata> committed = committed(new HashSet<>(assigned));
+        for (TopicPartition partition : assigned) {
+            OffsetAndMetadata offset = committed.get(partition);
+            seek(partition, offset == null ? 0L : offset.offset());
+        }
+        listener.onPartitionsAssigned(assigned);
+    }
+
+    private void fetch() {
+        Set<TopicPartition> paused = paused();
+        int remaining = harness.getMaxPollRecords();
+        for (TopicPartition partition : assignment()) {
+            if (remaining <= 0) {
+                return;
+            }
+            if (paused.contains(partition)) {
+                continue;
+            }
+            // Whatever is added for a partition that is not paused is returned and cleared by the next poll
+            for (ConsumerRecord<String, byte[]> record : harness.read(partition, position(partition), remaining)) {
+                addRecord(record);
+                remaining--;
+            }
+        }
+    }
+}
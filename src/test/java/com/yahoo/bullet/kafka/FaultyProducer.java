@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link MockProducer} that writes what it sends to the topics of a {@link FaultInjectionHarness}. Each send first
+ * blocks the caller for the send latency of the harness and then fails, as a send that timed out would, at the send
+ * error rate.
+ */
+class FaultyProducer extends MockProducer<String, byte[]> {
+    private final FaultInjectionHarness harness;
+
+    FaultyProducer(FaultInjectionHarness harness) {
+        super(harness.getCluster(), true, new DefaultPartitioner(), new StringSerializer(), new ByteArraySerializer());
+        this.harness = harness;
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<String, byte[]> record, Callback callback) {
+        // Not holding the lock of the mock producer while blocked lets other threads send concurrently
+        harness.delay(harness.getSendLatencyMS());
+        if (harness.injectSendError()) {
+            TimeoutException exception = new TimeoutException("Injected send failure");
+            if (callback != null) {
+                callback.onCompletion(null, exception);
+            }
+            CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+            future.completeExceptionally(exception);
+            return future;
+        }
+        Future<RecordMetadata> future = super.send(record, callback);
+        harness.append(record);
+        return future;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+
+public class FileDeadLetterSinkTest {
+    @Test
+    public void testRecordsAreAppended() throws Exception {
+        Path path = Files.createTempFile("dead-letters", ".tsv");
+        Files.delete(path);
+        FileDeadLetterSink sink = new FileDeadLetterSink(path);
+        // Nothing to close before the first record
+        sink.close();
+        Assert.assertFalse(Files.exists(path));
+
+        sink.send(new ConsumerRecord<>("topic", 1, 7, "key", new byte[] {1, 2, 3}), "Not\na message");
+        sink.send(new ConsumerRecord<>("topic", 1, 8, null, null), "Empty");
+        sink.close();
+        // Appends after being closed
+        sink.send(new ConsumerRecord<>("topic", 1, 9, "other", new byte[0]), "Again");
+        sink.close();
+
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        Assert.assertEquals(lines.size(), 3);
+        String[] fields = lines.get(0).split("\t");
+        Assert.assertEquals(fields[0], "topic");
+        Assert.assertEquals(fields[1], "1");
+        Assert.assertEquals(fields[2], "7");
+        Assert.assertEquals(fields[4], "key");
+        Assert.assertEquals(Base64.getDecoder().decode(fields[5]), new byte[] {1, 2, 3});
+        Assert.assertEquals(fields[6], "Not a message");
+        Assert.assertTrue(lines.get(1).endsWith("\tnull\t\tEmpty"));
+        Assert.assertTrue(lines.get(2).startsWith("topic\t1\t9\t"));
+        Files.delete(path);
+    }
+
+    @Test
+    public void testSinksForTheSameFileShareAWriter() throws Exception {
+        Path path = Files.createTempFile("dead-letters", ".tsv");
+        FileDeadLetterSink first = new FileDeadLetterSink(path);
+        FileDeadLetterSink second = new FileDeadLetterSink(path.getParent().resolve(".").resolve(path.getFileName()));
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            FileDeadLetterSink sink = i % 2 == 0 ? first : second;
+            int partition = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100; ++j) {
+                    Assert.assertTrue(sink.send(new ConsumerRecord<>("topic", partition, j, "key", new byte[64]), "Bad").isDone());
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // Closing one sink leaves the shared writer open for the other
+        first.close();
+        second.send(new ConsumerRecord<>("topic", 9, 0, "key", new byte[0]), "Last");
+        second.close();
+
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        Assert.assertEquals(lines.size(), 401);
+        for (String line : lines) {
+            Assert.assertEquals(line.split("\t").length, 7);
+        }
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.common.BulletConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class InMemoryKafkaMetricsTest {
+    private static final TopicPartition FIRST = new TopicPartition("topic", 0);
+    private static final TopicPartition SECOND = new TopicPartition("topic", 1);
+
+    @Test
+    public void testPartitionMeasurements() {
+        InMemoryKafkaMetrics metrics = new InMemoryKafkaMetrics(new BulletConfig());
+        metrics.recordSend(FIRST, 100, 1000L);
+        metrics.recordSend(FIRST, 50, 2000L);
+        metrics.recordReceive(SECOND, 20, 500L);
+        metrics.recordDrop(SECOND, KafkaMetrics.DropReason.EXPIRED);
+        metrics.recordDrop(SECOND, KafkaMetrics.DropReason.EXPIRED);
+        metrics.recordDrop(SECOND, KafkaMetrics.DropReason.UNREADABLE);
+
+        Assert.assertEquals(metrics.getPartitions().size(), 2);
+        InMemoryKafkaMetrics.PartitionMetrics first = metrics.getPartitions().get(FIRST);
+        Assert.assertEquals(first.getSentMessages(), 2L);
+        Assert.assertEquals(first.getSentBytes(), 150L);
+        Assert.assertEquals(first.getSerializationNanos().getCount(), 2L);
+        Assert.assertEquals(first.getSerializationNanos().getMax(), 2000L);
+        Assert.assertEquals(first.getReceivedMessages(), 0L);
+
+        InMemoryKafkaMetrics.PartitionMetrics second = metrics.getPartitions().get(SECOND);
+        Assert.assertEquals(second.getReceivedMessages(), 1L);
+        Assert.assertEquals(second.getReceivedBytes(), 20L);
+        Assert.assertEquals(second.getDeserializationNanos().getSum(), 500L);
+        Assert.assertEquals(second.getDropped(KafkaMetrics.DropReason.EXPIRED), 2L);
+        Assert.assertEquals(second.getDropped(KafkaMetrics.DropReason.DUPLICATE), 0L);
+        Assert.assertEquals(second.getDropped(KafkaMetrics.DropReason.UNREADABLE), 1L);
+    }
+
+    @Test
+    public void testPollMeasurements() {
+        InMemoryKafkaMetrics metrics = new InMemoryKafkaMetrics();
+        metrics.recordPoll(10, 100L);
+        metrics.recordPoll(0, 300L);
+        Assert.assertEquals(metrics.getPollRecords().getCount(), 2L);
+        Assert.assertEquals(metrics.getPollRecords().getSum(), 10L);
+        Assert.assertEquals(metrics.getPollNanos().getMax(), 300L);
+    }
+
+    @Test
+    public void testClientMetrics() {
+        InMemoryKafkaMetrics metrics = new InMemoryKafkaMetrics();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("topic", "topic");
+        tags.put("partition", "0");
+        metrics.recordClientMetric("records-lag", tags, 10.0);
+        metrics.recordClientMetric("records-lag", tags, 12.4);
+        Map<String, Double> clientMetrics = metrics.getClientMetrics();
+        Assert.assertEquals(clientMetrics.size(), 1);
+        Assert.assertEquals(clientMetrics.get("records-lag{partition=0, topic=topic}"), 12.4);
+        Assert.assertEquals(metrics.snapshot().get("client.records-lag{partition=0, topic=topic}"), (Long) 12L);
+    }
+
+    @Test
+    public void testTraceMeasurements() {
+        InMemoryKafkaMetrics metrics = new InMemoryKafkaMetrics();
+        metrics.recordTrace("trace", 10L, 200L, 5L);
+        Assert.assertEquals(metrics.getQueryQueueingMS().getMax(), 10L);
+        Assert.assertEquals(metrics.getProcessingMS().getMax(), 200L);
+        Assert.assertEquals(metrics.getResponseQueueingMS().getMax(), 5L);
+        Assert.assertEquals(metrics.snapshot().get("trace.processing.ms.count"), (Long) 1L);
+    }
+
+    @Test
+    public void testSnapshot() {
+        InMemoryKafkaMetrics metrics = new InMemoryKafkaMetrics();
+        metrics.recordSend(FIRST, 100, 1000L);
+        metrics.recordDrop(FIRST, KafkaMetrics.DropReason.DUPLICATE);
+        metrics.recordPoll(3, 100L);
+        Map<String, Long> snapshot = metrics.snapshot();
+        Assert.assertEquals(snapshot.get("sent.messages.topic-0"), (Long) 1L);
+        Assert.assertEquals(snapshot.get("sent.bytes.topic-0"), (Long) 100L);
+        Assert.assertEquals(snapshot.get("serialization.nanos.count.topic-0"), (Long) 1L);
+        Assert.assertEquals(snapshot.get("serialization.nanos.max.topic-0"), (Long) 1000L);
+        Assert.assertEquals(snapshot.get("dropped.duplicate.topic-0"), (Long) 1L);
+        Assert.assertEquals(snapshot.get("received.messages.topic-0"), (Long) 0L);
+        Assert.assertEquals(snapshot.get("poll.records.max"), (Long) 3L);
+        Assert.assertEquals(snapshot.get("poll.nanos.count"), (Long) 1L);
+    }
+
+    @Test
+    public void testNoneRecordsNothing() {
+        KafkaMetrics.NONE.recordSend(FIRST, 1, 1L);
+        KafkaMetrics.NONE.recordPoll(1, 1L);
+        KafkaMetrics.NONE.recordReceive(FIRST, 1, 1L);
+        KafkaMetrics.NONE.recordDrop(FIRST, KafkaMetrics.DropReason.EXPIRED);
+    }
+}
@@ -11,6 +11,7 @@ import org.testng.annotations.Test;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -19,6 +20,8 @@ public class KafkaConfigTest {
     private static final String BATCH_SIZE = KafkaConfig.PRODUCER_NAMESPACE + "batch.size";
     private static final String REQUEST_TIMEOUT = KafkaConfig.PRODUCER_NAMESPACE + "request.timeout.ms";
     private static final String ALGORITHM = KafkaConfig.PRODUCER_NAMESPACE + "ssl.endpoint.identification.algorithm";
+    private static final String LINGER = KafkaConfig.PRODUCER_NAMESPACE + "linger.ms";
+    private static final String MAX_POLL_RECORDS = KafkaConfig.CONSUMER_NAMESPACE + "max.poll.records";
 
     @Test
     public void testDefaultFileKafkaSettings() {
@@ -58,4 +61,112 @@ public class KafkaConfigTest {
         Assert.assertTrue(kafkaProperties.containsKey(strippedName));
         Assert.assertEquals(kafkaProperties.get(strippedName), "bullet.queries");
     }
+
+    @Test
+    public void testStartPosition() {
+        KafkaConfig config = new KafkaConfig("");
+        Assert.assertEquals(config.get(KafkaConfig.START_POSITION), KafkaConfig.COMMITTED_START_POSITION);
+        Assert.assertEquals(config.get(KafkaConfig.START_LOOKBACK_MS), 30000L);
+
+        BulletConfig bulletConfig = new BulletConfig();
+        bulletConfig.set(KafkaConfig.START_POSITION, KafkaConfig.TIMESTAMP_START_POSITION);
+        bulletConfig.set(KafkaConfig.START_LOOKBACK_MS, 1000);
+        config = new KafkaConfig(bulletConfig);
+        Assert.assertEquals(config.get(KafkaConfig.START_POSITION), KafkaConfig.TIMESTAMP_START_POSITION);
+        Assert.assertEquals(config.get(KafkaConfig.START_LOOKBACK_MS), 1000L);
+
+        bulletConfig.set(KafkaConfig.START_POSITION, "earliest");
+        bulletConfig.set(KafkaConfig.START_LOOKBACK_MS, -1);
+        config = new KafkaConfig(bulletConfig);
+        Assert.assertEquals(config.get(KafkaConfig.START_POSITION), KafkaConfig.DEFAULT_START_POSITION);
+        Assert.assertEquals(config.get(KafkaConfig.START_LOOKBACK_MS), KafkaConfig.DEFAULT_START_LOOKBACK_MS);
+    }
+
+    @Test
+    public void testBalancedTuningProfileIsTheDefaults() {
+        KafkaConfig config = new KafkaConfig("");
+        Assert.assertEquals(config.get(KafkaConfig.TUNING_PROFILE), KafkaConfig.BALANCED_TUNING_PROFILE);
+        Assert.assertEquals(config.get(LINGER), "5");
+        Assert.assertEquals(config.get(MAX_POLL_RECORDS), "50");
+        Assert.assertTrue(config.getContradictions().isEmpty());
+    }
+
+    @Test
+    public void testTuningProfiles() {
+        BulletConfig bulletConfig = new BulletConfig();
+        bulletConfig.set(KafkaConfig.TUNING_PROFILE, KafkaConfig.HIGH_THROUGHPUT_TUNING_PROFILE);
+        KafkaConfig config = new KafkaConfig(bulletConfig);
+        Assert.assertEquals(config.get(LINGER), "50");
+        Assert.assertEquals(config.get(BATCH_SIZE), "262144");
+        Assert.assertEquals(config.get(MAX_POLL_RECORDS), "500");
+        Assert.assertEquals(config.get(KafkaConfig.MAX_UNCOMMITTED_MESSAGES), 500);
+        // Queries and signals are still not held back
+        Assert.assertEquals(config.get(KafkaConfig.PRODUCER_LATENCY_NAMESPACE + "linger.ms"), "0");
+        Assert.assertTrue(config.getContradictions().isEmpty());
+
+        bulletConfig.set(KafkaConfig.TUNING_PROFILE, KafkaConfig.LOW_LATENCY_TUNING_PROFILE);
+        config = new KafkaConfig(bulletConfig);
+        Assert.assertEquals(config.get(LINGER), "0");
+        Assert.assertEquals(config.get(KafkaConfig.CONSUMER_NAMESPACE + "fetch.max.wait.ms"), "10");
+        Assert.assertEquals(config.get(KafkaConfig.MAX_UNCOMMITTED_MESSAGES), 50);
+        Assert.assertTrue(config.getContradictions().isEmpty());
+
+        // Copying a config keeps its settings
+        Assert.assertEquals(new KafkaConfig(config).get(LINGER), "0");
+
+        bulletConfig.set(KafkaConfig.TUNING_PROFILE, "fastest");
+        config = new KafkaConfig(bulletConfig);
+        Assert.assertEquals(config.get(KafkaConfig.TUNING_PROFILE), KafkaConfig.DEFAULT_TUNING_PROFILE);
+        Assert.assertEquals(config.get(LINGER), "5");
+    }
+
+    @Test
+    public void testSettingsOverrideTheTuningProfile() {
+        BulletConfig bulletConfig = new BulletConfig();
+        bulletConfig.set(KafkaConfig.TUNING_PROFILE, KafkaConfig.HIGH_THROUGHPUT_TUNING_PROFILE);
+        bulletConfig.set(LINGER, "5");
+        bulletConfig.set(KafkaConfig.MAX_UNCOMMITTED_MESSAGES, 100);
+        KafkaConfig config = new KafkaConfig(bulletConfig);
+        Assert.assertEquals(config.get(LINGER), "5");
+        Assert.assertEquals(config.get(KafkaConfig.MAX_UNCOMMITTED_MESSAGES), 100);
+        Assert.assertEquals(config.get(BATCH_SIZE), "262144");
+    }
+
+    @Test
+    public void testContradictions() {
+        BulletConfig bulletConfig = new BulletConfig();
+        bulletConfig.set(KafkaConfig.WEB_SERVICE_SLEEP_MS, 60000);
+        bulletConfig.set(KafkaConfig.CONSUMER_NAMESPACE + "request.timeout.ms", "400");
+        bulletConfig.set(KafkaConfig.CONSUMER_NAMESPACE + "heartbeat.interval.ms", "20000");
+        bulletConfig.set(KafkaConfig.PRODUCER_THROUGHPUT_NAMESPACE + "delivery.timeout.ms", "1000");
+        List<String> contradictions = new KafkaConfig(bulletConfig).getContradictions();
+        Assert.assertEquals(contradictions.size(), 4);
+        Assert.assertTrue(contradictions.get(0).contains("max.poll.interval.ms (30000)"));
+        Assert.assertTrue(contradictions.get(1).contains("fetch.max.wait.ms (500)"));
+        Assert.assertTrue(contradictions.get(2).contains("session.timeout.ms (30000)"));
+        Assert.assertTrue(contradictions.get(3).contains(KafkaConfig.PRODUCER_THROUGHPUT_NAMESPACE));
+
+        // A profile can cause them too
+        bulletConfig = new BulletConfig();
+        bulletConfig.set(KafkaConfig.TUNING_PROFILE, KafkaConfig.HIGH_THROUGHPUT_TUNING_PROFILE);
+        bulletConfig.set(KafkaConfig.PRODUCER_NAMESPACE + "delivery.timeout.ms", "3040");
+        contradictions = new KafkaConfig(bulletConfig).getContradictions();
+        // The latency producers do not linger
+        Assert.assertEquals(contradictions.size(), 2);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testStaticMembershipWithoutInstanceIDFails() {
+        BulletConfig config = new BulletConfig();
+        config.set(KafkaConfig.STATIC_MEMBERSHIP_ENABLE, true);
+        new KafkaConfig(config);
+    }
+
+    @Test
+    public void testStaticMembershipWithInstanceID() {
+        BulletConfig config = new BulletConfig();
+        config.set(KafkaConfig.STATIC_MEMBERSHIP_ENABLE, true);
+        config.set(KafkaConfig.STATIC_MEMBERSHIP_INSTANCE_ID, "worker-1");
+        Assert.assertEquals(new KafkaConfig(config).get(KafkaConfig.STATIC_MEMBERSHIP_INSTANCE_ID), "worker-1");
+    }
 }
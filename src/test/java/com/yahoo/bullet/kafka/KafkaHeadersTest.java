@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.Metadata;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class KafkaHeadersTest {
+    private static ConsumerRecord<String, byte[]> makeRecord(Headers headers) {
+        return new ConsumerRecord<>("topic", 0, 0, 0L, TimestampType.CREATE_TIME, 0L, 0, 0, "id", new byte[0], headers);
+    }
+
+    @Test
+    public void testSignalOnlyMessages() {
+        Headers headers = KafkaHeaders.add(new RecordHeaders(), new PubSubMessage("id", Metadata.Signal.KILL), null);
+        Header header = headers.lastHeader(KafkaHeaders.SIGNAL);
+        Assert.assertEquals(new String(header.value(), StandardCharsets.UTF_8), "KILL");
+        Assert.assertTrue(KafkaHeaders.isSignal(makeRecord(headers)));
+    }
+
+    @Test
+    public void testMessagesWithContent() {
+        Headers headers = KafkaHeaders.add(new RecordHeaders(), new PubSubMessage("id", "result", Metadata.Signal.COMPLETE), null);
+        Assert.assertNull(headers.lastHeader(KafkaHeaders.SIGNAL));
+        Assert.assertFalse(KafkaHeaders.isSignal(makeRecord(headers)));
+
+        headers = KafkaHeaders.add(new RecordHeaders(), new PubSubMessage("id", "query"), null);
+        Assert.assertNull(headers.lastHeader(KafkaHeaders.SIGNAL));
+        Assert.assertFalse(KafkaHeaders.isSignal(makeRecord(headers)));
+    }
+
+    @Test
+    public void testSequences() {
+        KafkaHeaders.Sequencer sequencer = new KafkaHeaders.Sequencer();
+        PubSubMessage message = new PubSubMessage("id", "query");
+        byte[] first = KafkaHeaders.getSequence(makeRecord(KafkaHeaders.add(new RecordHeaders(), message, sequencer)));
+        byte[] second = KafkaHeaders.getSequence(makeRecord(KafkaHeaders.add(new RecordHeaders(), message, sequencer)));
+        Assert.assertEquals(first.length, 16);
+        Assert.assertEquals(ByteBuffer.wrap(first).getLong(), ByteBuffer.wrap(second).getLong());
+        Assert.assertEquals(ByteBuffer.wrap(first).getLong(8) + 1, ByteBuffer.wrap(second).getLong(8));
+
+        byte[] other = new KafkaHeaders.Sequencer().next();
+        Assert.assertNotEquals(ByteBuffer.wrap(other).getLong(), ByteBuffer.wrap(first).getLong());
+        Assert.assertNull(KafkaHeaders.getSequence(makeRecord(KafkaHeaders.add(new RecordHeaders(), message, null))));
+    }
+
+    @Test
+    public void testTraces() {
+        Headers query = KafkaHeaders.addTrace(KafkaHeaders.add(new RecordHeaders(), new PubSubMessage("id", "query"), null), "trace", 10L);
+        Assert.assertEquals(KafkaHeaders.getTraceID(makeRecord(query)), "trace");
+        Assert.assertEquals(KafkaHeaders.getTime(makeRecord(query), KafkaHeaders.SUBMIT_TIME), 10L);
+        Assert.assertEquals(KafkaHeaders.getTime(makeRecord(query), KafkaHeaders.RESPONSE_TIME), -1L);
+
+        KafkaMetadata metadata = new KafkaMetadata(new TopicPartition("topic", 0));
+        metadata.setTrace("trace", 10L, 20L);
+        Headers result = KafkaHeaders.addTrace(KafkaHeaders.add(new RecordHeaders(), new PubSubMessage("id", "result"), null), metadata, 30L);
+        Assert.assertEquals(KafkaHeaders.getTraceID(makeRecord(result)), "trace");
+        Assert.assertEquals(KafkaHeaders.getTime(makeRecord(result), KafkaHeaders.SUBMIT_TIME), 10L);
+        Assert.assertEquals(KafkaHeaders.getTime(makeRecord(result), KafkaHeaders.RECEIVE_TIME), 20L);
+        Assert.assertEquals(KafkaHeaders.getTime(makeRecord(result), KafkaHeaders.RESPONSE_TIME), 30L);
+
+        Headers untraced = KafkaHeaders.add(new RecordHeaders(), new PubSubMessage("id", "query"), null);
+        Assert.assertNull(KafkaHeaders.getTraceID(makeRecord(untraced)));
+        untraced.add(KafkaHeaders.SUBMIT_TIME, new byte[] { 1 });
+        Assert.assertEquals(KafkaHeaders.getTime(makeRecord(untraced), KafkaHeaders.SUBMIT_TIME), -1L);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.yahoo.bullet.kafka.TestUtils.makeConsumerRecord;
+import static com.yahoo.bullet.kafka.TestUtils.makeConsumerRecords;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class KafkaMessageStreamTest {
+    private static final TopicPartition PARTITION = new TopicPartition("topic", 0);
+    private static final long WAIT_MS = 5000L;
+
+    private static class CollectingSubscriber implements Subscriber<PubSubMessage> {
+        private final BlockingQueue<PubSubMessage> messages = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+        private Subscription subscription;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(PubSubMessage message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            errors.add(error);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        private PubSubMessage next(long waitMS) throws InterruptedException {
+            return messages.poll(waitMS, TimeUnit.MILLISECONDS);
+        }
+
+        private Throwable error() throws InterruptedException {
+            return errors.poll(WAIT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private KafkaConsumer<String, byte[]> consumer;
+
+    @BeforeMethod
+    public void setup() {
+        consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        Set<TopicPartition> assignment = singleton(PARTITION);
+        when(consumer.assignment()).thenReturn(assignment);
+    }
+
+    @Test(timeOut = 20000L)
+    public void testDeliveryFollowsDemand() throws Exception {
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(PARTITION, 1, new PubSubMessage("b", "")),
+                                                                  makeConsumerRecord(PARTITION, 2, new PubSubMessage("c", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaMessageStream stream = new KafkaMessageStream(new KafkaSubscriber(consumer, 10), 5L);
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        stream.subscribe(subscriber);
+
+        // Nothing is wanted yet so the partitions are paused
+        verify(consumer, timeout(WAIT_MS)).pause(singleton(PARTITION));
+        Assert.assertNull(subscriber.next(100L));
+
+        subscriber.subscription.request(2);
+        Assert.assertEquals(subscriber.next(WAIT_MS).getId(), "a");
+        Assert.assertEquals(subscriber.next(WAIT_MS).getId(), "b");
+        verify(consumer, timeout(WAIT_MS)).resume(singleton(PARTITION));
+        Assert.assertNull(subscriber.next(100L));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Assert.assertEquals(subscriber.next(WAIT_MS).getId(), "c");
+        subscriber.subscription.cancel();
+        stream.close();
+        verify(consumer).close();
+    }
+
+    @Test(timeOut = 20000L)
+    public void testDeliveryDoesNotWaitForTheIdleTime() throws Exception {
+        ConsumerRecords<String, byte[]> none = new ConsumerRecords<>(new HashMap<>());
+        when(consumer.poll(any())).thenReturn(none, none, none)
+                                  .thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION, 0, new PubSubMessage("a", ""))))
+                                  .thenReturn(none);
+        KafkaMessageStream stream = new KafkaMessageStream(new KafkaSubscriber(consumer, 10), 60000L);
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        stream.subscribe(subscriber);
+        verify(consumer, timeout(WAIT_MS)).pause(singleton(PARTITION));
+
+        // The request wakes the thread up and it keeps polling until the message arrives instead of sleeping in between
+        subscriber.subscription.request(1);
+        Assert.assertEquals(subscriber.next(WAIT_MS).getId(), "a");
+        subscriber.subscription.cancel();
+        stream.close();
+    }
+
+    @Test(timeOut = 20000L)
+    public void testDeliveryWaitsForAcknowledgementsAtTheLimit() throws Exception {
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(PARTITION, 1, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaMessageStream stream = new KafkaMessageStream(new KafkaSubscriber(consumer, 1), 60000L);
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        stream.subscribe(subscriber);
+        subscriber.subscription.request(2);
+
+        Assert.assertEquals(subscriber.next(WAIT_MS).getId(), "a");
+        Assert.assertNull(subscriber.next(100L));
+        // The acknowledgement wakes the thread up instead of it waiting for the idle time
+        stream.commit("a");
+        Assert.assertEquals(subscriber.next(WAIT_MS).getId(), "b");
+        subscriber.subscription.cancel();
+        stream.close();
+    }
+
+    @Test(timeOut = 20000L)
+    public void testAcknowledgements() throws Exception {
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(PARTITION, 0, new PubSubMessage("a", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaMessageStream stream = new KafkaMessageStream(new KafkaSubscriber(consumer, 10, true), 5L);
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        stream.subscribe(subscriber);
+        subscriber.subscription.request(10);
+
+        Assert.assertEquals(subscriber.next(WAIT_MS).getId(), "a");
+        stream.fail("a");
+        // Failed messages are delivered again
+        Assert.assertEquals(subscriber.next(WAIT_MS).getId(), "a");
+        stream.commit("a");
+        verify(consumer, timeout(WAIT_MS)).commitAsync(eq(singletonMap(PARTITION, new OffsetAndMetadata(1))), any());
+        stream.close();
+    }
+
+    @Test(timeOut = 20000L)
+    public void testOnlyOneSubscriber() throws Exception {
+        when(consumer.poll(any())).thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaMessageStream stream = new KafkaMessageStream(new KafkaSubscriber(consumer, 10), 5L);
+        stream.subscribe(new CollectingSubscriber());
+        CollectingSubscriber second = new CollectingSubscriber();
+        stream.subscribe(second);
+        Assert.assertTrue(second.error() instanceof IllegalStateException);
+        stream.close();
+    }
+
+    @Test(timeOut = 20000L)
+    public void testNonPositiveRequests() throws Exception {
+        when(consumer.poll(any())).thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaMessageStream stream = new KafkaMessageStream(new KafkaSubscriber(consumer, 10), 5L);
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        stream.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        Assert.assertTrue(subscriber.error() instanceof IllegalArgumentException);
+        stream.close();
+    }
+
+    @Test(timeOut = 20000L)
+    public void testReceiveFailures() throws Exception {
+        when(consumer.poll(any())).thenThrow(new KafkaException());
+        KafkaMessageStream stream = new KafkaMessageStream(new KafkaSubscriber(consumer, 10), 5L);
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        stream.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        Assert.assertTrue(subscriber.error() instanceof PubSubException);
+        stream.close();
+    }
+}
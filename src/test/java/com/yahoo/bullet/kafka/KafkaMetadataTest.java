@@ -10,6 +10,12 @@ import org.apache.kafka.common.TopicPartition;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.util.Collections;
 import java.util.HashMap;
 
@@ -48,4 +54,66 @@ public class KafkaMetadataTest {
         Assert.assertEquals(metadata.getContent(), copy.getContent());
         Assert.assertEquals(metadata.getTopicPartition(), copy.getTopicPartition());
     }
+
+    @Test
+    public void testTraceIsCarried() {
+        KafkaMetadata metadata = new KafkaMetadata(new TopicPartition("foo", 4));
+        Assert.assertFalse(metadata.hasTrace());
+        Assert.assertEquals(metadata.getSubmitTime(), -1L);
+        metadata.setTrace("trace", 10L, 20L);
+        Assert.assertTrue(metadata.hasTrace());
+
+        KafkaMetadata copy = (KafkaMetadata) metadata.copy();
+        Assert.assertEquals(copy.getTraceID(), "trace");
+        Assert.assertEquals(copy.getSubmitTime(), 10L);
+        Assert.assertEquals(copy.getReceiveTime(), 20L);
+
+        KafkaMetadata rerouted = new KafkaMetadata(metadata, new TopicPartition("foo", 5));
+        Assert.assertEquals(rerouted.getTraceID(), "trace");
+        Assert.assertFalse(new KafkaMetadata(new Metadata(), null).hasTrace());
+    }
+
+    @Test
+    public void testTraceSurvivesSerialization() throws Exception {
+        KafkaMetadata metadata = new KafkaMetadata(new TopicPartition("foo", 4));
+        metadata.setTrace("trace", 10L, 20L);
+        KafkaMetadata read = (KafkaMetadata) deserialize(serialize(metadata));
+        Assert.assertEquals(read.getTopicPartition(), new TopicPartition("foo", 4));
+        Assert.assertEquals(read.getTraceID(), "trace");
+        Assert.assertEquals(read.getSubmitTime(), 10L);
+        Assert.assertEquals(read.getReceiveTime(), 20L);
+    }
+
+    @Test
+    public void testMetadataFromBeforeTracesHasNoTimes() throws Exception {
+        byte[] old = serialize(new com.yahoo.bullet.kafka.legacy.KafkaMetadata(new TopicPartition("foo", 4)));
+        KafkaMetadata read = (KafkaMetadata) deserialize(old);
+        Assert.assertEquals(read.getTopicPartition(), new TopicPartition("foo", 4));
+        Assert.assertFalse(read.hasTrace());
+        Assert.assertEquals(read.getSubmitTime(), -1L);
+        Assert.assertEquals(read.getReceiveTime(), -1L);
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+        // Reads the legacy class as the current one, as if it was written before the current one had its new fields
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                if (desc.getName().equals(com.yahoo.bullet.kafka.legacy.KafkaMetadata.class.getName())) {
+                    return KafkaMetadata.class;
+                }
+                return super.resolveClass(desc);
+            }
+        }) {
+            return in.readObject();
+        }
+    }
 }
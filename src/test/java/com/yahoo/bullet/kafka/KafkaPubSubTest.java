@@ -12,19 +12,31 @@ import com.yahoo.bullet.pubsub.PubSubException;
 import com.yahoo.bullet.pubsub.PubSubMessage;
 import com.yahoo.bullet.pubsub.Publisher;
 import com.yahoo.bullet.pubsub.Subscriber;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import static com.yahoo.bullet.kafka.TestUtils.makeConsumerRecords;
 import static java.util.Collections.singletonList;
@@ -69,7 +81,7 @@ public class KafkaPubSubTest {
         publisher.close();
 
         KafkaSubscriber subscriber = (KafkaSubscriber) kafkaPubSub.getSubscriber();
-        KafkaConsumer<String, byte[]> consumer = subscriber.getConsumer();
+        Consumer<String, byte[]> consumer = subscriber.getConsumer();
         Assert.assertEquals(consumer.assignment(), new HashSet<>(responsePartitions));
         consumer.close();
     }
@@ -81,7 +93,7 @@ public class KafkaPubSubTest {
         KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
 
         KafkaSubscriber subscriber = (KafkaSubscriber) kafkaPubSub.getSubscriber();
-        KafkaConsumer<String, byte[]> consumer = subscriber.getConsumer();
+        Consumer<String, byte[]> consumer = subscriber.getConsumer();
         Assert.assertEquals(consumer.assignment(), new HashSet<>(requestPartitions));
         consumer.close();
     }
@@ -264,6 +276,98 @@ public class KafkaPubSubTest {
         kafkaPubSub.getSubscribers(5).forEach(x -> Assert.assertEquals(((KafkaSubscriber) x).getConsumer().subscription(), Collections.singleton("bullet.responses")));
     }
 
+    @Test
+    public void testResponsePartitionsAutoClaim() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        config.set(KafkaConfig.RESPONSE_PARTITIONS_AUTO_CLAIM_ENABLE, true);
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+
+        KafkaSubscriber subscriber = (KafkaSubscriber) kafkaPubSub.getSubscriber();
+        Assert.assertEquals(subscriber.getConsumer().subscription(), Collections.singleton("bullet.responses"));
+        Assert.assertTrue(subscriber.getConsumer().assignment().isEmpty());
+        subscriber.close();
+
+        KafkaQueryPublisher publisher = (KafkaQueryPublisher) kafkaPubSub.getPublisher();
+        Assert.assertEquals(publisher.getWritePartitions(), requestPartitions);
+        Assert.assertTrue(publisher.getReceivePartitions().isEmpty());
+
+        kafkaPubSub.getResponsePartitionClaimer().onPartitionsAssigned(responsePartitions.subList(0, 2));
+        Assert.assertEquals(publisher.getReceivePartitions(), responsePartitions.subList(0, 2));
+        publisher.close();
+    }
+
+    @Test
+    public void testResponsePartitionsAutoClaimIgnoredWhenProcessing() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        config.set(KafkaConfig.RESPONSE_PARTITIONS_AUTO_CLAIM_ENABLE, true);
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        Assert.assertNull(kafkaPubSub.getResponsePartitionClaimer());
+
+        KafkaSubscriber subscriber = (KafkaSubscriber) kafkaPubSub.getSubscriber();
+        Assert.assertEquals(subscriber.getConsumer().assignment(), new HashSet<>(requestPartitions));
+        subscriber.close();
+    }
+
+    @Test
+    public void testStaticMembership() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        config.set(KafkaConfig.REQUEST_PARTITIONS, null);
+        config.set(KafkaConfig.STATIC_MEMBERSHIP_ENABLE, true);
+        config.set(KafkaConfig.STATIC_MEMBERSHIP_INSTANCE_ID, "worker-1");
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+
+        Map<String, Object> properties = kafkaPubSub.getStaticMemberProperties(2);
+        Assert.assertEquals(properties.get(ConsumerConfig.GROUP_INSTANCE_ID_CONFIG), "worker-1-QUERY_PROCESSING-2");
+        Assert.assertEquals(properties.get(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG), KafkaConfig.DEFAULT_STATIC_MEMBERSHIP_SESSION_TIMEOUT_MS);
+
+        List<Subscriber> subscribers = new ArrayList<>(kafkaPubSub.getSubscribers(2));
+        // Later calls continue the numbering so that no two members of this instance share an id
+        subscribers.add(kafkaPubSub.getSubscriber());
+        subscribers.addAll(kafkaPubSub.getSubscribers(1));
+        for (int i = 0; i < 4; ++i) {
+            Consumer<String, byte[]> consumer = ((KafkaSubscriber) subscribers.get(i)).getConsumer();
+            Assert.assertEquals(consumer.groupMetadata().groupInstanceId(), Optional.of("worker-1-QUERY_PROCESSING-" + i));
+            consumer.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testStaticMembershipNeedsAnInstanceID() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        config.set(KafkaConfig.STATIC_MEMBERSHIP_ENABLE, true);
+        new KafkaPubSub(new KafkaConfig(config));
+    }
+
+    @Test
+    public void testStaticMembershipIsNotUsedForAssignedPartitions() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        config.set(KafkaConfig.STATIC_MEMBERSHIP_ENABLE, true);
+        config.set(KafkaConfig.STATIC_MEMBERSHIP_INSTANCE_ID, "worker-1");
+        config.set(KafkaConfig.STATIC_MEMBERSHIP_SESSION_TIMEOUT_MS, 60000);
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+
+        Map<String, Object> properties = kafkaPubSub.getStaticMemberProperties(0);
+        Assert.assertEquals(properties.get(ConsumerConfig.GROUP_INSTANCE_ID_CONFIG), "worker-1-QUERY_SUBMISSION-0");
+        Assert.assertEquals(properties.get(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG), 60000);
+
+        Consumer<String, byte[]> consumer = ((KafkaSubscriber) kafkaPubSub.getSubscriber()).getConsumer();
+        Assert.assertEquals(consumer.groupMetadata().groupInstanceId(), Optional.empty());
+        consumer.close();
+    }
+
+    @Test
+    public void testNoStaticMembershipByDefault() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        Assert.assertNull(kafkaPubSub.getStaticMemberProperties(0));
+    }
+
     @Test
     public void testGetAllPartitions() throws Exception {
         KafkaProducer<String, byte[]> producer = Mockito.mock(KafkaProducer.class);
@@ -274,4 +378,386 @@ public class KafkaPubSubTest {
         Assert.assertEquals(partitions.size(), 1);
         Assert.assertEquals(partitions.get(0), new TopicPartition("bullet", 0));
     }
+
+    @Test
+    public void testMultiplexedSubscribersWithPartitions() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        config.set(KafkaConfig.MULTIPLEX_ENABLE, true);
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        List<Subscriber> subscribers = kafkaPubSub.getSubscribers(3);
+        Assert.assertEquals(subscribers.size(), 2);
+        Consumer<String, byte[]> consumer = ((KafkaSubscriber) subscribers.get(0)).getConsumer();
+        Assert.assertSame(((KafkaSubscriber) subscribers.get(1)).getConsumer(), consumer);
+        Assert.assertEquals(consumer.assignment(), new HashSet<>(requestPartitions));
+        subscribers.forEach(x -> ((KafkaSubscriber) x).close());
+    }
+
+    @Test
+    public void testMultiplexedSubscribersWithoutPartitions() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        config.set(KafkaConfig.RESPONSE_PARTITIONS, null);
+        config.set(KafkaConfig.MULTIPLEX_ENABLE, true);
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        List<Subscriber> subscribers = kafkaPubSub.getSubscribers(5);
+        Assert.assertEquals(subscribers.size(), 5);
+        Consumer<String, byte[]> consumer = ((KafkaSubscriber) subscribers.get(0)).getConsumer();
+        subscribers.forEach(x -> Assert.assertSame(((KafkaSubscriber) x).getConsumer(), consumer));
+        Assert.assertEquals(consumer.subscription(), Collections.singleton("bullet.responses"));
+    }
+
+    @Test
+    public void testSingleSubscriberIsNotMultiplexed() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        config.set(KafkaConfig.MULTIPLEX_ENABLE, true);
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        List<Subscriber> subscribers = kafkaPubSub.getSubscribers(1);
+        Assert.assertEquals(subscribers.size(), 1);
+        Assert.assertEquals(((KafkaSubscriber) subscribers.get(0)).getConsumer().assignment(), new HashSet<>(requestPartitions));
+    }
+
+    @Test
+    public void testDividingPartitions() {
+        Assert.assertEquals(KafkaPubSub.divide(requestPartitions, 3),
+                            Arrays.asList(requestPartitions.subList(0, 2), requestPartitions.subList(2, 4)));
+        Assert.assertEquals(KafkaPubSub.divide(requestPartitions, 4).size(), 4);
+        Assert.assertTrue(KafkaPubSub.divide(Collections.emptyList(), 4).isEmpty());
+    }
+
+    @Test
+    public void testDuplicateFilters() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        Assert.assertNull(((KafkaSubscriber) kafkaPubSub.getSubscriber()).getDuplicateFilter());
+        Assert.assertNull(((KafkaResponsePublisher) kafkaPubSub.getPublisher()).getSequencer());
+
+        config.set(KafkaConfig.DEDUP_ENABLE, true);
+        config.set(KafkaConfig.DEDUP_MAX_ENTRIES, 100);
+        kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        Assert.assertNotNull(((KafkaResponsePublisher) kafkaPubSub.getPublisher()).getSequencer());
+        List<Subscriber> subscribers = kafkaPubSub.getSubscribers(2);
+        DuplicateFilter filter = ((KafkaSubscriber) subscribers.get(0)).getDuplicateFilter();
+        Assert.assertEquals(filter.getCapacity(), 128);
+        Assert.assertNotSame(((KafkaSubscriber) subscribers.get(1)).getDuplicateFilter(), filter);
+    }
+
+    @Test
+    public void testDeadLetterSinks() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        Assert.assertNull(((KafkaSubscriber) kafkaPubSub.getSubscriber()).getDeadLetterSink());
+
+        config.set(KafkaConfig.DEAD_LETTER_FILE, "dead-letters.tsv");
+        kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        Assert.assertTrue(((KafkaSubscriber) kafkaPubSub.getSubscriber()).getDeadLetterSink() instanceof FileDeadLetterSink);
+
+        config.set(KafkaConfig.DEAD_LETTER_TOPIC_NAME, "bullet.dead.letters");
+        kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        Assert.assertTrue(((KafkaSubscriber) kafkaPubSub.getSubscriber()).getDeadLetterSink() instanceof TopicDeadLetterSink);
+        List<Subscriber> subscribers = kafkaPubSub.getSubscribers(2);
+        TopicDeadLetterSink first = (TopicDeadLetterSink) ((KafkaSubscriber) subscribers.get(0)).getDeadLetterSink();
+        TopicDeadLetterSink second = (TopicDeadLetterSink) ((KafkaSubscriber) subscribers.get(1)).getDeadLetterSink();
+        Assert.assertSame(first.getSharedProducer(), second.getSharedProducer());
+    }
+
+    @Test
+    public void testProducerProfiles() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        config.set(KafkaConfig.PRODUCER_LATENCY_NAMESPACE + "linger.ms", "1");
+        config.set(KafkaConfig.PRODUCER_THROUGHPUT_NAMESPACE + "linger.ms", "50");
+        config.set(KafkaConfig.PRODUCER_THROUGHPUT_NAMESPACE + "compression.type", "lz4");
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+
+        Map<String, Object> base = kafkaPubSub.getProducerProperties();
+        Assert.assertEquals(base.get("linger.ms"), "5");
+        Assert.assertFalse(base.keySet().stream().anyMatch(key -> key.startsWith("latency.") || key.startsWith("throughput.")));
+        Assert.assertEquals(kafkaPubSub.getLatencyProducerProperties().get("linger.ms"), "1");
+        Assert.assertNull(kafkaPubSub.getLatencyProducerProperties().get("compression.type"));
+        Assert.assertEquals(kafkaPubSub.getThroughputProducerProperties().get("linger.ms"), "50");
+        Assert.assertEquals(kafkaPubSub.getThroughputProducerProperties().get("compression.type"), "lz4");
+        // Everything else is shared
+        Assert.assertEquals(kafkaPubSub.getThroughputProducerProperties().get("acks"), base.get("acks"));
+        Assert.assertEquals(kafkaPubSub.getLatencyProducerProperties().get(KafkaConfig.BOOTSTRAP_SERVERS.substring(KafkaConfig.KAFKA_NAMESPACE.length())),
+                            base.get(KafkaConfig.BOOTSTRAP_SERVERS.substring(KafkaConfig.KAFKA_NAMESPACE.length())));
+    }
+
+    @Test
+    public void testPublishersStripedByPartition() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        config.set(KafkaConfig.PRODUCER_STRIPES, 4);
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        List<Publisher> publishers = kafkaPubSub.getPublishers(10);
+        Assert.assertEquals(publishers.size(), 10);
+        Assert.assertEquals(new HashSet<>(publishers).size(), 1);
+        Assert.assertTrue(((KafkaQueryPublisher) publishers.get(0)).getProducer() instanceof StripedProducer);
+        publishers.get(0).close();
+    }
+
+    @Test
+    public void testPublishersStripedByPublisher() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        config.set(KafkaConfig.PRODUCER_STRIPES, 3);
+        config.set(KafkaConfig.PRODUCER_STRIPE_BY, KafkaConfig.PUBLISHER_STRIPE_BY);
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        List<Publisher> publishers = kafkaPubSub.getPublishers(5);
+        Assert.assertEquals(publishers.size(), 5);
+        Assert.assertEquals(new HashSet<>(publishers).size(), 3);
+        Assert.assertSame(publishers.get(3), publishers.get(0));
+        Assert.assertNotSame(((KafkaQueryPublisher) publishers.get(1)).getProducer(), ((KafkaQueryPublisher) publishers.get(0)).getProducer());
+        // Fewer producers than stripes when there are fewer publishers
+        Assert.assertEquals(new HashSet<>(kafkaPubSub.getPublishers(2)).size(), 2);
+        Assert.assertEquals(new HashSet<>(kafkaPubSub.getPublishers(1)).size(), 1);
+    }
+
+    @Test
+    public void testSpoolingPublishers() throws Exception {
+        Path spool = Files.createTempDirectory("spool");
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        config.set(KafkaConfig.SPOOL_DIRECTORY, spool.toString());
+        config.set(KafkaConfig.SPOOL_MAX_BYTES, 4096);
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        KafkaQueryPublisher publisher = (KafkaQueryPublisher) kafkaPubSub.getPublisher();
+        Assert.assertTrue(publisher.getProducer() instanceof SpoolingProducer);
+        Assert.assertTrue(Files.exists(spool.resolve("query_submission-0.journal")));
+        publisher.close();
+        Files.delete(spool.resolve("query_submission-0.journal"));
+        Files.delete(spool);
+    }
+
+    @Test
+    public void testCloseTimeout() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        config.set(KafkaConfig.CLOSE_TIMEOUT_MS, 5000);
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        KafkaSubscriber subscriber = (KafkaSubscriber) kafkaPubSub.getSubscriber();
+        Assert.assertEquals(subscriber.getCloseTimeout(), Duration.ofSeconds(5));
+        subscriber.close();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        Assert.assertSame(kafkaPubSub.getMetrics(), KafkaMetrics.NONE);
+
+        config.set(KafkaConfig.METRICS_CLASS_NAME, InMemoryKafkaMetrics.class.getName());
+        kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        KafkaMetrics metrics = kafkaPubSub.getMetrics();
+        Assert.assertTrue(metrics instanceof InMemoryKafkaMetrics);
+        KafkaQueryPublisher publisher = (KafkaQueryPublisher) kafkaPubSub.getPublisher();
+        Assert.assertSame(publisher.getMetrics(), metrics);
+        publisher.close();
+        // The same metrics are kept across context switches
+        kafkaPubSub.switchContext(PubSub.Context.QUERY_PROCESSING, config);
+        Assert.assertSame(kafkaPubSub.getMetrics(), metrics);
+    }
+
+    @Test
+    public void testClientMetrics() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        Assert.assertNull(kafkaPubSub.getClientMetricsExporter());
+
+        config.set(KafkaConfig.METRICS_CLASS_NAME, InMemoryKafkaMetrics.class.getName());
+        config.set(KafkaConfig.CLIENT_METRICS_NAMES, singletonList("connection-count"));
+        kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        ClientMetricsExporter exporter = kafkaPubSub.getClientMetricsExporter();
+        Assert.assertSame(exporter.getMetrics(), kafkaPubSub.getMetrics());
+        Publisher publisher = kafkaPubSub.getPublisher();
+
+        exporter.sample();
+        Map<String, Double> clientMetrics = ((InMemoryKafkaMetrics) kafkaPubSub.getMetrics()).getClientMetrics();
+        Assert.assertTrue(clientMetrics.keySet().stream().anyMatch(name -> name.startsWith("connection-count") &&
+                                                                           name.contains("context=query_submission") &&
+                                                                           name.contains("role=producer")));
+        publisher.close();
+        // The exporter is kept with the metrics across context switches
+        kafkaPubSub.switchContext(PubSub.Context.QUERY_PROCESSING, config);
+        Assert.assertSame(kafkaPubSub.getClientMetricsExporter(), exporter);
+        exporter.close();
+    }
+
+    @Test
+    public void testReadyWithoutWarmup() throws Exception {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        Assert.assertNull(kafkaPubSub.getClientWarmer());
+        Assert.assertTrue(kafkaPubSub.getReadiness().isDone());
+        kafkaPubSub.getReadiness().get();
+    }
+
+    @Test
+    public void testWarmedUpClientsAreUsedFirst() throws Exception {
+        BulletConfig config = new BulletConfig("test_config_no_partitions.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        config.set(KafkaConfig.WARMUP_ENABLE, true);
+        // The clients are created on the thread that warms them up
+        List<KafkaProducer<String, byte[]>> producers = Collections.synchronizedList(new ArrayList<>());
+        List<KafkaConsumer<String, byte[]>> consumers = Collections.synchronizedList(new ArrayList<>());
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config)) {
+            @Override
+            Producer<String, byte[]> newProducer(Map<String, Object> properties) {
+                KafkaProducer<String, byte[]> producer = Mockito.mock(KafkaProducer.class);
+                Mockito.when(producer.partitionsFor(anyString())).thenAnswer(invocation -> {
+                    String topic = (String) invocation.getArguments()[0];
+                    return singletonList(new PartitionInfo(topic, 3, null, null, null));
+                });
+                producers.add(producer);
+                return producer;
+            }
+
+            @Override
+            Consumer<String, byte[]> newConsumer(Map<String, Object> properties) {
+                KafkaConsumer<String, byte[]> consumer = Mockito.mock(KafkaConsumer.class);
+                consumers.add(consumer);
+                return consumer;
+            }
+        };
+        kafkaPubSub.getReadiness().get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(producers.size(), 1);
+        Assert.assertEquals(consumers.size(), 1);
+
+        KafkaQueryPublisher publisher = (KafkaQueryPublisher) kafkaPubSub.getPublisher();
+        Assert.assertSame(publisher.getProducer(), producers.get(0));
+        // The partitions were looked up while warming up
+        Assert.assertEquals(publisher.getWritePartitions(), singletonList(new TopicPartition("bullet.queries", 3)));
+        Assert.assertEquals(publisher.getReceivePartitions(), singletonList(new TopicPartition("bullet.responses", 3)));
+        KafkaSubscriber subscriber = (KafkaSubscriber) kafkaPubSub.getSubscriber();
+        Assert.assertSame(subscriber.getConsumer(), consumers.get(0));
+        Assert.assertEquals(producers.size(), 1);
+        Assert.assertEquals(consumers.size(), 1);
+
+        // The next ones are created as usual
+        Assert.assertNotSame(((KafkaQueryPublisher) kafkaPubSub.getPublisher()).getProducer(), producers.get(0));
+        Assert.assertNotSame(((KafkaSubscriber) kafkaPubSub.getSubscriber()).getConsumer(), consumers.get(0));
+
+        // Switching the context warms up new clients and closes the ones that were not used
+        kafkaPubSub.switchContext(PubSub.Context.QUERY_PROCESSING, config);
+        kafkaPubSub.getReadiness().get(10, TimeUnit.SECONDS);
+        ClientWarmer warmer = kafkaPubSub.getClientWarmer();
+        KafkaProducer<String, byte[]> unusedProducer = producers.get(producers.size() - 1);
+        KafkaConsumer<String, byte[]> unusedConsumer = consumers.get(consumers.size() - 1);
+        kafkaPubSub.switchContext(PubSub.Context.QUERY_PROCESSING, config);
+        Assert.assertNotSame(kafkaPubSub.getClientWarmer(), warmer);
+        Assert.assertNull(warmer.takeProducer());
+        Mockito.verify(unusedProducer).close(Duration.ofMillis(KafkaConfig.DEFAULT_WARMUP_TIMEOUT_MS));
+        Mockito.verify(unusedConsumer).close(Duration.ofMillis(KafkaConfig.DEFAULT_WARMUP_TIMEOUT_MS));
+        kafkaPubSub.getReadiness().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testReconfigureAppliesLiveSettings() throws PubSubException {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        KafkaQueryPublisher publisher = (KafkaQueryPublisher) kafkaPubSub.getPublisher();
+        KafkaSubscriber subscriber = (KafkaSubscriber) kafkaPubSub.getSubscriber();
+        Assert.assertEquals(subscriber.getMaxUncommitted(), 50);
+
+        BulletConfig updated = new BulletConfig("test_config.yaml");
+        updated.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        updated.set(KafkaConfig.MAX_UNCOMMITTED_MESSAGES, 5);
+        updated.set(KafkaConfig.PARTITION_ROUTING_ENABLE, false);
+        updated.set(KafkaConfig.REQUEST_PARTITIONS, Arrays.asList(0, 1));
+        // The response partitions are read in this context and the close timeout is given to the clients when created
+        updated.set(KafkaConfig.RESPONSE_PARTITIONS, singletonList(4));
+        updated.set(KafkaConfig.CLOSE_TIMEOUT_MS, 1000L);
+        Assert.assertEquals(kafkaPubSub.reconfigure(updated),
+                            new HashSet<>(Arrays.asList(KafkaConfig.RESPONSE_PARTITIONS, KafkaConfig.CLOSE_TIMEOUT_MS)));
+
+        Assert.assertEquals(subscriber.getMaxUncommitted(), 5);
+        Assert.assertFalse(publisher.isPartitionRoutingEnabled());
+        Assert.assertEquals(publisher.getWritePartitions(), requestPartitions.subList(0, 2));
+        Assert.assertEquals(publisher.getReceivePartitions(), responsePartitions);
+        // New ones get the applied settings as well
+        KafkaQueryPublisher newPublisher = (KafkaQueryPublisher) kafkaPubSub.getPublisher();
+        Assert.assertFalse(newPublisher.isPartitionRoutingEnabled());
+        Assert.assertEquals(newPublisher.getWritePartitions(), requestPartitions.subList(0, 2));
+        Assert.assertEquals(newPublisher.getReceivePartitions(), responsePartitions);
+        KafkaSubscriber newSubscriber = (KafkaSubscriber) kafkaPubSub.getSubscriber();
+        Assert.assertEquals(newSubscriber.getMaxUncommitted(), 5);
+        Assert.assertEquals(newSubscriber.getConsumer().assignment(), new HashSet<>(responsePartitions));
+
+        // Nothing changes the second time
+        Assert.assertEquals(kafkaPubSub.reconfigure(updated),
+                            new HashSet<>(Arrays.asList(KafkaConfig.RESPONSE_PARTITIONS, KafkaConfig.CLOSE_TIMEOUT_MS)));
+        publisher.close();
+        newPublisher.close();
+        subscriber.close();
+        newSubscriber.close();
+    }
+
+    @Test
+    public void testReconfigureWritesToAllPartitionsIfNoneAreSet() throws PubSubException {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        List<KafkaProducer<String, byte[]>> producers = new ArrayList<>();
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config)) {
+            @Override
+            Producer<String, byte[]> newProducer(Map<String, Object> properties) {
+                KafkaProducer<String, byte[]> producer = Mockito.mock(KafkaProducer.class);
+                Mockito.when(producer.partitionsFor(anyString())).thenAnswer(invocation -> {
+                    String topic = (String) invocation.getArguments()[0];
+                    return singletonList(new PartitionInfo(topic, 9, null, null, null));
+                });
+                producers.add(producer);
+                return producer;
+            }
+        };
+        Publisher publisher = kafkaPubSub.getPublisher();
+
+        BulletConfig updated = new BulletConfig("test_config.yaml");
+        updated.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_PROCESSING");
+        updated.set(KafkaConfig.PARTITION_ROUTING_ENABLE, false);
+        updated.set(KafkaConfig.RESPONSE_PARTITIONS, null);
+        Assert.assertTrue(kafkaPubSub.reconfigure(updated).isEmpty());
+
+        publisher.send(new PubSubMessage("id", ""));
+        ArgumentCaptor<ProducerRecord> record = ArgumentCaptor.forClass(ProducerRecord.class);
+        Mockito.verify(producers.get(0)).send(record.capture());
+        Assert.assertEquals(record.getValue().topic(), "bullet.responses");
+        Assert.assertEquals(record.getValue().partition(), (Integer) 9);
+    }
+
+    @Test
+    public void testReconfigureRejectsInvalidSettings() throws PubSubException {
+        BulletConfig config = new BulletConfig("test_config.yaml");
+        config.set(BulletConfig.PUBSUB_CONTEXT_NAME, "QUERY_SUBMISSION");
+        KafkaPubSub kafkaPubSub = new KafkaPubSub(new KafkaConfig(config));
+        KafkaQueryPublisher publisher = (KafkaQueryPublisher) kafkaPubSub.getPublisher();
+
+        BulletConfig updated = new BulletConfig("test_config.yaml");
+        updated.set(KafkaConfig.PARTITION_ROUTING_ENABLE, false);
+        // This would fall back to the default
+        updated.set(KafkaConfig.MAX_UNCOMMITTED_MESSAGES, -1);
+        try {
+            kafkaPubSub.reconfigure(updated);
+            Assert.fail("The invalid setting was applied");
+        } catch (PubSubException e) {
+            Assert.assertTrue(e.getMessage().contains(KafkaConfig.MAX_UNCOMMITTED_MESSAGES));
+        }
+        // This cannot be fixed at all
+        updated.set(KafkaConfig.MAX_UNCOMMITTED_MESSAGES, 5);
+        updated.set(KafkaConfig.RATE_LIMIT_MAX_MESSAGES, -1);
+        try {
+            kafkaPubSub.reconfigure(updated);
+            Assert.fail("The invalid setting was applied");
+        } catch (PubSubException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertTrue(publisher.isPartitionRoutingEnabled());
+        publisher.close();
+    }
 }
@@ -10,12 +10,15 @@ import com.yahoo.bullet.pubsub.PubSubException;
 import com.yahoo.bullet.pubsub.PubSubMessage;
 import com.yahoo.bullet.pubsub.Publisher;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.TopicPartition;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -68,6 +71,58 @@ public class KafkaQueryPublisherTest {
         Mockito.verify(mockProducer).close();
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testClosesPublisherWithTimeout() {
+        KafkaProducer<String, byte[]> producer = (KafkaProducer<String, byte[]>) Mockito.mock(KafkaProducer.class);
+        new KafkaQueryPublisher(producer, requestPartitionList, responsePartitionList, true, Duration.ofSeconds(5)).close();
+        Mockito.verify(producer).close(Duration.ofSeconds(5));
+        Mockito.verify(producer, Mockito.never()).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMetricsAreRecorded() throws PubSubException {
+        KafkaProducer<String, byte[]> producer = (KafkaProducer<String, byte[]>) Mockito.mock(KafkaProducer.class);
+        KafkaQueryPublisher publisher = new KafkaQueryPublisher(producer, requestPartitionList, responsePartitionList, true);
+        InMemoryKafkaMetrics metrics = new InMemoryKafkaMetrics();
+        publisher.setMetrics(metrics);
+        PubSubMessage message = publisher.send(new PubSubMessage("id", "query"));
+        TopicPartition partition = KafkaMetadata.getPartition(requestPartitionList, message);
+        Assert.assertEquals(metrics.getPartitions().get(partition).getSentMessages(), 1L);
+        Assert.assertTrue(metrics.getPartitions().get(partition).getSentBytes() > 0L);
+        Assert.assertEquals(metrics.getPartitions().get(partition).getSerializationNanos().getCount(), 1L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTracing() throws PubSubException {
+        KafkaProducer<String, byte[]> producer = (KafkaProducer<String, byte[]>) Mockito.mock(KafkaProducer.class);
+        KafkaQueryPublisher publisher = new KafkaQueryPublisher(producer, requestPartitionList, responsePartitionList, true);
+        publisher.send(new PubSubMessage("id", "query"));
+        publisher.setTraceEnabled(true);
+        publisher.send(new PubSubMessage("id", "query"));
+        ArgumentCaptor<ProducerRecord> records = ArgumentCaptor.forClass(ProducerRecord.class);
+        Mockito.verify(producer, Mockito.times(2)).send(records.capture());
+        Assert.assertNull(records.getAllValues().get(0).headers().lastHeader(KafkaHeaders.TRACE_ID));
+        Assert.assertNotNull(records.getAllValues().get(1).headers().lastHeader(KafkaHeaders.TRACE_ID));
+        Assert.assertNotNull(records.getAllValues().get(1).headers().lastHeader(KafkaHeaders.SUBMIT_TIME));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSequencesOnlyWithASequencer() throws PubSubException {
+        KafkaProducer<String, byte[]> producer = (KafkaProducer<String, byte[]>) Mockito.mock(KafkaProducer.class);
+        KafkaQueryPublisher publisher = new KafkaQueryPublisher(producer, requestPartitionList, responsePartitionList, true);
+        publisher.send(new PubSubMessage("id", "query"));
+        publisher.setSequencer(new KafkaHeaders.Sequencer());
+        publisher.send(new PubSubMessage("id", "query"));
+        ArgumentCaptor<ProducerRecord> records = ArgumentCaptor.forClass(ProducerRecord.class);
+        Mockito.verify(producer, Mockito.times(2)).send(records.capture());
+        Assert.assertNull(records.getAllValues().get(0).headers().lastHeader(KafkaHeaders.SEQUENCE));
+        Assert.assertNotNull(records.getAllValues().get(1).headers().lastHeader(KafkaHeaders.SEQUENCE));
+    }
+
     @Test
     public void testConstructorInjectsArgs() {
         KafkaQueryPublisher kafkaQueryPublisher = (KafkaQueryPublisher) publisher;
@@ -10,10 +10,13 @@ import com.yahoo.bullet.pubsub.PubSubException;
 import com.yahoo.bullet.pubsub.PubSubMessage;
 import com.yahoo.bullet.pubsub.Publisher;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.TopicPartition;
+import org.mockito.ArgumentCaptor;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -21,7 +24,11 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static com.yahoo.bullet.kafka.KafkaMetadata.getPartition;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 @SuppressWarnings("unchecked")
@@ -61,6 +68,24 @@ public class KafkaResponsePublisherTest {
         Assert.assertTrue(sentMessages.get(randomID).contains(expected));
     }
 
+    @Test
+    public void testRoutingChangesWhileInUse() throws PubSubException {
+        MessageStore messageStore = new MessageStore();
+        KafkaProducer<String, byte[]> mockProducer = TestUtils.mockProducerTo(messageStore);
+        TopicPartition routed = new TopicPartition("topic", 0);
+        TopicPartition written = new TopicPartition("topic", 9);
+        KafkaResponsePublisher publisher = new KafkaResponsePublisher(mockProducer, responsePartitionList, true);
+        publisher.send(new PubSubMessage("a", "", new KafkaMetadata(routed)));
+
+        publisher.setPartitionRoutingEnabled(false);
+        publisher.setWritePartitions(singletonList(written));
+        publisher.send(new PubSubMessage("b", "", new KafkaMetadata(routed)));
+
+        Map<String, Set<TopicPartition>> sentMessages = messageStore.groupSendPartitionById();
+        Assert.assertEquals(sentMessages.get("a"), singleton(routed));
+        Assert.assertEquals(sentMessages.get("b"), singleton(written));
+    }
+
     @Test(expectedExceptions = PubSubException.class)
     public void testInvalidRouteInformation() throws PubSubException {
         KafkaProducer<String, byte[]> mockProducer = (KafkaProducer<String, byte[]>) mock(KafkaProducer.class);
@@ -82,4 +107,53 @@ public class KafkaResponsePublisherTest {
         publisher.close();
         verify(mockProducer).close();
     }
+
+    @Test
+    public void testCloseWithTimeout() throws Exception {
+        KafkaProducer<String, byte[]> mockProducer = (KafkaProducer<String, byte[]>) mock(KafkaProducer.class);
+        Publisher publisher = new KafkaResponsePublisher(mockProducer, responsePartitionList, true, Duration.ofSeconds(5));
+        publisher.close();
+        verify(mockProducer).close(Duration.ofSeconds(5));
+        verify(mockProducer, never()).close();
+    }
+
+    @Test
+    public void testMetricsAreRecorded() throws PubSubException {
+        KafkaProducer<String, byte[]> mockProducer = (KafkaProducer<String, byte[]>) mock(KafkaProducer.class);
+        KafkaResponsePublisher publisher = new KafkaResponsePublisher(mockProducer, responsePartitionList, true);
+        InMemoryKafkaMetrics metrics = new InMemoryKafkaMetrics();
+        publisher.setMetrics(metrics);
+        TopicPartition partition = new TopicPartition("topic", 3);
+        publisher.send(new PubSubMessage("id", "result", new KafkaMetadata(partition)));
+        publisher.send(new PubSubMessage("id", "result", new KafkaMetadata(partition)));
+        Assert.assertEquals(metrics.getPartitions().get(partition).getSentMessages(), 2L);
+        Assert.assertEquals(metrics.getPartitions().get(partition).getSerializationNanos().getCount(), 2L);
+    }
+
+    @Test
+    public void testSignalHeader() throws PubSubException {
+        KafkaProducer<String, byte[]> mockProducer = (KafkaProducer<String, byte[]>) mock(KafkaProducer.class);
+        Publisher publisher = new KafkaResponsePublisher(mockProducer, responsePartitionList, false);
+        publisher.send(new PubSubMessage("id", Metadata.Signal.FAIL));
+        publisher.send(new PubSubMessage("id", "result", Metadata.Signal.COMPLETE));
+
+        ArgumentCaptor<ProducerRecord> records = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(mockProducer, times(2)).send(records.capture());
+        Assert.assertNotNull(records.getAllValues().get(0).headers().lastHeader(KafkaHeaders.SIGNAL));
+        Assert.assertNull(records.getAllValues().get(1).headers().lastHeader(KafkaHeaders.SIGNAL));
+    }
+
+    @Test
+    public void testSequencesOnlyWithASequencer() throws PubSubException {
+        KafkaProducer<String, byte[]> mockProducer = (KafkaProducer<String, byte[]>) mock(KafkaProducer.class);
+        KafkaResponsePublisher publisher = new KafkaResponsePublisher(mockProducer, responsePartitionList, false);
+        publisher.send(new PubSubMessage("id", "result"));
+        publisher.setSequencer(new KafkaHeaders.Sequencer());
+        publisher.send(new PubSubMessage("id", "result"));
+
+        ArgumentCaptor<ProducerRecord> records = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(mockProducer, times(2)).send(records.capture());
+        Assert.assertNull(records.getAllValues().get(0).headers().lastHeader(KafkaHeaders.SEQUENCE));
+        Assert.assertNotNull(records.getAllValues().get(1).headers().lastHeader(KafkaHeaders.SEQUENCE));
+    }
 }
@@ -9,18 +9,47 @@ import com.yahoo.bullet.pubsub.Metadata;
 import com.yahoo.bullet.pubsub.PubSubException;
 import com.yahoo.bullet.pubsub.PubSubMessage;
 import com.yahoo.bullet.pubsub.Subscriber;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.mockito.ArgumentCaptor;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
+import static com.yahoo.bullet.kafka.TestUtils.makeConsumerRecord;
 import static com.yahoo.bullet.kafka.TestUtils.makeConsumerRecords;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anySet;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -118,6 +147,48 @@ public class KafkaSubscriberTest {
         verify(consumer).close();
     }
 
+    @Test
+    public void testCloseCommitsCommittedOffsetsAndWaitsForTheTimeout() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(partition, 1, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+        subscriber.setCloseTimeout(Duration.ofSeconds(5));
+        subscriber.receive();
+        subscriber.receive();
+        subscriber.commit("a");
+        subscriber.close();
+        // Only the offsets up to the uncommitted b are committed
+        verify(consumer).commitSync(singletonMap(partition, new OffsetAndMetadata(1)), Duration.ofSeconds(5));
+        verify(consumer).close(Duration.ofSeconds(5));
+        verify(consumer, never()).close();
+    }
+
+    @Test
+    public void testCloseClosesTheConsumerWhenTheFinalCommitFails() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, new PubSubMessage("a", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        doThrow(new KafkaException("Testing")).when(consumer).commitSync(anyMap());
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+        subscriber.commit(subscriber.receive().getId());
+        subscriber.close();
+        verify(consumer).commitSync(singletonMap(partition, new OffsetAndMetadata(1)));
+        verify(consumer).close();
+    }
+
+    @Test
+    public void testCloseWithoutManualCommittingDoesNotCommit() {
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        subscriber.close();
+        verify(consumer, never()).commitSync(anyMap());
+        verify(consumer).close();
+    }
+
     @Test
     public void testConstructorInjectsConsumer() {
         KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
@@ -131,8 +202,521 @@ public class KafkaSubscriberTest {
         String randomID = UUID.randomUUID().toString();
         KafkaConsumer<String, byte[]> consumer = makeMockConsumer(randomID, randomMessage);
         KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
-        Assert.assertNotNull(subscriber.receive());
+        PubSubMessage message = subscriber.receive();
+        Assert.assertNotNull(message);
+        // Nothing is committed until the message is
+        verify(consumer, never()).commitAsync(anyMap(), any());
+        subscriber.commit(message.getId());
+        Assert.assertNull(subscriber.receive());
+        verify(consumer).commitAsync(eq(singletonMap(new TopicPartition("testMessage", 0), new OffsetAndMetadata(1))), any());
+        verify(consumer, never()).commitAsync();
+    }
+
+    @Test
+    public void testNoTrackingWithoutManualCommitting() throws PubSubException {
+        String randomID = UUID.randomUUID().toString();
+        KafkaConsumer<String, byte[]> consumer = makeMockConsumer(randomID, "");
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        subscriber.commit(subscriber.receive().getId());
+        subscriber.onPartitionsRevoked(Collections.singleton(new TopicPartition("testMessage", 0)));
+        verify(consumer, never()).commitAsync(anyMap(), any());
+        verify(consumer, never()).commitSync(anyMap());
+    }
+
+    @Test
+    public void testRevokeCommitsAckedOffsetsAndDropsRevokedMessages() throws PubSubException {
+        TopicPartition revoked = new TopicPartition("topic", 0);
+        TopicPartition kept = new TopicPartition("topic", 1);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(revoked, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(revoked, 1, new PubSubMessage("b", "")),
+                                                                  makeConsumerRecord(revoked, 2, new PubSubMessage("c", "")),
+                                                                  makeConsumerRecord(kept, 0, new PubSubMessage("d", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        ConsumerRebalanceListener listener = mock(ConsumerRebalanceListener.class);
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+        subscriber.setRebalanceListener(listener);
+
+        PubSubMessage first = subscriber.receive();
+        PubSubMessage second = subscriber.receive();
+        Assert.assertEquals(first.getId(), "a");
+        Assert.assertEquals(second.getId(), "b");
+        subscriber.commit("a");
+        subscriber.onPartitionsRevoked(Collections.singleton(revoked));
+
+        verify(consumer).commitSync(singletonMap(revoked, new OffsetAndMetadata(1)));
+        verify(listener).onPartitionsRevoked(Collections.singleton(revoked));
+        // b was in flight and c was buffered but both are dropped. Only d from the partition still owned is left.
+        subscriber.commit("b");
+        PubSubMessage third = subscriber.receive();
+        Assert.assertEquals(third.getId(), "d");
+        Assert.assertNull(subscriber.receive());
+        subscriber.commit("d");
+        Assert.assertNull(subscriber.receive());
+        verify(consumer).commitAsync(eq(singletonMap(kept, new OffsetAndMetadata(1))), any());
+    }
+
+    @Test
+    public void testLostDropsMessagesWithoutCommitting() throws PubSubException {
+        TopicPartition lost = new TopicPartition("topic", 0);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(lost, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(lost, 1, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        ConsumerRebalanceListener listener = mock(ConsumerRebalanceListener.class);
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+        subscriber.setRebalanceListener(listener);
+
+        subscriber.commit(subscriber.receive().getId());
+        subscriber.onPartitionsLost(Collections.singleton(lost));
+        verify(consumer, never()).commitSync(anyMap());
+        verify(listener).onPartitionsLost(Collections.singleton(lost));
+        Assert.assertNull(subscriber.receive());
+    }
+
+    @Test
+    public void testAssignedIsPassedOn() {
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        ConsumerRebalanceListener listener = mock(ConsumerRebalanceListener.class);
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+        subscriber.onPartitionsAssigned(Collections.emptyList());
+        subscriber.setRebalanceListener(listener);
+        subscriber.onPartitionsAssigned(Collections.singleton(new TopicPartition("topic", 0)));
+        verify(listener).onPartitionsAssigned(Collections.singleton(new TopicPartition("topic", 0)));
+    }
+
+    @Test
+    public void testStartFromCommittedByDefault() {
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        subscriber.onPartitionsAssigned(Collections.singleton(new TopicPartition("topic", 0)));
+        verify(consumer, never()).seekToEnd(anyCollection());
+        verify(consumer, never()).offsetsForTimes(anyMap());
+    }
+
+    @Test
+    public void testStartFromLatestOnlyOnFirstAssignment() {
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        subscriber.setStartPosition(KafkaSubscriber.StartPosition.LATEST, 0);
+        subscriber.onPartitionsAssigned(Collections.emptyList());
+        verify(consumer, never()).seekToEnd(anyCollection());
+
+        List<TopicPartition> first = Collections.singletonList(new TopicPartition("topic", 0));
+        subscriber.onPartitionsAssigned(first);
+        subscriber.onPartitionsAssigned(Collections.singletonList(new TopicPartition("topic", 1)));
+        verify(consumer).seekToEnd(first);
+        verify(consumer, times(1)).seekToEnd(anyCollection());
+    }
+
+    @Test
+    public void testStartFromTimestamp() {
+        TopicPartition found = new TopicPartition("topic", 0);
+        TopicPartition notFound = new TopicPartition("topic", 1);
+        TopicPartition committed = new TopicPartition("topic", 2);
+        Map<TopicPartition, OffsetAndTimestamp> offsets = new HashMap<>();
+        offsets.put(found, new OffsetAndTimestamp(5, 0));
+        offsets.put(notFound, null);
+        offsets.put(committed, new OffsetAndTimestamp(3, 0));
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.offsetsForTimes(anyMap())).thenReturn(offsets);
+        when(consumer.committed(anySet())).thenReturn(singletonMap(committed, new OffsetAndMetadata(7)));
+
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        subscriber.setStartPosition(KafkaSubscriber.StartPosition.TIMESTAMP, 60000L);
+        long start = System.currentTimeMillis();
+        subscriber.onPartitionsAssigned(Arrays.asList(found, notFound, committed));
+
+        ArgumentCaptor<Map> timestamps = ArgumentCaptor.forClass(Map.class);
+        verify(consumer).offsetsForTimes(timestamps.capture());
+        Assert.assertEquals(timestamps.getValue().size(), 3);
+        long timestamp = (Long) timestamps.getValue().get(found);
+        Assert.assertTrue(timestamp >= start - 60000L && timestamp <= System.currentTimeMillis() - 60000L);
+        verify(consumer).seek(found, 5);
+        verify(consumer).seekToEnd(Collections.singletonList(notFound));
+        verify(consumer, never()).seek(eq(committed), anyLong());
+    }
+
+    @Test
+    public void testStartFromTimestampFailure() {
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.offsetsForTimes(anyMap())).thenThrow(new KafkaException());
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        subscriber.setStartPosition(KafkaSubscriber.StartPosition.TIMESTAMP, 60000L);
+        subscriber.onPartitionsAssigned(Collections.singleton(new TopicPartition("topic", 0)));
+        verify(consumer, never()).seek(any(TopicPartition.class), anyLong());
+        verify(consumer, never()).seekToEnd(anyCollection());
+    }
+
+    @Test
+    public void testStartPositionNames() {
+        Assert.assertEquals(KafkaSubscriber.StartPosition.from(KafkaConfig.COMMITTED_START_POSITION), KafkaSubscriber.StartPosition.COMMITTED);
+        Assert.assertEquals(KafkaSubscriber.StartPosition.from(KafkaConfig.LATEST_START_POSITION), KafkaSubscriber.StartPosition.LATEST);
+        Assert.assertEquals(KafkaSubscriber.StartPosition.from(KafkaConfig.TIMESTAMP_START_POSITION), KafkaSubscriber.StartPosition.TIMESTAMP);
+    }
+
+    @Test
+    public void testExpiredRecordsAreDropped() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        long now = System.currentTimeMillis();
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, now - 20000L, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(partition, 1, now - 20000L, new PubSubMessage("b", Metadata.Signal.KILL)),
+                                                                  makeConsumerRecord(partition, 2, now - 60000L, new PubSubMessage("c", Metadata.Signal.KILL)),
+                                                                  makeConsumerRecord(partition, 3, now, new PubSubMessage("d", "")),
+                                                                  makeConsumerRecord(partition, 4, -1L, new PubSubMessage("e", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+        subscriber.setRecordTTL(10000L, 30000L);
+
+        Assert.assertEquals(subscriber.receive().getId(), "b");
+        Assert.assertEquals(subscriber.receive().getId(), "d");
+        Assert.assertEquals(subscriber.receive().getId(), "e");
+        Assert.assertNull(subscriber.receive());
+        Assert.assertEquals(subscriber.getExpiredCount(), 2L);
+        // The first expired record is committable right away
+        verify(consumer).commitAsync(eq(singletonMap(partition, new OffsetAndMetadata(1))), any());
+
+        subscriber.commit("b");
+        subscriber.commit("d");
+        subscriber.commit("e");
+        Assert.assertNull(subscriber.receive());
+        verify(consumer).commitAsync(eq(singletonMap(partition, new OffsetAndMetadata(5))), any());
+    }
+
+    @Test
+    public void testNoTTLByDefault() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, 0L, new PubSubMessage("a", ""))));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        Assert.assertEquals(subscriber.receive().getId(), "a");
+        Assert.assertEquals(subscriber.getExpiredCount(), 0L);
+    }
+
+    @Test
+    public void testPausing() {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        TopicPartition other = new TopicPartition("topic", 1);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.assignment()).thenReturn(singleton(partition));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        Assert.assertFalse(subscriber.isPaused());
+
+        subscriber.pause();
+        Assert.assertTrue(subscriber.isPaused());
+        verify(consumer).pause(singleton(partition));
+        // Partitions assigned while paused start out paused
+        subscriber.onPartitionsAssigned(singletonList(other));
+        verify(consumer).pause(singletonList(other));
+
+        subscriber.resume();
+        Assert.assertFalse(subscriber.isPaused());
+        verify(consumer).resume(singleton(partition));
+    }
+
+    @Test
+    public void testLongPollWaitsForTheFirstMessages() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(new ConsumerRecords<>(new HashMap<>()))
+                                  .thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(partition, 1, new PubSubMessage("b", "")),
+                                                                  makeConsumerRecord(partition, 2, new PubSubMessage("c", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+
+        List<PubSubMessage> messages = subscriber.receive(2, 60000L, Long.MAX_VALUE);
+        Assert.assertEquals(messages.stream().map(PubSubMessage::getId).collect(Collectors.toList()), Arrays.asList("a", "b"));
+        ArgumentCaptor<Duration> timeouts = ArgumentCaptor.forClass(Duration.class);
+        verify(consumer, times(2)).poll(timeouts.capture());
+        Assert.assertTrue(timeouts.getAllValues().stream().allMatch(timeout -> timeout.toMillis() > 0));
+
+        // The rest are returned right away without blocking
+        messages = subscriber.receive(10, 60000L, Long.MAX_VALUE);
+        Assert.assertEquals(messages.size(), 1);
+        Assert.assertEquals(messages.get(0).getId(), "c");
+        verify(consumer, times(3)).poll(any());
+    }
+
+    @Test
+    public void testLongPollTimesOut() throws PubSubException {
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        Assert.assertTrue(subscriber.receive(10, 0L, Long.MAX_VALUE).isEmpty());
+        verify(consumer).poll(Duration.ZERO);
+        Assert.assertTrue(subscriber.receive(10, 20L, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testLongPollByteBudget() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(partition, 1, new PubSubMessage("b", ""))));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        List<PubSubMessage> messages = subscriber.receive(10, 1000L, 1L);
+        Assert.assertEquals(messages.size(), 1);
+        Assert.assertEquals(subscriber.receive().getId(), "b");
+    }
+
+    @Test
+    public void testLongPollReturnsTheMessagesReadBeforeAFailedPoll() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, new PubSubMessage("a", ""))))
+                                  .thenThrow(new KafkaException())
+                                  .thenThrow(new KafkaException());
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+
+        List<PubSubMessage> messages = subscriber.receive(10, 60000L, Long.MAX_VALUE);
+        Assert.assertEquals(messages.size(), 1);
+        Assert.assertEquals(messages.get(0).getId(), "a");
+        verify(consumer, times(2)).poll(any());
+
+        // Nothing was read before the failure this time
+        try {
+            subscriber.receive(10, 60000L, Long.MAX_VALUE);
+            Assert.fail("The failed poll was not thrown");
+        } catch (PubSubException e) {
+            Assert.assertTrue(e.getCause() instanceof KafkaException);
+        }
+    }
+
+    @Test
+    public void testLongPollDoesNotWaitAtLimits() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, new PubSubMessage("a", ""))));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 1);
+        Assert.assertEquals(subscriber.receive(10, 60000L, Long.MAX_VALUE).size(), 1);
+        // The maximum uncommitted messages has been reached so the consumer is not polled
+        Assert.assertTrue(subscriber.receive(10, 60000L, Long.MAX_VALUE).isEmpty());
+        verify(consumer, times(1)).poll(any());
+    }
+
+    @Test
+    public void testRateLimit() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(partition, 1, new PubSubMessage("b", "")),
+                                                                  makeConsumerRecord(partition, 2, new PubSubMessage("c", ""))));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, 2, 60000L, false);
+        Assert.assertEquals(subscriber.receive().getId(), "a");
+        Assert.assertEquals(subscriber.receive().getId(), "b");
+        Assert.assertNull(subscriber.receive());
+    }
+
+    @Test
+    public void testLimitsCanChangeWhileInUse() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, new PubSubMessage("a", "")),
+                                                                  makeConsumerRecord(partition, 1, new PubSubMessage("b", "")),
+                                                                  makeConsumerRecord(partition, 2, new PubSubMessage("c", "")),
+                                                                  makeConsumerRecord(partition, 3, new PubSubMessage("d", "")),
+                                                                  makeConsumerRecord(partition, 4, new PubSubMessage("e", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 1);
+        Assert.assertEquals(subscriber.receive().getId(), "a");
+        Assert.assertNull(subscriber.receive());
+
+        subscriber.setLimits(3, false, 0, 0L);
+        Assert.assertEquals(subscriber.receive().getId(), "b");
+        Assert.assertEquals(subscriber.receive().getId(), "c");
+        Assert.assertNull(subscriber.receive());
+
+        // The messages received before the rate limit was turned on do not count towards it
+        subscriber.setLimits(10, true, 1, 60000L);
+        Assert.assertEquals(subscriber.receive().getId(), "d");
+        Assert.assertNull(subscriber.receive());
+
+        subscriber.setLimits(10, false, 0, 0L);
+        Assert.assertEquals(subscriber.receive().getId(), "e");
+        // Lowering the limit below the messages that are not committed yet waits for commits
+        subscriber.setLimits(2, false, 0, 0L);
+        subscriber.commit("a");
+        subscriber.commit("b");
+        Assert.assertNull(subscriber.receive());
+        verify(consumer, times(1)).poll(any());
+        subscriber.commit("c");
+        subscriber.commit("d");
+        Assert.assertNull(subscriber.receive());
+        verify(consumer, times(2)).poll(any());
+    }
+
+    @Test
+    public void testDuplicatesAreDropped() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        KafkaHeaders.Sequencer sequencer = new KafkaHeaders.Sequencer();
+        PubSubMessage query = new PubSubMessage("a", "query");
+        PubSubMessage kill = new PubSubMessage("a", Metadata.Signal.KILL);
+        Headers first = KafkaHeaders.add(new RecordHeaders(), query, sequencer);
+        Headers second = KafkaHeaders.add(new RecordHeaders(), kill, sequencer);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, query, first),
+                                                                  makeConsumerRecord(partition, 1, query, first),
+                                                                  makeConsumerRecord(partition, 2, kill, second),
+                                                                  makeConsumerRecord(partition, 3, new PubSubMessage("b", "")),
+                                                                  makeConsumerRecord(partition, 4, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+        subscriber.setDuplicateFilter(new DuplicateFilter(16, 60000L));
+
+        Assert.assertEquals(subscriber.receive().getContent(), "query");
+        Assert.assertTrue(subscriber.receive().hasSignal(Metadata.Signal.KILL));
+        // Each commit acknowledges one of the records received for the id
+        subscriber.commit("a");
+        subscriber.commit("a");
+        // Messages without a sequence are never taken for duplicates
+        Assert.assertEquals(subscriber.receive().getId(), "b");
+        Assert.assertEquals(subscriber.receive().getId(), "b");
+        Assert.assertNull(subscriber.receive());
+        Assert.assertEquals(subscriber.getDuplicateCount(), 1L);
+        subscriber.commit("b");
+        subscriber.commit("b");
+        Assert.assertNull(subscriber.receive());
+        verify(consumer).commitAsync(eq(singletonMap(partition, new OffsetAndMetadata(5))), any());
+    }
+
+    @Test
+    public void testUnreadableRecordsAreSkipped() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        ConsumerRecord<String, byte[]> garbage = new ConsumerRecord<>("topic", 0, 1, "b", new byte[] {1, 2, 3});
+        ConsumerRecord<String, byte[]> empty = new ConsumerRecord<>("topic", 0, 2, "c", null);
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(partition, 0, new PubSubMessage("a", "")),
+                                                                  garbage, empty,
+                                                                  makeConsumerRecord(partition, 3, new PubSubMessage("d", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        DeadLetterSink sink = mock(DeadLetterSink.class);
+        CompletableFuture<Void> stored = new CompletableFuture<>();
+        when(sink.send(eq(garbage), anyString())).thenReturn(stored);
+        doThrow(new RuntimeException("Testing")).when(sink).send(eq(empty), anyString());
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+        subscriber.setDeadLetterSink(sink);
+
+        Assert.assertEquals(subscriber.receive().getId(), "a");
+        Assert.assertEquals(subscriber.receive().getId(), "d");
+        Assert.assertEquals(subscriber.getUnreadableCount(), 2L);
+        verify(sink).send(eq(garbage), anyString());
+        verify(sink).send(eq(empty), anyString());
+
+        subscriber.commit("a");
+        subscriber.commit("d");
+        // The garbage is not committed past until the sink has stored it
+        Assert.assertNull(subscriber.receive());
+        verify(consumer).commitAsync(eq(singletonMap(partition, new OffsetAndMetadata(1))), any());
+        stored.complete(null);
+        Assert.assertNull(subscriber.receive());
+        verify(consumer).commitAsync(eq(singletonMap(partition, new OffsetAndMetadata(4))), any());
+
+        subscriber.close();
+        verify(sink).close();
+    }
+
+    @Test
+    public void testDeadLettersStoredWhileTheLockIsHeldDoNotWaitForIt() throws Exception {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        ConsumerRecord<String, byte[]> garbage = new ConsumerRecord<>("topic", 0, 0, "a", new byte[] {1, 2, 3});
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(garbage, makeConsumerRecord(partition, 1, new PubSubMessage("b", ""))))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        DeadLetterSink sink = mock(DeadLetterSink.class);
+        CompletableFuture<Void> stored = new CompletableFuture<>();
+        when(sink.send(eq(garbage), anyString())).thenReturn(stored);
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+        subscriber.setDeadLetterSink(sink);
+        Assert.assertEquals(subscriber.receive().getId(), "b");
+        subscriber.commit("b");
+
+        // The sink completes on its own thread, which must not wait for the subscriber
+        Thread completer = new Thread(() -> stored.complete(null));
+        synchronized (subscriber) {
+            completer.start();
+            completer.join(10000L);
+            Assert.assertFalse(completer.isAlive());
+        }
+        Assert.assertNull(subscriber.receive());
+        verify(consumer).commitAsync(eq(singletonMap(partition, new OffsetAndMetadata(2))), any());
+    }
+
+    @Test
+    public void testMetricsAreRecorded() throws PubSubException {
+        TopicPartition partition = new TopicPartition("topic", 0);
+        long now = System.currentTimeMillis();
+        ConsumerRecord<String, byte[]> message = makeConsumerRecord(partition, 0, now, new PubSubMessage("a", "foo"));
+        KafkaConsumer<String, byte[]> consumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(consumer.poll(any())).thenReturn(makeConsumerRecords(message,
+                                                                  makeConsumerRecord(partition, 1, now - 20000L, new PubSubMessage("b", "")),
+                                                                  new ConsumerRecord<>("topic", 0, 2, "c", new byte[] {1, 2, 3})))
+                                  .thenReturn(new ConsumerRecords<>(new HashMap<>()));
+        InMemoryKafkaMetrics metrics = new InMemoryKafkaMetrics();
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+        subscriber.setRecordTTL(10000L, 10000L);
+        subscriber.setMetrics(metrics);
+
+        Assert.assertEquals(subscriber.receive().getId(), "a");
         Assert.assertNull(subscriber.receive());
-        verify(consumer, times(2)).commitAsync();
+        InMemoryKafkaMetrics.PartitionMetrics measured = metrics.getPartitions().get(partition);
+        Assert.assertEquals(measured.getReceivedMessages(), 1L);
+        Assert.assertEquals(measured.getReceivedBytes(), (long) message.value().length);
+        Assert.assertEquals(measured.getDeserializationNanos().getCount(), 1L);
+        Assert.assertEquals(measured.getDropped(KafkaMetrics.DropReason.EXPIRED), 1L);
+        Assert.assertEquals(measured.getDropped(KafkaMetrics.DropReason.UNREADABLE), 1L);
+        Assert.assertEquals(metrics.getPollRecords().getCount(), 2L);
+        Assert.assertEquals(metrics.getPollRecords().getMax(), 3L);
+    }
+
+    @Test
+    public void testTracesAreCarriedFromQueriesToResults() throws PubSubException {
+        TopicPartition queries = new TopicPartition("queries", 0);
+        TopicPartition results = new TopicPartition("results", 0);
+        long submitted = System.currentTimeMillis() - 3000L;
+
+        // The backend reads a traced query
+        Headers queryHeaders = KafkaHeaders.addTrace(KafkaHeaders.add(new RecordHeaders(), new PubSubMessage("a", "query"), null), "trace", submitted);
+        KafkaConsumer<String, byte[]> backendConsumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(backendConsumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(queries, 0, new PubSubMessage("a", "query"), queryHeaders)));
+        KafkaSubscriber backend = new KafkaSubscriber(backendConsumer, 10);
+        PubSubMessage query = backend.receive();
+        KafkaMetadata metadata = (KafkaMetadata) query.getMetadata();
+        Assert.assertEquals(metadata.getTraceID(), "trace");
+        Assert.assertEquals(metadata.getSubmitTime(), submitted);
+        Assert.assertTrue(metadata.getReceiveTime() >= submitted + 3000L);
+
+        // It sends back a result with the same metadata
+        KafkaProducer<String, byte[]> producer = (KafkaProducer<String, byte[]>) mock(KafkaProducer.class);
+        new KafkaResponsePublisher(producer, singletonList(results), false).send(new PubSubMessage("a", "result", metadata.copy()));
+        ArgumentCaptor<ProducerRecord> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(producer).send(sent.capture());
+        Headers resultHeaders = sent.getValue().headers();
+
+        // The web service reads the result and measures the stages
+        KafkaConsumer<String, byte[]> webConsumer = (KafkaConsumer<String, byte[]>) mock(KafkaConsumer.class);
+        when(webConsumer.poll(any())).thenReturn(makeConsumerRecords(makeConsumerRecord(results, 0, new PubSubMessage("a", "result"), resultHeaders)));
+        KafkaMetrics metrics = mock(KafkaMetrics.class);
+        KafkaSubscriber web = new KafkaSubscriber(webConsumer, 10);
+        web.setMetrics(metrics);
+        Assert.assertEquals(web.receive().getId(), "a");
+        ArgumentCaptor<Long> queryQueueing = ArgumentCaptor.forClass(Long.class);
+        ArgumentCaptor<Long> processing = ArgumentCaptor.forClass(Long.class);
+        ArgumentCaptor<Long> responseQueueing = ArgumentCaptor.forClass(Long.class);
+        verify(metrics).recordTrace(eq("trace"), queryQueueing.capture(), processing.capture(), responseQueueing.capture());
+        Assert.assertTrue(queryQueueing.getValue() >= 3000L);
+        Assert.assertTrue(processing.getValue() >= 0L);
+        Assert.assertTrue(responseQueueing.getValue() >= 0L);
+    }
+
+    @Test
+    public void testUntracedRecordsAreNotTraced() throws PubSubException {
+        KafkaConsumer<String, byte[]> consumer = makeMockConsumer("a", "query");
+        KafkaMetrics metrics = mock(KafkaMetrics.class);
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10);
+        subscriber.setMetrics(metrics);
+        Assert.assertNull(subscriber.receive().getMetadata());
+        verify(metrics, never()).recordTrace(anyString(), anyLong(), anyLong(), anyLong());
     }
 }
@@ -0,0 +1,234 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.Metadata;
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import com.yahoo.bullet.pubsub.Subscriber;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.yahoo.bullet.kafka.TestUtils.makeConsumerRecord;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KeyOrderedProcessorTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testLanesMustBePositive() {
+        new KeyOrderedProcessor(mock(Subscriber.class), 0, 10, TIMEOUT, message -> { });
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaxPendingMustBePositive() {
+        new KeyOrderedProcessor(mock(Subscriber.class), 1, 0, TIMEOUT, message -> { });
+    }
+
+    @Test
+    public void testLanesAreStablePerID() {
+        KeyOrderedProcessor processor = new KeyOrderedProcessor(mock(Subscriber.class), 4, 10, TIMEOUT, message -> { });
+        for (String id : new String[] {"a", "b", "c", "query-42"}) {
+            int lane = processor.getLane(id);
+            Assert.assertTrue(lane >= 0 && lane < 4);
+            Assert.assertEquals(processor.getLane(id), lane);
+        }
+    }
+
+    @Test(timeOut = 10000L)
+    public void testMessagesAreProcessedInOrderPerIDAndCommitted() throws Exception {
+        Subscriber subscriber = mock(Subscriber.class);
+        when(subscriber.receive()).thenReturn(new PubSubMessage("a", "1"), new PubSubMessage("b", "1"),
+                                              new PubSubMessage("a", "2"), new PubSubMessage("b", "2"),
+                                              new PubSubMessage("a", "3"), (PubSubMessage) null);
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(5);
+        KeyOrderedProcessor processor = new KeyOrderedProcessor(subscriber, 2, 10, TIMEOUT, message -> {
+            processed.add(message.getId() + message.getContent());
+            latch.countDown();
+        });
+        processor.start();
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        processor.close();
+
+        List<String> forA = new ArrayList<>();
+        List<String> forB = new ArrayList<>();
+        processed.forEach(entry -> (entry.startsWith("a") ? forA : forB).add(entry));
+        Assert.assertEquals(forA, Arrays.asList("a1", "a2", "a3"));
+        Assert.assertEquals(forB, Arrays.asList("b1", "b2"));
+        verify(subscriber, times(3)).commit("a");
+        verify(subscriber, times(2)).commit("b");
+    }
+
+    @Test(timeOut = 10000L)
+    public void testFailedMessagesAreProcessedAgainBeforeLaterMessagesForTheSameID() throws Exception {
+        Subscriber subscriber = mock(Subscriber.class);
+        when(subscriber.receive()).thenReturn(new PubSubMessage("a", "1"), new PubSubMessage("a", "2"), (PubSubMessage) null);
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(3);
+        KeyOrderedProcessor processor = new KeyOrderedProcessor(subscriber, 1, 10, TIMEOUT, message -> {
+            processed.add(message.getContent().toString());
+            latch.countDown();
+            if (processed.size() == 1) {
+                throw new RuntimeException("Testing");
+            }
+        });
+        processor.start();
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        processor.close();
+
+        // The first message is the one delivered again and the second one waits for it
+        Assert.assertEquals(processed, Arrays.asList("1", "1", "2"));
+        verify(subscriber, times(2)).commit("a");
+        verify(subscriber, never()).fail(anyString());
+    }
+
+    @Test(timeOut = 10000L)
+    public void testOnlyOneMessagePerIDIsProcessedAtATime() throws Exception {
+        Subscriber subscriber = mock(Subscriber.class);
+        when(subscriber.receive()).thenReturn(new PubSubMessage("a", "1"), new PubSubMessage("a", "2"), (PubSubMessage) null);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        KeyOrderedProcessor processor = new KeyOrderedProcessor(subscriber, 1, 10, TIMEOUT, message -> {
+            processed.add(message.getContent().toString());
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        processor.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        verify(subscriber, timeout(5000L).atLeast(3)).receive();
+        Assert.assertEquals(processed, Collections.singletonList("1"));
+
+        release.countDown();
+        verify(subscriber, timeout(5000L).times(2)).commit("a");
+        processor.close();
+        Assert.assertEquals(processed, Arrays.asList("1", "2"));
+    }
+
+    @Test(timeOut = 10000L)
+    public void testMessagesAreNotReceivedPastTheMaximumPending() throws Exception {
+        Subscriber subscriber = mock(Subscriber.class);
+        when(subscriber.receive()).thenReturn(new PubSubMessage("a", "1"), new PubSubMessage("a", "2"),
+                                              new PubSubMessage("b", "1"), (PubSubMessage) null);
+        CountDownLatch release = new CountDownLatch(1);
+        KeyOrderedProcessor processor = new KeyOrderedProcessor(subscriber, 2, 2, TIMEOUT, message -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        processor.start();
+        verify(subscriber, timeout(5000L).times(2)).receive();
+        Thread.sleep(100L);
+        verify(subscriber, times(2)).receive();
+
+        release.countDown();
+        verify(subscriber, timeout(5000L).times(2)).commit("a");
+        verify(subscriber, timeout(5000L)).commit("b");
+        processor.close();
+    }
+
+    @Test(timeOut = 10000L)
+    public void testCloseGivesUpOnMessagesAfterTheTimeout() throws Exception {
+        Subscriber subscriber = mock(Subscriber.class);
+        when(subscriber.receive()).thenReturn(new PubSubMessage("a", "1"), (PubSubMessage) null);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        KeyOrderedProcessor processor = new KeyOrderedProcessor(subscriber, 1, 10, Duration.ofMillis(100L), message -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new RuntimeException(e);
+            }
+        });
+        processor.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        processor.close();
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        verify(subscriber, never()).commit(anyString());
+    }
+
+    @Test(timeOut = 10000L)
+    public void testReceiveFailuresAreSkipped() throws Exception {
+        Subscriber subscriber = mock(Subscriber.class);
+        when(subscriber.receive()).thenThrow(new PubSubException("Testing")).thenReturn(new PubSubMessage("a", "1"), (PubSubMessage) null);
+        CountDownLatch latch = new CountDownLatch(1);
+        KeyOrderedProcessor processor = new KeyOrderedProcessor(subscriber, 1, 10, TIMEOUT, message -> latch.countDown());
+        processor.start();
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        processor.close();
+        verify(subscriber).commit("a");
+        // Closing twice is harmless
+        processor.close();
+    }
+
+    @Test(timeOut = 10000L)
+    public void testOffsetsAreNotCommittedPastMessagesInFlightForTheSameID() throws Exception {
+        TopicPartition partition = new TopicPartition("queries", 0);
+        MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.assign(Collections.singletonList(partition));
+        consumer.updateBeginningOffsets(Collections.singletonMap(partition, 0L));
+        consumer.addRecord(makeConsumerRecord(partition, 0L, new PubSubMessage("a", "query")));
+        consumer.addRecord(makeConsumerRecord(partition, 1L, new PubSubMessage("a", Metadata.Signal.KILL)));
+        KafkaSubscriber subscriber = new KafkaSubscriber(consumer, 10, true);
+
+        CountDownLatch killStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        KeyOrderedProcessor processor = new KeyOrderedProcessor(subscriber, 2, 10, TIMEOUT, message -> {
+            if (message.getMetadata() != null && message.getMetadata().getSignal() == Metadata.Signal.KILL) {
+                killStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        processor.start();
+        Assert.assertTrue(killStarted.await(5, TimeUnit.SECONDS));
+
+        // The query is done and committed but the kill for the same id is still being processed
+        OffsetAndMetadata committed = null;
+        while (committed == null) {
+            committed = consumer.committed(Collections.singleton(partition)).get(partition);
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(committed.offset(), 1L);
+
+        release.countDown();
+        processor.close();
+        // The next poll commits the kill
+        subscriber.receive();
+        Assert.assertEquals(consumer.committed(Collections.singleton(partition)).get(partition).offset(), 2L);
+    }
+}
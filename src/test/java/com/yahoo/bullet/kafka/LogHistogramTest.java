@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LogHistogramTest {
+    @Test
+    public void testEmpty() {
+        LogHistogram histogram = new LogHistogram();
+        Assert.assertEquals(histogram.getCount(), 0L);
+        Assert.assertEquals(histogram.getSum(), 0L);
+        Assert.assertEquals(histogram.getMax(), 0L);
+        Assert.assertEquals(histogram.getPercentile(50.0), 0L);
+    }
+
+    @Test
+    public void testCountSumAndMax() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(3L);
+        histogram.record(10L);
+        histogram.record(-5L);
+        Assert.assertEquals(histogram.getCount(), 3L);
+        Assert.assertEquals(histogram.getSum(), 13L);
+        Assert.assertEquals(histogram.getMax(), 10L);
+    }
+
+    @Test
+    public void testPercentilesAreWithinAFactorOfTwo() {
+        LogHistogram histogram = new LogHistogram();
+        for (long i = 1; i <= 1000; ++i) {
+            histogram.record(i);
+        }
+        long median = histogram.getPercentile(50.0);
+        Assert.assertTrue(median >= 500L && median < 1000L);
+        long p99 = histogram.getPercentile(99.0);
+        Assert.assertTrue(p99 >= 990L && p99 <= 1000L);
+        Assert.assertEquals(histogram.getPercentile(100.0), 1000L);
+        Assert.assertEquals(histogram.getPercentile(0.0), 1L);
+        // Out of range percentiles are clamped
+        Assert.assertEquals(histogram.getPercentile(200.0), 1000L);
+    }
+
+    @Test
+    public void testZerosAndLargeValues() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(0L);
+        histogram.record(0L);
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(histogram.getPercentile(50.0), 0L);
+        Assert.assertEquals(histogram.getPercentile(100.0), Long.MAX_VALUE);
+    }
+}
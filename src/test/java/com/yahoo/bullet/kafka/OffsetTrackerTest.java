@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+public class OffsetTrackerTest {
+    private static final TopicPartition PARTITION_A = new TopicPartition("topic", 0);
+    private static final TopicPartition PARTITION_B = new TopicPartition("topic", 1);
+
+    @Test
+    public void testCommittableStopsAtLowestPending() {
+        OffsetTracker tracker = new OffsetTracker();
+        tracker.track("a", PARTITION_A, 10);
+        tracker.track("b", PARTITION_A, 11);
+        tracker.track("c", PARTITION_A, 12);
+        Assert.assertTrue(tracker.getCommittable().isEmpty());
+
+        tracker.ack("b");
+        Assert.assertTrue(tracker.getCommittable().isEmpty());
+
+        tracker.ack("a");
+        Assert.assertEquals(tracker.getCommittable(), Collections.singletonMap(PARTITION_A, new OffsetAndMetadata(12)));
+        // Already returned
+        Assert.assertTrue(tracker.getCommittable().isEmpty());
+
+        tracker.ack("c");
+        Assert.assertEquals(tracker.getCommittable(), Collections.singletonMap(PARTITION_A, new OffsetAndMetadata(13)));
+        Assert.assertEquals(tracker.getPendingCount(), 0);
+    }
+
+    @Test
+    public void testAckAcknowledgesOneRecordForAnID() {
+        OffsetTracker tracker = new OffsetTracker();
+        tracker.track("a", PARTITION_A, 0);
+        tracker.track("a", PARTITION_A, 1);
+        tracker.ack("a");
+        Assert.assertEquals(tracker.getCommittable(), Collections.singletonMap(PARTITION_A, new OffsetAndMetadata(1)));
+        Assert.assertEquals(tracker.getPendingCount(), 1);
+        tracker.ack("a");
+        Assert.assertEquals(tracker.getCommittable(), Collections.singletonMap(PARTITION_A, new OffsetAndMetadata(2)));
+        // Spurious acks are ignored
+        tracker.ack("a");
+        tracker.ack("b");
+        Assert.assertTrue(tracker.getCommittable().isEmpty());
+    }
+
+    @Test
+    public void testConsumedRecordsAdvanceOffsets() {
+        OffsetTracker tracker = new OffsetTracker();
+        tracker.consumed(PARTITION_A, 4);
+        Assert.assertEquals(tracker.getCommittable(), Collections.singletonMap(PARTITION_A, new OffsetAndMetadata(5)));
+        tracker.track("a", PARTITION_A, 5);
+        tracker.consumed(PARTITION_A, 6);
+        Assert.assertTrue(tracker.getCommittable().isEmpty());
+        tracker.ack("a");
+        Assert.assertEquals(tracker.getCommittable(), Collections.singletonMap(PARTITION_A, new OffsetAndMetadata(7)));
+    }
+
+    @Test
+    public void testCommittableForSomePartitions() {
+        OffsetTracker tracker = new OffsetTracker();
+        tracker.consumed(PARTITION_A, 0);
+        tracker.consumed(PARTITION_B, 0);
+        Assert.assertEquals(tracker.getCommittable(Collections.singleton(PARTITION_B)),
+                            Collections.singletonMap(PARTITION_B, new OffsetAndMetadata(1)));
+        Assert.assertEquals(tracker.getCommittable(), Collections.singletonMap(PARTITION_A, new OffsetAndMetadata(1)));
+    }
+
+    @Test
+    public void testRemovePartitions() {
+        OffsetTracker tracker = new OffsetTracker();
+        tracker.track("a", PARTITION_A, 0);
+        tracker.track("b", PARTITION_B, 0);
+        tracker.track("c", PARTITION_B, 1);
+        Assert.assertTrue(tracker.remove(Collections.emptyList()).isEmpty());
+        Assert.assertEquals(tracker.remove(Collections.singleton(PARTITION_B)), new HashSet<>(Arrays.asList("b", "c")));
+        Assert.assertEquals(tracker.getPendingCount(), 1);
+
+        tracker.ack("b");
+        tracker.ack("a");
+        Map<TopicPartition, OffsetAndMetadata> expected = new HashMap<>();
+        expected.put(PARTITION_A, new OffsetAndMetadata(1));
+        Assert.assertEquals(tracker.getCommittable(), expected);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import com.yahoo.bullet.pubsub.PubSubException;
+import com.yahoo.bullet.pubsub.PubSubMessage;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ResponsePartitionClaimerTest {
+    private static final List<TopicPartition> WRITE_PARTITIONS = Collections.singletonList(new TopicPartition("queries", 0));
+
+    private static KafkaQueryPublisher makePublisher(MessageStore messageStore) {
+        KafkaProducer<String, byte[]> producer = TestUtils.mockProducerTo(messageStore);
+        return new KafkaQueryPublisher(producer, WRITE_PARTITIONS, null, true);
+    }
+
+    @Test
+    public void testRegisterUsesCurrentClaims() {
+        ResponsePartitionClaimer claimer = new ResponsePartitionClaimer();
+        claimer.onPartitionsAssigned(Arrays.asList(new TopicPartition("responses", 3), new TopicPartition("responses", 1)));
+
+        KafkaQueryPublisher publisher = makePublisher(new MessageStore());
+        claimer.register(publisher);
+
+        List<TopicPartition> expected = Arrays.asList(new TopicPartition("responses", 1), new TopicPartition("responses", 3));
+        Assert.assertEquals(claimer.getPartitions(), expected);
+        Assert.assertEquals(publisher.getReceivePartitions(), expected);
+    }
+
+    @Test
+    public void testRebalanceUpdatesPublishers() throws PubSubException {
+        MessageStore messageStore = new MessageStore();
+        ResponsePartitionClaimer claimer = new ResponsePartitionClaimer();
+        KafkaQueryPublisher publisher = makePublisher(messageStore);
+        claimer.register(publisher);
+        Assert.assertTrue(publisher.getReceivePartitions().isEmpty());
+
+        TopicPartition first = new TopicPartition("responses", 0);
+        TopicPartition second = new TopicPartition("responses", 1);
+        claimer.onPartitionsAssigned(Arrays.asList(first, second));
+        Assert.assertEquals(publisher.getReceivePartitions(), Arrays.asList(first, second));
+
+        claimer.onPartitionsRevoked(Collections.singletonList(first));
+        Assert.assertEquals(publisher.getReceivePartitions(), Collections.singletonList(second));
+
+        publisher.send(new PubSubMessage("id", "query"));
+        Assert.assertEquals(messageStore.groupReceivePartitionById().get("id"), Collections.singleton(second));
+    }
+
+    @Test
+    public void testClaimsFromMultipleConsumersAreCombined() {
+        ResponsePartitionClaimer claimer = new ResponsePartitionClaimer();
+        KafkaQueryPublisher publisher = makePublisher(new MessageStore());
+        claimer.register(publisher);
+
+        claimer.onPartitionsAssigned(Collections.singletonList(new TopicPartition("responses", 2)));
+        claimer.onPartitionsAssigned(Collections.singletonList(new TopicPartition("responses", 0)));
+        Assert.assertEquals(publisher.getReceivePartitions(), Arrays.asList(new TopicPartition("responses", 0),
+                                                                            new TopicPartition("responses", 2)));
+    }
+
+    @Test(expectedExceptions = PubSubException.class)
+    public void testSendWithoutClaimedPartitionsFails() throws PubSubException {
+        ResponsePartitionClaimer claimer = new ResponsePartitionClaimer();
+        KafkaQueryPublisher publisher = makePublisher(new MessageStore());
+        claimer.register(publisher);
+        publisher.send(new PubSubMessage("id", "query"));
+    }
+}
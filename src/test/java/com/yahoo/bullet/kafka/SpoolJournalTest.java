@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class SpoolJournalTest {
+    private Path directory;
+
+    private static ProducerRecord<String, byte[]> makeRecord(String key, int size) {
+        return new ProducerRecord<>("topic", 1, key, new byte[size]);
+    }
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("spool");
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTooSmall() throws IOException {
+        new SpoolJournal(directory.resolve("small"), 16);
+    }
+
+    @Test
+    public void testRecordsRoundTrip() throws IOException {
+        try (SpoolJournal journal = new SpoolJournal(directory.resolve("test"), 4096)) {
+            RecordHeaders headers = new RecordHeaders();
+            headers.add(KafkaHeaders.SEQUENCE, new byte[] { 1, 2 });
+            headers.add("empty", null);
+            Assert.assertTrue(journal.isEmpty());
+            Assert.assertTrue(journal.append(new ProducerRecord<>("topic", 3, 42L, "id", "foo".getBytes(StandardCharsets.UTF_8), headers)));
+            Assert.assertTrue(journal.append(new ProducerRecord<>("other", null, null, null)));
+            Assert.assertEquals(journal.size(), 2);
+
+            List<ProducerRecord<String, byte[]>> records = journal.peek(10);
+            Assert.assertEquals(records.size(), 2);
+            ProducerRecord<String, byte[]> first = records.get(0);
+            Assert.assertEquals(first.topic(), "topic");
+            Assert.assertEquals(first.partition(), (Integer) 3);
+            Assert.assertEquals(first.timestamp(), (Long) 42L);
+            Assert.assertEquals(first.key(), "id");
+            Assert.assertEquals(first.value(), "foo".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(first.headers().lastHeader(KafkaHeaders.SEQUENCE).value(), new byte[] { 1, 2 });
+            Assert.assertNull(first.headers().lastHeader("empty").value());
+            ProducerRecord<String, byte[]> second = records.get(1);
+            Assert.assertEquals(second.topic(), "other");
+            Assert.assertNull(second.partition());
+            Assert.assertNull(second.timestamp());
+            Assert.assertNull(second.key());
+            Assert.assertNull(second.value());
+
+            // Peeking does not remove
+            Assert.assertEquals(journal.peek(1).size(), 1);
+            Assert.assertEquals(journal.size(), 2);
+            journal.remove(1);
+            Assert.assertEquals(journal.peek(10).get(0).topic(), "other");
+            journal.remove(5);
+            Assert.assertTrue(journal.isEmpty());
+        }
+    }
+
+    @Test
+    public void testFullJournal() throws IOException {
+        try (SpoolJournal journal = new SpoolJournal(directory.resolve("test"), 1024)) {
+            int appended = 0;
+            while (journal.append(makeRecord("id" + appended, 100))) {
+                appended++;
+            }
+            Assert.assertTrue(appended > 0);
+            Assert.assertEquals(journal.size(), appended);
+            journal.remove(1);
+            Assert.assertTrue(journal.append(makeRecord("id" + appended, 100)));
+            Assert.assertEquals(journal.size(), appended);
+        }
+    }
+
+    @Test
+    public void testWrapsAround() throws IOException {
+        try (SpoolJournal journal = new SpoolJournal(directory.resolve("test"), 1024)) {
+            int next = 0;
+            int removed = 0;
+            // Keep a few records in the journal while going around it several times
+            for (int i = 0; i < 100; ++i) {
+                Assert.assertTrue(journal.append(makeRecord("id" + next++, 10 + i % 37)));
+                if (journal.size() > 3) {
+                    Assert.assertEquals(journal.peek(1).get(0).key(), "id" + removed);
+                    journal.remove(1);
+                    removed++;
+                }
+            }
+            List<ProducerRecord<String, byte[]>> records = journal.peek(10);
+            Assert.assertEquals(records.size(), 3);
+            for (int i = 0; i < 3; ++i) {
+                Assert.assertEquals(records.get(i).key(), "id" + (removed + i));
+            }
+        }
+    }
+
+    @Test
+    public void testRecordsSurviveReopening() throws IOException {
+        Path file = directory.resolve("test");
+        try (SpoolJournal journal = new SpoolJournal(file, 1024)) {
+            journal.append(makeRecord("a", 10));
+            journal.append(makeRecord("b", 10));
+            journal.append(makeRecord("c", 10));
+            journal.remove(1);
+        }
+        // The size of an existing file is kept
+        try (SpoolJournal journal = new SpoolJournal(file, 4096)) {
+            Assert.assertEquals(journal.size(), 2);
+            Assert.assertEquals(journal.peek(5).get(0).key(), "b");
+            Assert.assertEquals(journal.peek(5).get(1).key(), "c");
+            Assert.assertEquals(Files.size(file), 1024L);
+        }
+    }
+
+    @Test
+    public void testCorruptJournalIsReset() throws IOException {
+        Path file = directory.resolve("test");
+        byte[] garbage = new byte[1024];
+        Arrays.fill(garbage, (byte) 127);
+        Files.write(file, garbage);
+        try (SpoolJournal journal = new SpoolJournal(file, 1024)) {
+            Assert.assertTrue(journal.isEmpty());
+            Assert.assertTrue(journal.append(makeRecord("a", 1)));
+        }
+    }
+
+    @Test
+    public void testClaimingSkipsOpenJournals() throws IOException {
+        Path spool = directory.resolve("nested");
+        try (SpoolJournal first = SpoolJournal.claim(spool, "test", 1024);
+             SpoolJournal second = SpoolJournal.claim(spool, "test", 1024)) {
+            first.append(makeRecord("a", 1));
+            second.append(makeRecord("b", 1));
+            Assert.assertTrue(Files.exists(spool.resolve("test-0.journal")));
+            Assert.assertTrue(Files.exists(spool.resolve("test-1.journal")));
+        }
+        // Claimed again in the same order after a restart
+        try (SpoolJournal first = SpoolJournal.claim(spool, "test", 1024)) {
+            Assert.assertEquals(first.peek(1).get(0).key(), "a");
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testOpeningAnOpenJournalFails() throws IOException {
+        Path file = directory.resolve("test");
+        try (SpoolJournal journal = new SpoolJournal(file, 1024)) {
+            new SpoolJournal(file, 1024);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SpoolingProducerTest {
+    private Path directory;
+    private MockProducer<String, byte[]> mockProducer;
+    private SpoolJournal journal;
+
+    private static ProducerRecord<String, byte[]> makeRecord(String key) {
+        return new ProducerRecord<>("topic", 0, key, new byte[1]);
+    }
+
+    private List<String> sentKeys() {
+        return mockProducer.history().stream().map(ProducerRecord::key).collect(Collectors.toList());
+    }
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("spool");
+        mockProducer = new MockProducer<>(false, new StringSerializer(), new ByteArraySerializer());
+        journal = new SpoolJournal(directory.resolve("test.journal"), 4096);
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testSendsDirectlyWhenHealthy() {
+        SpoolingProducer producer = new SpoolingProducer(mockProducer, journal, 1000L, 0L);
+        List<Exception> errors = new ArrayList<>();
+        producer.send(makeRecord("a"), (metadata, e) -> errors.add(e));
+        mockProducer.completeNext();
+        Assert.assertEquals(sentKeys().size(), 1);
+        Assert.assertEquals(producer.getSpooled(), 0);
+        Assert.assertEquals(errors.size(), 1);
+        Assert.assertNull(errors.get(0));
+    }
+
+    @Test
+    public void testFailedSendsAndTheRestAreSpooledAndReplayedInOrder() throws Exception {
+        SpoolingProducer producer = new SpoolingProducer(mockProducer, journal, 1000L, 1000L);
+        List<Exception> errors = new ArrayList<>();
+        Callback callback = (metadata, e) -> errors.add(e);
+        producer.send(makeRecord("a"), callback);
+        mockProducer.errorNext(new TimeoutException("down"));
+        // The failure is hidden since the record was spooled
+        Assert.assertEquals(errors.size(), 1);
+        Assert.assertNull(errors.get(0));
+        Assert.assertEquals(producer.getSpooled(), 1);
+
+        Future<RecordMetadata> spooled = producer.send(makeRecord("b"), callback);
+        Assert.assertTrue(spooled.isDone());
+        Assert.assertNull(spooled.get());
+        Assert.assertEquals(errors.size(), 2);
+        Assert.assertEquals(producer.getSpooled(), 2);
+        Assert.assertEquals(sentKeys().size(), 1);
+
+        mockProducer.clear();
+        mockProducer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        SpoolingProducer recovered = new SpoolingProducer(mockProducer, journal, 1000L, 1000L);
+        Assert.assertTrue(recovered.replay());
+        Assert.assertEquals(sentKeys().size(), 2);
+        Assert.assertEquals(sentKeys().get(0), "a");
+        Assert.assertEquals(sentKeys().get(1), "b");
+        Assert.assertEquals(recovered.getSpooled(), 0);
+
+        recovered.send(makeRecord("c"));
+        Assert.assertEquals(sentKeys().get(2), "c");
+    }
+
+    @Test
+    public void testSynchronousRetriableFailuresAreSpooled() {
+        MockProducer<String, byte[]> failing = new MockProducer<String, byte[]>(true, new StringSerializer(), new ByteArraySerializer()) {
+            @Override
+            public synchronized Future<RecordMetadata> send(ProducerRecord<String, byte[]> record, Callback callback) {
+                throw new TimeoutException("Buffer full");
+            }
+        };
+        SpoolingProducer producer = new SpoolingProducer(failing, journal, 1000L, 0L);
+        producer.send(makeRecord("a"));
+        Assert.assertEquals(producer.getSpooled(), 1);
+        Assert.assertFalse(producer.isHealthy());
+        Assert.assertFalse(producer.replay());
+        Assert.assertEquals(producer.getSpooled(), 1);
+    }
+
+    @Test
+    public void testRecordsAreSpooledFromAFullBufferUntilTheJournalIsReplayed() {
+        mockProducer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        Metric available = mock(Metric.class);
+        when(available.metricValue()).thenReturn(0.0);
+        mockProducer.setMockMetrics(new MetricName("buffer-available-bytes", "producer-metrics", "", emptyMap()), available);
+        SpoolingProducer producer = new SpoolingProducer(mockProducer, journal, 1000L, 0L);
+
+        // Spooled up front instead of blocking on the buffer
+        producer.send(makeRecord("a"));
+        Assert.assertFalse(producer.isHealthy());
+        when(available.metricValue()).thenReturn(1048576.0);
+        producer.send(makeRecord("b"));
+        Assert.assertEquals(producer.getSpooled(), 2);
+        Assert.assertTrue(sentKeys().isEmpty());
+
+        Assert.assertTrue(producer.replay());
+        Assert.assertTrue(producer.isHealthy());
+        producer.send(makeRecord("c"));
+        Assert.assertEquals(sentKeys(), Arrays.asList("a", "b", "c"));
+        Assert.assertEquals(producer.getSpooled(), 0);
+    }
+
+    @Test
+    public void testRecordsAfterAnAsynchronousFailureAreSpooled() {
+        SpoolingProducer producer = new SpoolingProducer(mockProducer, journal, 1000L, 0L);
+        producer.send(makeRecord("a"));
+        mockProducer.errorNext(new TimeoutException("down"));
+        Assert.assertFalse(producer.isHealthy());
+        // Even if the journal is emptied by something else, nothing is sent directly until it is replayed
+        journal.remove(1);
+        producer.send(makeRecord("b"));
+        Assert.assertEquals(producer.getSpooled(), 1);
+        Assert.assertEquals(sentKeys(), singletonList("a"));
+    }
+
+    @Test(expectedExceptions = RecordTooLargeException.class)
+    public void testNonRetriableFailuresAreNotSpooled() {
+        MockProducer<String, byte[]> failing = new MockProducer<String, byte[]>(true, new StringSerializer(), new ByteArraySerializer()) {
+            @Override
+            public synchronized Future<RecordMetadata> send(ProducerRecord<String, byte[]> record, Callback callback) {
+                throw new RecordTooLargeException("Too large");
+            }
+        };
+        new SpoolingProducer(failing, journal, 1000L, 0L).send(makeRecord("a"));
+    }
+
+    @Test
+    public void testRecordsThatCannotBeSentAreDroppedOnReplay() {
+        journal.append(makeRecord("a"));
+        journal.append(makeRecord("b"));
+        SpoolingProducer producer = new SpoolingProducer(mockProducer, journal, 1000L, 0L);
+        mockProducer.errorNext(new RecordTooLargeException("Too large"));
+        // The replay waits on the sends so complete them from another thread
+        Thread completer = new Thread(() -> {
+            while (mockProducer.history().size() < 2) {
+                Thread.yield();
+            }
+            mockProducer.errorNext(new RecordTooLargeException("Too large"));
+            mockProducer.completeNext();
+        });
+        completer.start();
+        Assert.assertTrue(producer.replay());
+        Assert.assertEquals(producer.getSpooled(), 0);
+    }
+
+    @Test
+    public void testFullSpoolSendsDirectly() throws IOException {
+        journal.close();
+        journal = new SpoolJournal(directory.resolve("small.journal"), 64);
+        SpoolingProducer producer = new SpoolingProducer(mockProducer, journal, 1000L, 0L);
+        producer.send(makeRecord("a"));
+        mockProducer.errorNext(new TimeoutException("down"));
+        Assert.assertEquals(producer.getSpooled(), 1);
+        producer.send(makeRecord("b"));
+        Assert.assertEquals(producer.getSpooled(), 1);
+        Assert.assertEquals(sentKeys().get(1), "b");
+    }
+
+    @Test
+    public void testDrainerReplaysInTheBackground() throws Exception {
+        journal.append(makeRecord("a"));
+        mockProducer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        SpoolingProducer producer = new SpoolingProducer(mockProducer, journal, 10L, 10L);
+        producer.start();
+        producer.start();
+        while (producer.getSpooled() > 0) {
+            Thread.sleep(5L);
+        }
+        Assert.assertEquals(sentKeys().get(0), "a");
+        producer.close();
+        Assert.assertTrue(mockProducer.closed());
+        journal = new SpoolJournal(directory.resolve("test.journal"), 4096);
+    }
+
+    @Test
+    public void testSyncWritesOnlyChangesAfterTheInterval() throws IOException {
+        journal.close();
+        journal = spy(new SpoolJournal(directory.resolve("other.journal"), 4096));
+        SpoolingProducer producer = new SpoolingProducer(mockProducer, journal, 1000L, 1L);
+        producer.sync();
+        producer.send(makeRecord("a"));
+        mockProducer.errorNext(new TimeoutException("down"));
+        producer.sync();
+        try {
+            Thread.sleep(5L);
+        } catch (InterruptedException ignored) {
+        }
+        producer.sync();
+        verify(journal).force();
+    }
+
+    @Test(timeOut = 10000L)
+    public void testRecordsSpooledFromCallbacksAreWrittenByTheDrainer() throws IOException {
+        journal.close();
+        journal = spy(new SpoolJournal(directory.resolve("other.journal"), 4096));
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            threads.add(Thread.currentThread().getName());
+            return invocation.callRealMethod();
+        }).when(journal).force();
+        SpoolingProducer producer = new SpoolingProducer(mockProducer, journal, 1000L, 0L);
+        producer.send(makeRecord("a"));
+        mockProducer.errorNext(new TimeoutException("down"));
+        Assert.assertEquals(producer.getSpooled(), 1);
+        Assert.assertTrue(threads.isEmpty());
+
+        producer.start();
+        verify(journal, timeout(5000L)).force();
+        Assert.assertEquals(threads.get(0), "bullet-kafka-spool");
+        producer.close(Duration.ofSeconds(1));
+        journal = new SpoolJournal(directory.resolve("test.journal"), 4096);
+    }
+
+    @Test(timeOut = 10000L)
+    public void testCloseDoesNotWaitForAReplayPastTheTimeout() throws Exception {
+        journal.append(makeRecord("a"));
+        SpoolingProducer producer = new SpoolingProducer(mockProducer, journal, 1000L, 0L);
+        producer.start();
+        // The replayed record is never completed
+        while (mockProducer.history().isEmpty()) {
+            Thread.sleep(5L);
+        }
+        long start = System.currentTimeMillis();
+        producer.close(Duration.ofMillis(500L));
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000L);
+        Assert.assertTrue(mockProducer.closed());
+
+        // The record is kept to be replayed again
+        journal = new SpoolJournal(directory.resolve("test.journal"), 4096);
+        Assert.assertEquals(journal.size(), 1);
+    }
+
+    @Test
+    public void testCallsAreForwarded() {
+        MockProducer<String, byte[]> forwarded = spy(new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer()));
+        SpoolingProducer producer = new SpoolingProducer(forwarded, journal, 1000L, 0L);
+        producer.flush();
+        producer.partitionsFor("topic");
+        producer.metrics();
+        verify(forwarded).flush();
+        verify(forwarded).partitionsFor("topic");
+        verify(forwarded).metrics();
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testNoTransactions() {
+        new SpoolingProducer(mockProducer, journal, 1000L, 0L).beginTransaction();
+    }
+}
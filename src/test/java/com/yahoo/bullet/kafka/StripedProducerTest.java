@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@SuppressWarnings("unchecked")
+public class StripedProducerTest {
+    private Producer<String, byte[]> first;
+    private Producer<String, byte[]> second;
+    private StripedProducer producer;
+
+    @BeforeMethod
+    public void setup() {
+        first = (Producer<String, byte[]>) mock(Producer.class);
+        second = (Producer<String, byte[]>) mock(Producer.class);
+        producer = new StripedProducer(Arrays.asList(first, second));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNeedsProducers() {
+        new StripedProducer(Collections.emptyList());
+    }
+
+    @Test
+    public void testRecordsAreStripedByPartition() {
+        ProducerRecord<String, byte[]> even = new ProducerRecord<>("topic", 4, "a", new byte[0]);
+        ProducerRecord<String, byte[]> odd = new ProducerRecord<>("topic", 7, "a", new byte[0]);
+        Callback callback = (metadata, e) -> { };
+        producer.send(even);
+        producer.send(odd, callback);
+        verify(first).send(even);
+        verify(second).send(odd, callback);
+    }
+
+    @Test
+    public void testRecordsWithoutPartitionsAreStripedByKey() {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>("topic", "some-key", new byte[0]);
+        Assert.assertSame(producer.getStripe(record), producer.getStripe(new ProducerRecord<>("other", "some-key", new byte[1])));
+        Assert.assertSame(producer.getStripe(new ProducerRecord<>("topic", null, new byte[0])), first);
+    }
+
+    @Test
+    public void testCallsAreForwardedToAllStripes() {
+        producer.flush();
+        producer.close();
+        producer.close(Duration.ofSeconds(1));
+        producer.partitionsFor("topic");
+        verify(first).flush();
+        verify(second).flush();
+        verify(first).close();
+        verify(second).close();
+        verify(first).close(Duration.ofSeconds(1));
+        verify(second).close(Duration.ofSeconds(1));
+        verify(first).partitionsFor("topic");
+    }
+
+    @Test
+    public void testMetricsAreMerged() {
+        MetricName a = new MetricName("a", "group", "", new HashMap<>());
+        MetricName b = new MetricName("b", "group", "", new HashMap<>());
+        Map<MetricName, Metric> firstMetrics = Collections.singletonMap(a, mock(Metric.class));
+        Map<MetricName, Metric> secondMetrics = Collections.singletonMap(b, mock(Metric.class));
+        doReturn(firstMetrics).when(first).metrics();
+        doReturn(secondMetrics).when(second).metrics();
+        Assert.assertEquals(producer.metrics().keySet(), new HashSet<>(Arrays.asList(a, b)));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testNoTransactions() {
+        producer.initTransactions();
+    }
+}
@@ -14,8 +14,12 @@ import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -98,4 +102,33 @@ public class TestUtils {
         recordMap.put(new TopicPartition("testMessage", 0), Collections.singletonList(record));
         return new ConsumerRecords<>(recordMap);
     }
+
+    public static ConsumerRecord<String, byte[]> makeConsumerRecord(TopicPartition partition, long offset, PubSubMessage message) {
+        return new ConsumerRecord<>(partition.topic(), partition.partition(), offset, message.getId(),
+                                    SerializerDeserializer.toBytes(message));
+    }
+
+    public static ConsumerRecord<String, byte[]> makeConsumerRecord(TopicPartition partition, long offset, long timestamp,
+                                                                    PubSubMessage message) {
+        return new ConsumerRecord<>(partition.topic(), partition.partition(), offset, timestamp, TimestampType.CREATE_TIME,
+                                    0L, 0, 0, message.getId(), SerializerDeserializer.toBytes(message),
+                                    KafkaHeaders.add(new RecordHeaders(), message, null));
+    }
+
+    public static ConsumerRecord<String, byte[]> makeConsumerRecord(TopicPartition partition, long offset, PubSubMessage message,
+                                                                    Headers headers) {
+        return new ConsumerRecord<>(partition.topic(), partition.partition(), offset, ConsumerRecord.NO_TIMESTAMP,
+                                    TimestampType.NO_TIMESTAMP_TYPE, 0L, 0, 0, message.getId(),
+                                    SerializerDeserializer.toBytes(message), headers);
+    }
+
+    @SafeVarargs
+    public static ConsumerRecords<String, byte[]> makeConsumerRecords(ConsumerRecord<String, byte[]>... records) {
+        Map<TopicPartition, List<ConsumerRecord<String, byte[]>>> recordMap = new HashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            recordMap.computeIfAbsent(partition, k -> new ArrayList<>()).add(record);
+        }
+        return new ConsumerRecords<>(recordMap);
+    }
 }
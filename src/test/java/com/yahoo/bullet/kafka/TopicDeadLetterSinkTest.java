@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.mockito.ArgumentCaptor;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@SuppressWarnings("unchecked")
+public class TopicDeadLetterSinkTest {
+    @Test
+    public void testRecordsAreCopiedWithTheirSource() {
+        Producer<String, byte[]> producer = (Producer<String, byte[]>) mock(Producer.class);
+        TopicDeadLetterSink sink = new TopicDeadLetterSink(producer, "dead");
+        RecordHeaders headers = new RecordHeaders();
+        headers.add("original", new byte[] {1});
+        byte[] value = {1, 2, 3};
+
+        CompletableFuture<Void> stored = sink.send(new ConsumerRecord<>("topic", 2, 42, 0L, TimestampType.CREATE_TIME, 0L, 0, 0, "key", value, headers), "Bad");
+
+        ArgumentCaptor<ProducerRecord> captor = ArgumentCaptor.forClass(ProducerRecord.class);
+        ArgumentCaptor<Callback> callback = ArgumentCaptor.forClass(Callback.class);
+        verify(producer).send(captor.capture(), callback.capture());
+        Assert.assertFalse(stored.isDone());
+        callback.getValue().onCompletion(null, null);
+        Assert.assertTrue(stored.isDone());
+        ProducerRecord<String, byte[]> record = captor.getValue();
+        Assert.assertEquals(record.topic(), "dead");
+        Assert.assertEquals(record.key(), "key");
+        Assert.assertSame(record.value(), value);
+        Assert.assertNotNull(record.headers().lastHeader("original"));
+        Assert.assertEquals(new String(record.headers().lastHeader(TopicDeadLetterSink.SOURCE).value(), StandardCharsets.UTF_8), "topic-2@42");
+        Assert.assertEquals(new String(record.headers().lastHeader(TopicDeadLetterSink.REASON).value(), StandardCharsets.UTF_8), "Bad");
+
+        sink.close();
+        verify(producer).close();
+    }
+
+    @Test
+    public void testFailedWritesCompleteExceptionally() {
+        Producer<String, byte[]> producer = (Producer<String, byte[]>) mock(Producer.class);
+        TopicDeadLetterSink sink = new TopicDeadLetterSink(producer, "dead");
+        CompletableFuture<Void> stored = sink.send(new ConsumerRecord<>("topic", 0, 0, "key", new byte[0]), "Bad");
+
+        ArgumentCaptor<Callback> callback = ArgumentCaptor.forClass(Callback.class);
+        verify(producer).send(any(ProducerRecord.class), callback.capture());
+        callback.getValue().onCompletion(null, new RuntimeException("Testing"));
+        Assert.assertTrue(stored.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testSharedProducerIsCreatedOnFirstUseAndClosedWithTheLastSink() {
+        Producer<String, byte[]> producer = (Producer<String, byte[]>) mock(Producer.class);
+        AtomicInteger created = new AtomicInteger();
+        TopicDeadLetterSink.SharedProducer shared = new TopicDeadLetterSink.SharedProducer(() -> {
+            created.incrementAndGet();
+            return producer;
+        });
+        TopicDeadLetterSink first = new TopicDeadLetterSink(shared, "dead");
+        TopicDeadLetterSink second = new TopicDeadLetterSink(shared, "dead");
+        Assert.assertEquals(created.get(), 0);
+
+        first.send(new ConsumerRecord<>("topic", 0, 0, "key", new byte[0]), "Bad");
+        second.send(new ConsumerRecord<>("topic", 0, 1, "key", new byte[0]), "Bad");
+        Assert.assertEquals(created.get(), 1);
+        verify(producer, times(2)).send(any(ProducerRecord.class), any(Callback.class));
+
+        first.close();
+        first.close();
+        verify(producer, never()).close();
+        second.close();
+        verify(producer).close();
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ *  Copyright 2021, Yahoo Inc.
+ *  Licensed under the terms of the Apache License, Version 2.0.
+ *  See the LICENSE file associated with the project for terms.
+ */
+package com.yahoo.bullet.kafka.legacy;
+
+import com.yahoo.bullet.pubsub.Metadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.Serializable;
+
+/**
+ * The fields of {@link com.yahoo.bullet.kafka.KafkaMetadata} before it carried traces, to test reading metadata that
+ * was serialized by older versions.
+ */
+public class KafkaMetadata extends Metadata implements Serializable {
+    private static final long serialVersionUID = 4657220477717531260L;
+
+    private TopicPartition topicPartition;
+
+    public KafkaMetadata(TopicPartition topicPartition) {
+        this.topicPartition = topicPartition;
+    }
+}